@@ -0,0 +1,59 @@
+package com.itRoad.documents_service.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itRoad.documents_service.dto.ApiResponse;
+import com.itRoad.documents_service.models.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// JSON serialization of documents wrapped in ApiResponse, using the same Jackson setup as Spring MVC
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ApiResponseSerializationBenchmark {
+
+	@Param({"1", "100"})
+	private int documentCount;
+
+	private ObjectMapper objectMapper;
+
+	private ApiResponse<List<Document>> response;
+
+	@Setup
+	public void setUp() {
+		objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+		List<Document> documents = new ArrayList<>();
+		for (int i = 0; i < documentCount; i++) {
+			Document document = new Document();
+			document.setId((long) i);
+			document.setName("Invoice " + i);
+			document.setType("PDF");
+			document.setCategory("Invoices");
+			document.setDate(LocalDate.of(2025, 1, 1));
+			document.setUrl("/api/documents/download/" + "ab".repeat(32) + "/invoice-" + i + ".pdf");
+			document.setChecksum("ab".repeat(32));
+			document.setSize(123_456L);
+			document.setUserId(42L);
+			documents.add(document);
+		}
+		response = new ApiResponse<>(true, "Documents retrieved", documents);
+	}
+
+	@Benchmark
+	public byte[] serialize() throws Exception {
+		return objectMapper.writeValueAsBytes(response);
+	}
+}
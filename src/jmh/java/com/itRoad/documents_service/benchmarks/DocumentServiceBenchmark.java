@@ -0,0 +1,88 @@
+package com.itRoad.documents_service.benchmarks;
+
+import com.itRoad.documents_service.DocumentsServiceApplication;
+import com.itRoad.documents_service.dto.CursorPage;
+import com.itRoad.documents_service.dto.DocumentSummary;
+import com.itRoad.documents_service.services.DocumentService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// DocumentService queries against the embedded H2 database of the test configuration, migrated by Flyway
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DocumentServiceBenchmark {
+
+	private static final int USERS = 100;
+
+	private static final int DOCUMENTS_PER_USER = 200;
+
+	private ConfigurableApplicationContext context;
+
+	private DocumentService documentService;
+
+	private String secondPageCursor;
+
+	@Setup
+	public void setUp() {
+		context = new SpringApplicationBuilder(DocumentsServiceApplication.class)
+				.web(WebApplicationType.NONE)
+				.run();
+		documentService = context.getBean(DocumentService.class);
+
+		JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+		LocalDate today = LocalDate.of(2025, 1, 1);
+		List<Object[]> rows = new ArrayList<>();
+		for (long user = 0; user < USERS; user++) {
+			for (int i = 0; i < DOCUMENTS_PER_USER; i++) {
+				rows.add(new Object[]{"doc-" + i, i % 2 == 0 ? "PDF" : "PNG", "C" + (i % 5),
+						Date.valueOf(today.minusDays(i)), user});
+			}
+		}
+		jdbcTemplate.batchUpdate("INSERT INTO documents (name, type, category, date, user_id) VALUES (?, ?, ?, ?, ?)", rows);
+		jdbcTemplate.execute("ANALYZE");
+
+		secondPageCursor = documentService.getDocumentsByUserId(1L, null, 20).getNextCursor();
+	}
+
+	@TearDown
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public CursorPage<DocumentSummary> firstPageByUser() {
+		return documentService.getDocumentsByUserId(1L, null, 20);
+	}
+
+	@Benchmark
+	public CursorPage<DocumentSummary> secondPageByUser() {
+		return documentService.getDocumentsByUserId(1L, secondPageCursor, 20);
+	}
+
+	@Benchmark
+	public CursorPage<DocumentSummary> pageByUserAndType() {
+		return documentService.getDocumentsByUserAndType(1L, "PDF", null, 20);
+	}
+
+	@Benchmark
+	public Long countByUser() {
+		return documentService.countDocumentsByUser(1L);
+	}
+}
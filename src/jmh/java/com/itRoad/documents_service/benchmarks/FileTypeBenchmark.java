@@ -0,0 +1,27 @@
+package com.itRoad.documents_service.benchmarks;
+
+import com.itRoad.documents_service.utils.FileTypeUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// File type extraction done on every upload
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FileTypeBenchmark {
+
+	@Param({"CV_Chaimaa_Tamir.pdf", "scan.2024.03.final.jpeg", "README"})
+	private String filename;
+
+	@Benchmark
+	public String extractType() {
+		return FileTypeUtil.extractType(filename);
+	}
+}
@@ -0,0 +1,80 @@
+package com.itRoad.documents_service.benchmarks;
+
+import com.itRoad.documents_service.security.JwtAuthenticationFilter;
+import com.itRoad.documents_service.utils.JwtUtil;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+// Token verification with and without the verified-token cache, and the full authentication filter
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JwtBenchmark {
+
+	private static final String SECRET_KEY = "jwt.myVerySecureSecretKeyThatIsAtLeast32CharactersLongForHS256Algorithm";
+
+	private String token;
+
+	private JwtUtil cachingJwtUtil;
+
+	private JwtUtil verifyingJwtUtil;
+
+	private JwtAuthenticationFilter filter;
+
+	@Setup
+	public void setUp() {
+		token = Jwts.builder()
+				.subject("benchmark-user")
+				.expiration(new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)))
+				.signWith(Keys.hmacShaKeyFor(SECRET_KEY.getBytes(StandardCharsets.UTF_8)))
+				.compact();
+
+		cachingJwtUtil = new JwtUtil(new SimpleMeterRegistry(), 10_000, Duration.ofMinutes(15));
+		// A zero-sized cache keeps nothing, so every call verifies the signature
+		verifyingJwtUtil = new JwtUtil(new SimpleMeterRegistry(), 0, Duration.ofMinutes(15));
+
+		filter = new JwtAuthenticationFilter();
+		ReflectionTestUtils.setField(filter, "jwtUtil", cachingJwtUtil);
+	}
+
+	@Benchmark
+	public Claims extractClaimsCached() {
+		return cachingJwtUtil.extractClaims(token);
+	}
+
+	@Benchmark
+	public Claims extractClaimsVerified() {
+		return verifyingJwtUtil.extractClaims(token);
+	}
+
+	@Benchmark
+	public Object authenticationFilter() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/documents/users/1");
+		request.addHeader("Authorization", "Bearer " + token);
+		try {
+			filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+			return SecurityContextHolder.getContext().getAuthentication();
+		} finally {
+			SecurityContextHolder.clearContext();
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package com.itRoad.documents_service.benchmarks;
+
+import com.itRoad.documents_service.storage.ContentAddressedStorageBackend;
+import com.itRoad.documents_service.storage.StoredBlob;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// Storing and reading back a realistic upload mix with storage compression on and off.
+// The disk and bandwidth savings of the mix are printed once per trial.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StorageCompressionBenchmark {
+
+	private static final Set<String> COMPRESSIBLE_TYPES =
+			Set.of("TXT", "CSV", "TSV", "JSON", "XML", "HTML", "HTM", "MD", "LOG", "SVG", "RTF", "PDF", "DOC", "XLS", "PPT");
+
+	@Param({"true", "false"})
+	private boolean compression;
+
+	private Path root;
+
+	private ContentAddressedStorageBackend backend;
+
+	private final List<Sample> mix = new ArrayList<>();
+
+	private final List<String> keys = new ArrayList<>();
+
+	private record Sample(String type, byte[] content) {
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		root = Files.createTempDirectory("storage-benchmark");
+		backend = new ContentAddressedStorageBackend(root.toString(), compression, COMPRESSIBLE_TYPES, 6, 0.1, 64, 4096,
+				DataSize.ofKilobytes(64), DataSize.ofMegabytes(64), 0.5);
+		backend.init();
+
+		Random random = new Random(7);
+		for (int i = 0; i < 4; i++) {
+			mix.add(new Sample("PDF", pdf(random, 8, true)));
+		}
+		mix.add(new Sample("PDF", pdf(random, 8, false)));
+		for (int i = 0; i < 3; i++) {
+			mix.add(new Sample("PNG", image(random, "png")));
+			mix.add(new Sample("JPG", image(random, "jpg")));
+		}
+		mix.add(new Sample("DOCX", docx(random)));
+		mix.add(new Sample("DOCX", docx(random)));
+		mix.add(new Sample("CSV", csv(random, 5000)));
+		mix.add(new Sample("CSV", csv(random, 20000)));
+		mix.add(new Sample("TXT", log(random, 4000)));
+		mix.add(new Sample("JSON", json(random, 1500)));
+
+		Map<String, long[]> byType = new LinkedHashMap<>();
+		long raw = 0;
+		long stored = 0;
+		for (Sample sample : mix) {
+			StoredBlob blob = backend.store(new ByteArrayInputStream(sample.content()), sample.type());
+			keys.add(blob.getKey());
+			raw += blob.getSize();
+			stored += blob.getStoredSize();
+			long[] totals = byType.computeIfAbsent(sample.type(), type -> new long[2]);
+			totals[0] += blob.getSize();
+			totals[1] += blob.getStoredSize();
+		}
+		System.out.printf("%ncompression=%s: %d files, %d bytes uploaded, %d bytes on disk (%.1f%% saved); "
+						+ "gzip-accepting clients download %d bytes instead of %d%n",
+				compression, mix.size(), raw, stored, 100.0 * (raw - stored) / raw, stored, raw);
+		byType.forEach((type, totals) -> System.out.printf("  %-5s %9d -> %9d bytes (%.1f%% saved)%n",
+				type, totals[0], totals[1], 100.0 * (totals[0] - totals[1]) / totals[0]));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		backend.close();
+		FileSystemUtils.deleteRecursively(root);
+	}
+
+	// Upload path: hash, optionally gzip, and write every file of the mix (blobs already exist, so
+	// the work measured is the streaming, not the final move)
+	@Benchmark
+	public long storeMix() throws IOException {
+		long stored = 0;
+		for (Sample sample : mix) {
+			stored += backend.store(new ByteArrayInputStream(sample.content()), sample.type()).getStoredSize();
+		}
+		return stored;
+	}
+
+	// Download path for clients without gzip: every file is read decompressed
+	@Benchmark
+	public long readMixDecoded() throws IOException {
+		long read = 0;
+		for (String key : keys) {
+			try (InputStream in = backend.load(key).getInputStream()) {
+				read += in.transferTo(OutputStream.nullOutputStream());
+			}
+		}
+		return read;
+	}
+
+	// Download path for clients accepting gzip: every file is read as stored
+	@Benchmark
+	public long readMixStored() throws IOException {
+		long read = 0;
+		for (String key : keys) {
+			try (InputStream in = backend.loadStored(key).getInputStream()) {
+				read += in.transferTo(OutputStream.nullOutputStream());
+			}
+		}
+		return read;
+	}
+
+	private static byte[] pdf(Random random, int pages, boolean compressStreams) throws IOException {
+		try (PDDocument document = new PDDocument(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+			PDType1Font font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+			for (int p = 0; p < pages; p++) {
+				PDPage page = new PDPage();
+				document.addPage(page);
+				try (PDPageContentStream content = new PDPageContentStream(document, page,
+						PDPageContentStream.AppendMode.OVERWRITE, compressStreams)) {
+					content.beginText();
+					content.setFont(font, 10);
+					content.setLeading(12);
+					content.newLineAtOffset(50, 750);
+					for (int line = 0; line < 55; line++) {
+						content.showText(sentence(random, 12));
+						content.newLine();
+					}
+					content.endText();
+				}
+			}
+			document.save(out);
+			return out.toByteArray();
+		}
+	}
+
+	// Photo-like image: smooth gradients plus sensor noise, which lossless compression cannot remove
+	private static byte[] image(Random random, String format) throws IOException {
+		BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				int r = (x * 255 / image.getWidth() + random.nextInt(24)) & 0xFF;
+				int g = (y * 255 / image.getHeight() + random.nextInt(24)) & 0xFF;
+				int b = ((x + y) * 127 / 1400 + random.nextInt(24)) & 0xFF;
+				image.setRGB(x, y, r << 16 | g << 8 | b);
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, format, out);
+		return out.toByteArray();
+	}
+
+	// DOCX files are ZIP archives of XML parts, already deflated
+	private static byte[] docx(Random random) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(out)) {
+			zip.putNextEntry(new ZipEntry("word/document.xml"));
+			StringBuilder xml = new StringBuilder("<w:document><w:body>");
+			for (int i = 0; i < 600; i++) {
+				xml.append("<w:p><w:r><w:t>").append(sentence(random, 14)).append("</w:t></w:r></w:p>");
+			}
+			zip.write(xml.append("</w:body></w:document>").toString().getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] csv(Random random, int rows) {
+		StringBuilder csv = new StringBuilder("invoice_id,customer,date,amount,currency,status\n");
+		for (int i = 0; i < rows; i++) {
+			csv.append("INV-").append(100000 + i).append(",customer-").append(random.nextInt(300))
+					.append(",2025-").append(1 + random.nextInt(12)).append('-').append(1 + random.nextInt(28))
+					.append(',').append(random.nextInt(100000) / 100.0).append(",EUR,")
+					.append(random.nextBoolean() ? "PAID" : "PENDING").append('\n');
+		}
+		return csv.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] log(Random random, int lines) {
+		StringBuilder log = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			log.append("2025-06-01T10:").append(10 + i % 50).append(':').append(10 + random.nextInt(50))
+					.append(" INFO  [http-nio-8080-exec-").append(random.nextInt(200)).append("] c.i.d.s.DocumentService : ")
+					.append(sentence(random, 8)).append('\n');
+		}
+		return log.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] json(Random random, int items) {
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < items; i++) {
+			json.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"name\":\"")
+					.append(sentence(random, 3)).append("\",\"category\":\"C").append(random.nextInt(10))
+					.append("\",\"size\":").append(random.nextInt(1_000_000)).append('}');
+		}
+		return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static final String[] WORDS = {"invoice", "contract", "payment", "document", "customer", "report",
+			"quarter", "total", "amount", "delivery", "service", "agreement", "signed", "annual", "review"};
+
+	private static String sentence(Random random, int words) {
+		StringBuilder sentence = new StringBuilder();
+		for (int i = 0; i < words; i++) {
+			sentence.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return sentence.toString();
+	}
+}
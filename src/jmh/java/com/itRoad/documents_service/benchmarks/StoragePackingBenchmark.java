@@ -0,0 +1,130 @@
+package com.itRoad.documents_service.benchmarks;
+
+import com.itRoad.documents_service.storage.ContentAddressedStorageBackend;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Writing and reading small files (1-16 KB) packed into segments versus one file per blob.
+// Setup stores the whole population once and prints its write throughput and the files and bytes
+// it left on disk; the full comparison is with -p files=1000000.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StoragePackingBenchmark {
+
+	private static final int BATCH = 1000;
+
+	@Param({"true", "false"})
+	private boolean packing;
+
+	@Param({"100000"})
+	private int files;
+
+	private Path root;
+
+	private ContentAddressedStorageBackend backend;
+
+	private String[] keys;
+
+	private SplittableRandom random;
+
+	// Continues after the population, so every write is new content
+	private long next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		root = Files.createTempDirectory("packing-benchmark");
+		backend = new ContentAddressedStorageBackend(root.toString(), false, Set.of(), 6, 0.1, 64, 65536,
+				DataSize.ofKilobytes(packing ? 64 : 0), DataSize.ofMegabytes(64), 0.5);
+		backend.init();
+
+		keys = new String[files];
+		long start = System.nanoTime();
+		for (int i = 0; i < files; i++) {
+			keys[i] = store(i);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long[] usage = usage(root);
+		System.out.printf("%npacking=%s: %d files written in %.1f s (%.0f files/s), %d files and %d bytes on disk%n",
+				packing, files, seconds, files / seconds, usage[0], usage[1]);
+		random = new SplittableRandom(11);
+		next = files;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		backend.close();
+		FileSystemUtils.deleteRecursively(root);
+	}
+
+	// Files written per second
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long write() throws IOException {
+		long stored = 0;
+		for (int i = 0; i < BATCH; i++) {
+			stored += store(next++).length();
+		}
+		return stored;
+	}
+
+	// Files read per second, picked at random from the population
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long read() throws IOException {
+		long read = 0;
+		for (int i = 0; i < BATCH; i++) {
+			try (InputStream in = backend.load(keys[random.nextInt(keys.length)]).getInputStream()) {
+				read += in.transferTo(OutputStream.nullOutputStream());
+			}
+		}
+		return read;
+	}
+
+	private String store(long n) throws IOException {
+		return backend.store(new ByteArrayInputStream(content(n)), "PNG").getKey();
+	}
+
+	// 1-16 KB of incompressible content that is unique to n
+	private static byte[] content(long n) {
+		SplittableRandom random = new SplittableRandom(n);
+		byte[] content = new byte[1024 + random.nextInt(15 * 1024)];
+		random.nextBytes(content);
+		ByteBuffer.wrap(content).putLong(n);
+		return content;
+	}
+
+	private static long[] usage(Path root) throws IOException {
+		try (Stream<Path> walk = Files.walk(root)) {
+			long[] usage = new long[2];
+			walk.filter(Files::isRegularFile).forEach(file -> {
+				usage[0]++;
+				usage[1] += file.toFile().length();
+			});
+			return usage;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package com.itRoad.documents_service.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itRoad.documents_service.dto.ApiResponse;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the number of document requests processed at once. With virtual threads Tomcat no longer
+ * bounds concurrency through its thread pool, so without this cap thousands of slow uploads and
+ * downloads would all queue on the database connection pool. Excess requests wait briefly for a
+ * slot and are then rejected with 503 and a Retry-After header.
+ */
+@Component
+public class ConcurrencyLimitFilter extends OncePerRequestFilter {
+
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    private final Semaphore permits;
+
+    private final long maxWaitMillis;
+
+    private final ObjectMapper objectMapper;
+
+    public ConcurrencyLimitFilter(@Value("${documents.execution.max-concurrent-requests:0}") int maxConcurrentRequests,
+                                  @Value("${documents.execution.max-queue-wait:2s}") Duration maxQueueWait,
+                                  ObjectMapper objectMapper) {
+        this.permits = maxConcurrentRequests > 0 ? new Semaphore(maxConcurrentRequests) : null;
+        this.maxWaitMillis = maxQueueWait.toMillis();
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return permits == null || !request.getRequestURI().startsWith("/api/documents");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain)
+            throws ServletException, IOException {
+
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+
+        if (!acquired) {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            objectMapper.writeValue(response.getOutputStream(),
+                    new ApiResponse<>(false, "Server is busy, please retry", null));
+            return;
+        }
+
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            permits.release();
+        }
+    }
+}
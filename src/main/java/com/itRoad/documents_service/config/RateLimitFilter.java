@@ -0,0 +1,392 @@
+package com.itRoad.documents_service.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.itRoad.documents_service.dto.ApiResponse;
+import com.itRoad.documents_service.dto.UserDto;
+import com.itRoad.documents_service.utils.TokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Token-bucket rate limits on uploads and downloads, per client and for the whole instance, so one
+ * client scripting transfers cannot take the disk and the request threads from everyone else.
+ * Clients are identified by the JWT subject, or by IP address when unauthenticated. Each direction
+ * has a request budget and a bytes budget; rejected requests get 429 with a Retry-After header.
+ * <p>
+ * Upload bytes are charged up front from Content-Length. Download sizes are only known once the
+ * response is produced, so a download is admitted while the client's bytes budget is not in debt
+ * and its declared Content-Length is charged when it completes. Responses streamed without a
+ * Content-Length, like exports, are charged as their bytes are written.
+ * <p>
+ * Runs after Spring Security (which sets the authenticated user) and before the concurrency limit,
+ * so requests over budget never take a processing slot.
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private static final String API_PATH = "/api/documents";
+
+    private static final Pattern EXPORT_PATH = Pattern.compile("/users/[^/]+/export");
+
+    enum Direction { UPLOAD, DOWNLOAD }
+
+    // The budgets a request can be rejected for, as tagged on the rejection counter
+    enum Limit {
+        CLIENT_REQUESTS("requests", "client"),
+        CLIENT_BYTES("bytes", "client"),
+        GLOBAL_BYTES("bytes", "global");
+
+        private final String budget;
+        private final String scope;
+
+        Limit(String budget, String scope) {
+            this.budget = budget;
+            this.scope = scope;
+        }
+    }
+
+    private final boolean enabled;
+    private final double burstSeconds;
+    private final double[] requestsPerSecond = new double[Direction.values().length];
+    private final double[] bytesPerSecond = new double[Direction.values().length];
+
+    // Instance-wide bytes budgets, null when unlimited
+    private final TokenBucket[] globalBytes = new TokenBucket[Direction.values().length];
+
+    private final Cache<String, ClientBuckets> clients;
+    private final ObjectMapper objectMapper;
+
+    // Registered up front for every tag combination, so counting is not a registry lookup per request
+    private final Counter[] admitted = new Counter[Direction.values().length];
+    private final Counter[][] rejected = new Counter[Direction.values().length][Limit.values().length];
+
+    public RateLimitFilter(@Value("${documents.rate-limit.enabled:true}") boolean enabled,
+                           @Value("${documents.rate-limit.burst-seconds:5}") double burstSeconds,
+                           @Value("${documents.rate-limit.upload.requests-per-second:10}") double uploadRequestsPerSecond,
+                           @Value("${documents.rate-limit.upload.bytes-per-second:50MB}") DataSize uploadBytesPerSecond,
+                           @Value("${documents.rate-limit.download.requests-per-second:50}") double downloadRequestsPerSecond,
+                           @Value("${documents.rate-limit.download.bytes-per-second:100MB}") DataSize downloadBytesPerSecond,
+                           @Value("${documents.rate-limit.global.upload.bytes-per-second:0}") DataSize globalUploadBytesPerSecond,
+                           @Value("${documents.rate-limit.global.download.bytes-per-second:0}") DataSize globalDownloadBytesPerSecond,
+                           @Value("${documents.rate-limit.client-idle-expiry:10m}") Duration clientIdleExpiry,
+                           ObjectMapper objectMapper,
+                           MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.burstSeconds = burstSeconds;
+        requestsPerSecond[Direction.UPLOAD.ordinal()] = uploadRequestsPerSecond;
+        requestsPerSecond[Direction.DOWNLOAD.ordinal()] = downloadRequestsPerSecond;
+        bytesPerSecond[Direction.UPLOAD.ordinal()] = uploadBytesPerSecond.toBytes();
+        bytesPerSecond[Direction.DOWNLOAD.ordinal()] = downloadBytesPerSecond.toBytes();
+        globalBytes[Direction.UPLOAD.ordinal()] = bucket(globalUploadBytesPerSecond.toBytes(), System.nanoTime());
+        globalBytes[Direction.DOWNLOAD.ordinal()] = bucket(globalDownloadBytesPerSecond.toBytes(), System.nanoTime());
+        // Buckets of idle clients are full again after burst-seconds, so dropping them loses nothing
+        this.clients = Caffeine.newBuilder()
+                .expireAfterAccess(clientIdleExpiry)
+                .build();
+        this.objectMapper = objectMapper;
+        for (Direction direction : Direction.values()) {
+            String name = direction.name().toLowerCase(Locale.ROOT);
+            admitted[direction.ordinal()] = Counter.builder("documents.rate.limit.admitted")
+                    .description("Requests admitted by the rate limits")
+                    .tag("direction", name)
+                    .register(meterRegistry);
+            for (Limit limit : Limit.values()) {
+                rejected[direction.ordinal()][limit.ordinal()] = Counter.builder("documents.rate.limit.rejected")
+                        .description("Requests rejected for exceeding a rate limit")
+                        .tag("direction", name)
+                        .tag("budget", limit.budget)
+                        .tag("scope", limit.scope)
+                        .register(meterRegistry);
+            }
+        }
+        Gauge.builder("documents.rate.limit.clients", clients, Cache::estimatedSize)
+                .description("Clients with rate limit buckets")
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled || directionOf(request) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain)
+            throws ServletException, IOException {
+
+        Direction direction = directionOf(request);
+        int d = direction.ordinal();
+        long now = System.nanoTime();
+        ClientBuckets client = clients.get(clientKey(request), key -> new ClientBuckets(now));
+        long uploadBytes = direction == Direction.UPLOAD ? Math.max(0, request.getContentLengthLong()) : 0;
+
+        long wait = acquire(client.requests[d], 1, now);
+        if (wait > 0) {
+            reject(response, direction, Limit.CLIENT_REQUESTS, wait);
+            return;
+        }
+        wait = acquire(client.bytes[d], uploadBytes, now);
+        if (wait > 0) {
+            reject(response, direction, Limit.CLIENT_BYTES, wait);
+            return;
+        }
+        wait = acquire(globalBytes[d], uploadBytes, now);
+        if (wait > 0) {
+            // Give the client back what this rejected upload was charged
+            charge(client.bytes[d], -uploadBytes, now);
+            reject(response, direction, Limit.GLOBAL_BYTES, wait);
+            return;
+        }
+        admitted[d].increment();
+
+        if (direction == Direction.UPLOAD) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        ChargedResponse wrapped = new ChargedResponse(response, client.bytes[d], globalBytes[d]);
+        try {
+            filterChain.doFilter(request, wrapped);
+        } finally {
+            if (request.isAsyncStarted()) {
+                // The body is written after this returns, e.g. a streamed export
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        wrapped.complete();
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                wrapped.complete();
+            }
+        }
+    }
+
+    // Uploads create content, downloads send stored files; everything else is not limited here
+    static Direction directionOf(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (!path.startsWith(API_PATH)) {
+            return null;
+        }
+        String rest = path.substring(API_PATH.length());
+        String method = request.getMethod();
+        if (HttpMethod.POST.matches(method) && (rest.isEmpty() || rest.equals("/") || rest.equals("/batch")
+                || rest.equals("/uploads"))
+                || HttpMethod.PUT.matches(method) && rest.startsWith("/uploads/")) {
+            return Direction.UPLOAD;
+        }
+        if (HttpMethod.GET.matches(method) && (rest.startsWith("/download/") || EXPORT_PATH.matcher(rest).matches())) {
+            return Direction.DOWNLOAD;
+        }
+        return null;
+    }
+
+    private static String clientKey(HttpServletRequest request) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof UserDto user && user.getUsername() != null) {
+            return "user:" + user.getUsername();
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+
+    private void reject(HttpServletResponse response, Direction direction, Limit limit, long waitNanos)
+            throws IOException {
+        rejected[direction.ordinal()][limit.ordinal()].increment();
+        long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(),
+                new ApiResponse<>(false, "Too many " + direction.name().toLowerCase(Locale.ROOT)
+                        + " " + limit.budget + ", retry in " + retryAfterSeconds + "s", null));
+    }
+
+    private static long acquire(TokenBucket bucket, long tokens, long now) {
+        return bucket == null ? 0 : bucket.tryAcquire(tokens, now);
+    }
+
+    private static void charge(TokenBucket bucket, long tokens, long now) {
+        if (bucket != null) {
+            bucket.charge(tokens, now);
+        }
+    }
+
+    // A rate of 0 or less means unlimited
+    private TokenBucket bucket(double perSecond, long now) {
+        return perSecond > 0 ? new TokenBucket(perSecond, perSecond * burstSeconds, now) : null;
+    }
+
+    private final class ClientBuckets {
+
+        private final TokenBucket[] requests = new TokenBucket[Direction.values().length];
+        private final TokenBucket[] bytes = new TokenBucket[Direction.values().length];
+
+        private ClientBuckets(long now) {
+            for (Direction direction : Direction.values()) {
+                requests[direction.ordinal()] = bucket(requestsPerSecond[direction.ordinal()], now);
+                bytes[direction.ordinal()] = bucket(bytesPerSecond[direction.ordinal()], now);
+            }
+        }
+    }
+
+    // Charges the bytes budgets for the response: its Content-Length once complete, also when the
+    // container writes the body (sendfile), or each write of a body streamed without one
+    private static final class ChargedResponse extends HttpServletResponseWrapper {
+
+        private final TokenBucket client;
+        private final TokenBucket global;
+
+        private long contentLength = -1;
+        private long streamed;
+        private ServletOutputStream outputStream;
+
+        private ChargedResponse(HttpServletResponse response, TokenBucket client, TokenBucket global) {
+            super(response);
+            this.client = client;
+            this.global = global;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new ChargingOutputStream(super.getOutputStream());
+            }
+            return outputStream;
+        }
+
+        @Override
+        public void setContentLength(int length) {
+            contentLength = length;
+            super.setContentLength(length);
+        }
+
+        @Override
+        public void setContentLengthLong(long length) {
+            contentLength = length;
+            super.setContentLengthLong(length);
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            remember(name, value);
+            super.setHeader(name, value);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            remember(name, value);
+            super.addHeader(name, value);
+        }
+
+        private void remember(String name, String value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name) && value != null) {
+                try {
+                    contentLength = Long.parseLong(value.trim());
+                } catch (NumberFormatException e) {
+                    // Not a length - leave it to the container
+                }
+            }
+        }
+
+        private void written(long bytes) {
+            if (contentLength < 0 && bytes > 0) {
+                streamed += bytes;
+                long now = System.nanoTime();
+                charge(client, bytes, now);
+                charge(global, bytes, now);
+            }
+        }
+
+        private void complete() {
+            if (contentLength > 0 && streamed == 0) {
+                long now = System.nanoTime();
+                charge(client, contentLength, now);
+                charge(global, contentLength, now);
+            }
+        }
+
+        private final class ChargingOutputStream extends ServletOutputStream {
+
+            private final ServletOutputStream out;
+
+            private ChargingOutputStream(ServletOutputStream out) {
+                this.out = out;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                written(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                written(len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+
+            @Override
+            public boolean isReady() {
+                return out.isReady();
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                out.setWriteListener(writeListener);
+            }
+        }
+    }
+}
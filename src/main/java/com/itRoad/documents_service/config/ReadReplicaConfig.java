@@ -0,0 +1,54 @@
+package com.itRoad.documents_service.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Second connection pool on a read replica, enabled by setting documents.datasource.replica.url.
+ * The application's DataSource then routes read-only transactions to the replica and the rest
+ * to the primary (see {@link ReadWriteRoutingDataSource}); without a replica the auto-configured
+ * single pool is used. The replica shares the primary's driver and, unless set, its credentials;
+ * its pool is configured under documents.datasource.replica.hikari.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "documents.datasource.replica", name = "url")
+public class ReadReplicaConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    @ConfigurationProperties("documents.datasource.replica.hikari")
+    public HikariDataSource replicaDataSource(DataSourceProperties properties,
+                                              @Value("${documents.datasource.replica.url}") String url,
+                                              @Value("${documents.datasource.replica.username:}") String username,
+                                              @Value("${documents.datasource.replica.password:}") String password) {
+        HikariDataSource replica = properties.initializeDataSourceBuilder().type(HikariDataSource.class).url(url).build();
+        if (!username.isEmpty()) {
+            replica.setUsername(username);
+            replica.setPassword(password);
+        }
+        replica.setReadOnly(true);
+        return replica;
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaryDataSource") DataSource primary,
+                                 @Qualifier("replicaDataSource") DataSource replica) {
+        return new LazyConnectionDataSourceProxy(new ReadWriteRoutingDataSource(primary, replica));
+    }
+}
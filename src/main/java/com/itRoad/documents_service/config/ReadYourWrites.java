@@ -0,0 +1,80 @@
+package com.itRoad.documents_service.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+
+/**
+ * Read-your-writes on top of replica reads: a read of a user's documents within
+ * read-your-writes-window of a write to them is sent to the primary, so neither the writer nor
+ * the metadata cache (which is refilled right after the write) can see the replica before it
+ * has caught up. Reads are keyed by the user owning the documents, whoever asks for them.
+ * <p>
+ * Writes are remembered by the instance that made them; the window should cover the usual
+ * replication lag.
+ */
+@Component
+public class ReadYourWrites {
+
+    // Bound to the current transaction while its reads must go to the primary
+    private static final Object PRIMARY_PINNED = ReadYourWrites.class.getName() + ".PRIMARY_PINNED";
+
+    private final Cache<Long, Boolean> recentWriters;
+
+    private final Counter pinnedReads;
+
+    public ReadYourWrites(MeterRegistry meterRegistry,
+                          @Value("${documents.datasource.replica.read-your-writes-window:5s}") Duration window) {
+        this.recentWriters = Caffeine.newBuilder()
+                .expireAfterWrite(window)
+                .build();
+        this.pinnedReads = Counter.builder("documents.datasource.pinned.reads")
+                .description("Read-only transactions sent to the primary because the user wrote recently")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Remember that a user's documents were just written
+     * @param userId The user owning the documents
+     */
+    public void recordWrite(Long userId) {
+        if (userId != null) {
+            recentWriters.put(userId, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Send the current transaction to the primary if the user's documents were written recently.
+     * Must be called before the transaction's first statement, which is when its connection is chosen.
+     * @param userId The user owning the documents about to be read
+     */
+    public void beforeRead(Long userId) {
+        if (userId == null || !TransactionSynchronizationManager.isSynchronizationActive()
+                || TransactionSynchronizationManager.hasResource(PRIMARY_PINNED)
+                || recentWriters.getIfPresent(userId) == null) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(PRIMARY_PINNED, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(PRIMARY_PINNED);
+            }
+        });
+        pinnedReads.increment();
+    }
+
+    /**
+     * @return Whether the current transaction has to read from the primary
+     */
+    static boolean isPinnedToPrimary() {
+        return TransactionSynchronizationManager.hasResource(PRIMARY_PINNED);
+    }
+}
@@ -1,26 +1,63 @@
 package com.itRoad.documents_service.controllers;
 
 import com.itRoad.documents_service.dto.ApiResponse;
+import com.itRoad.documents_service.dto.BatchUploadResult;
+import com.itRoad.documents_service.dto.ChangeFeedPage;
+import com.itRoad.documents_service.dto.CursorPage;
+import com.itRoad.documents_service.dto.DocumentQuery;
+import com.itRoad.documents_service.dto.DocumentStatistics;
+import com.itRoad.documents_service.dto.DocumentSummary;
+import com.itRoad.documents_service.dto.FacetedPage;
+import com.itRoad.documents_service.dto.PurgeStatus;
+import com.itRoad.documents_service.dto.UploadSession;
 import com.itRoad.documents_service.dto.UserDto;
+import com.itRoad.documents_service.dto.VersionedDocument;
+import com.itRoad.documents_service.exceptions.DocumentAlreadyExistsException;
+import com.itRoad.documents_service.exceptions.DocumentNotFoundException;
+import com.itRoad.documents_service.exceptions.UploadSessionNotFoundException;
+import com.itRoad.documents_service.metrics.DocumentMetrics;
 import com.itRoad.documents_service.models.Document;
+import com.itRoad.documents_service.services.DocumentChangeFeed;
+import com.itRoad.documents_service.services.DocumentExportService;
 import com.itRoad.documents_service.services.DocumentService;
+import com.itRoad.documents_service.services.DocumentUpload;
+import com.itRoad.documents_service.services.ResumableUploadService;
+import com.itRoad.documents_service.services.StorageReclaimer;
+import com.itRoad.documents_service.storage.StorageBackend;
+import com.itRoad.documents_service.storage.StoredBlob;
+import com.itRoad.documents_service.utils.DocumentETag;
+import com.itRoad.documents_service.utils.FileTypeUtil;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import jakarta.validation.Valid;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @RestController
 @RequestMapping("/api/documents")
@@ -29,7 +66,36 @@ public class DocumentController {
 
     @Autowired
     private DocumentService documentService;
-    private final Path uploadDir = Paths.get("uploads");
+
+    @Autowired
+    private StorageBackend storageBackend;
+
+    @Autowired
+    private StorageReclaimer storageReclaimer;
+
+    @Autowired
+    private DocumentMetrics documentMetrics;
+
+    @Autowired
+    private ResumableUploadService resumableUploadService;
+
+    @Autowired
+    private DocumentExportService documentExportService;
+
+    @Autowired
+    private DocumentChangeFeed documentChangeFeed;
+
+    @Value("${documents.upload.max-batch-files:100}")
+    private int maxBatchFiles;
+
+    // Request attributes understood by Tomcat's NIO connector for sendfile transfers
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    // Content-Range of a chunk: "bytes <first>-<last>/<total>"
+    private static final Pattern CHUNK_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
 
     // Get the currently authenticated user from the security context
     private UserDto getCurrentUser() {
@@ -46,34 +112,38 @@ public class DocumentController {
             @RequestParam(value = "description", required = false) String description
     ) {
         try {
-            if (!Files.exists(uploadDir)) {
-                Files.createDirectories(uploadDir);
-            }
-
             String originalFilename = StringUtils.cleanPath(file.getOriginalFilename());
-            String fileName = UUID.randomUUID() + "_" + originalFilename;
-
-            Path targetLocation = uploadDir.resolve(fileName);
-            Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
 
             // Extraire le type de fichier
-            String fileExtension = "";
-            if (originalFilename != null && originalFilename.contains(".")) {
-                fileExtension = originalFilename.substring(originalFilename.lastIndexOf(".") + 1).toUpperCase();
-            }
+            String fileExtension = FileTypeUtil.extractType(originalFilename);
 
             Document doc = new Document();
             doc.setName(title); // Utiliser le titre fourni par l'utilisateur
             doc.setCategory(category);
             doc.setType(fileExtension); // Définir le type basé sur l'extension
             doc.setUserId(userId);
-            doc.setUrl("/api/documents/download/" + fileName);
 
-            Document savedDoc = documentService.createDocument(doc);
+            // Rejects a duplicate name before storing, then stores the file (deduplicated by content)
+            // and sets checksum, size and url
+            long start = System.nanoTime();
+            String outcome = "error";
+            Document savedDoc;
+            try {
+                savedDoc = documentService.createDocument(doc, originalFilename, file);
+                outcome = "created";
+            } catch (DocumentAlreadyExistsException e) {
+                outcome = "conflict";
+                throw e;
+            } finally {
+                documentMetrics.recordUpload("single", outcome, file.getSize(), System.nanoTime() - start);
+            }
 
             // Retourner une réponse avec ApiResponse pour la cohérence
             return ResponseEntity.status(HttpStatus.CREATED)
                     .body(new ApiResponse<>(true, "Document created successfully", savedDoc));
+        } catch (DocumentAlreadyExistsException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
         } catch (IOException e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(new ApiResponse<>(false, "File upload failed: " + e.getMessage(), null));
@@ -83,31 +153,391 @@ public class DocumentController {
         }
     }
 
-    // Endpoint de téléchargement fichier (exemple)
+    // Create several documents of a user from one multipart request; titles default to the file names.
+    // Returns one result per file, in order, with 207 if only some of them were created.
+    @PostMapping("/batch")
+    public ResponseEntity<?> uploadDocuments(
+            @RequestParam("files") List<MultipartFile> files,
+            @RequestParam(value = "titles", required = false) List<String> titles,
+            @RequestParam("category") String category,
+            @RequestParam("userId") Long userId
+    ) {
+        if (files.isEmpty() || files.size() > maxBatchFiles) {
+            return ResponseEntity.badRequest()
+                    .body(new ApiResponse<>(false, "A batch must contain between 1 and " + maxBatchFiles + " files", null));
+        }
+        if (titles != null && titles.size() != files.size()) {
+            return ResponseEntity.badRequest()
+                    .body(new ApiResponse<>(false, "Provide one title per file or none", null));
+        }
+
+        try {
+            List<DocumentUpload> uploads = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                MultipartFile file = files.get(i);
+                String originalFilename = StringUtils.cleanPath(file.getOriginalFilename());
+
+                Document doc = new Document();
+                doc.setName(titles != null ? titles.get(i) : originalFilename);
+                doc.setCategory(category);
+                doc.setType(FileTypeUtil.extractType(originalFilename));
+                doc.setUserId(userId);
+                uploads.add(new DocumentUpload(doc, originalFilename, file));
+            }
+
+            long start = System.nanoTime();
+            List<BatchUploadResult> results = documentService.createDocuments(userId, uploads);
+            long created = results.stream().filter(BatchUploadResult::isSuccess).count();
+            String outcome = created == results.size() ? "created" : created == 0 ? "rejected" : "partial";
+            documentMetrics.recordUpload("batch", outcome,
+                    files.stream().mapToLong(MultipartFile::getSize).sum(), System.nanoTime() - start);
+            HttpStatus status = created == results.size() ? HttpStatus.CREATED
+                    : created == 0 ? HttpStatus.BAD_REQUEST : HttpStatus.MULTI_STATUS;
+            return ResponseEntity.status(status)
+                    .body(new ApiResponse<>(created > 0, created + " of " + results.size() + " documents created", results));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ApiResponse<>(false, "Error creating documents: " + e.getMessage(), null));
+        }
+    }
+
+    // Start a resumable upload of a large file: the response carries the session ID and chunk size.
+    // Send the chunks with PUT /uploads/{uploadId}, in any order and in parallel, then POST .../complete.
+    @PostMapping("/uploads")
+    public ResponseEntity<ApiResponse<UploadSession>> createUploadSession(
+            @RequestParam("title") String title,
+            @RequestParam("category") String category,
+            @RequestParam("fileName") String fileName,
+            @RequestParam("size") long size,
+            @RequestParam("userId") Long userId
+    ) {
+        try {
+            String originalFilename = StringUtils.cleanPath(fileName);
+
+            Document doc = new Document();
+            doc.setName(title);
+            doc.setCategory(category);
+            doc.setType(FileTypeUtil.extractType(originalFilename));
+            doc.setUserId(userId);
+
+            UploadSession session = resumableUploadService.createSession(doc, originalFilename, size);
+            return ResponseEntity.created(URI.create("/api/documents/uploads/" + session.getId()))
+                    .body(new ApiResponse<>(true, "Upload session created", session));
+        } catch (DocumentAlreadyExistsException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ApiResponse<>(false, "Error creating upload session: " + e.getMessage(), null));
+        }
+    }
+
+    // Send one chunk of a resumable upload as the raw request body, positioned by its Content-Range header.
+    // A chunk that fails part-way is simply sent again.
+    @PutMapping("/uploads/{uploadId}")
+    public ResponseEntity<ApiResponse<UploadSession>> uploadChunk(
+            @PathVariable String uploadId,
+            @RequestHeader(HttpHeaders.CONTENT_RANGE) String contentRange,
+            HttpServletRequest request
+    ) {
+        Matcher range = CHUNK_RANGE.matcher(contentRange.trim());
+        if (!range.matches()) {
+            return ResponseEntity.badRequest()
+                    .body(new ApiResponse<>(false, "Content-Range must be 'bytes <first>-<last>/<total>'", null));
+        }
+        try {
+            long first = Long.parseLong(range.group(1));
+            long last = Long.parseLong(range.group(2));
+            if (last < first || !range.group(3).equals("*")
+                    && Long.parseLong(range.group(3)) != resumableUploadService.getStatus(uploadId).getSize()) {
+                throw new IllegalArgumentException("Invalid Content-Range: " + contentRange);
+            }
+            UploadSession session = resumableUploadService.writeChunk(uploadId, first, last - first + 1, request.getInputStream());
+            return ResponseEntity.ok(new ApiResponse<>(true, "Chunk received", session));
+        } catch (UploadSessionNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ApiResponse<>(false, "Chunk upload failed: " + e.getMessage(), null));
+        }
+    }
+
+    // Progress of a resumable upload - a client resuming after a dropped connection sends the missing chunks
+    @GetMapping("/uploads/{uploadId}")
+    public ResponseEntity<ApiResponse<UploadSession>> getUploadSession(@PathVariable String uploadId) {
+        try {
+            return ResponseEntity.ok(new ApiResponse<>(true, "Upload session found", resumableUploadService.getStatus(uploadId)));
+        } catch (UploadSessionNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        }
+    }
+
+    // Create the document once every chunk has been received
+    @PostMapping("/uploads/{uploadId}/complete")
+    public ResponseEntity<ApiResponse<Document>> completeUpload(@PathVariable String uploadId) {
+        long start = System.nanoTime();
+        String outcome = "error";
+        long size = 0;
+        try {
+            size = resumableUploadService.getStatus(uploadId).getSize();
+            Document savedDoc = resumableUploadService.complete(uploadId);
+            outcome = "created";
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .body(new ApiResponse<>(true, "Document created successfully", savedDoc));
+        } catch (UploadSessionNotFoundException e) {
+            outcome = "rejected";
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        } catch (DocumentAlreadyExistsException e) {
+            outcome = "conflict";
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        } catch (IllegalStateException e) {
+            // Chunks still missing
+            outcome = "rejected";
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ApiResponse<>(false, "Error creating document: " + e.getMessage(), null));
+        } finally {
+            documentMetrics.recordUpload("resumable", outcome, size, System.nanoTime() - start);
+        }
+    }
+
+    // Abandon a resumable upload and discard the chunks received so far
+    @DeleteMapping("/uploads/{uploadId}")
+    public ResponseEntity<ApiResponse<String>> abortUpload(@PathVariable String uploadId) {
+        try {
+            resumableUploadService.abort(uploadId);
+            return ResponseEntity.ok(new ApiResponse<>(true, "Upload session aborted", null));
+        } catch (UploadSessionNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        }
+    }
+
+    // Download a stored file - streamed from disk, never buffered on the heap.
+    // Range requests are answered with 206 by Spring's ResourceRegion support and
+    // If-None-Match / If-Modified-Since with 304 based on the content hash and mtime.
+    @GetMapping("/download/{key}/{filename:.+}")
+    public ResponseEntity<?> downloadFile(@PathVariable String key,
+                                          @PathVariable String filename,
+                                          @RequestHeader HttpHeaders requestHeaders,
+                                          HttpServletRequest request,
+                                          WebRequest webRequest) {
+        return serveFile(key, filename, requestHeaders, request, webRequest);
+    }
+
+    // Download a file stored before content addressing, named <uuid>_<original name>
     @GetMapping("/download/{filename:.+}")
-    public ResponseEntity<?> downloadFile(@PathVariable String filename) {
+    public ResponseEntity<?> downloadLegacyFile(@PathVariable String filename,
+                                                @RequestHeader HttpHeaders requestHeaders,
+                                                HttpServletRequest request,
+                                                WebRequest webRequest) {
+        return serveFile(filename, filename, requestHeaders, request, webRequest);
+    }
+
+    private ResponseEntity<?> serveFile(String key, String filename, HttpHeaders requestHeaders,
+                                        HttpServletRequest request, WebRequest webRequest) {
         try {
-            Path filePath = uploadDir.resolve(filename).normalize();
-            if (!Files.exists(filePath)) {
+            StoredBlob blob = storageBackend.stat(key);
+            if (blob == null) {
                 return ResponseEntity.notFound().build();
             }
 
-            byte[] data = Files.readAllBytes(filePath);
-            return ResponseEntity.ok()
-                    .header("Content-Disposition", "attachment; filename=\"" + filename + "\"")
-                    .body(data);
+            // Compressed blobs go out as stored to clients accepting their encoding; everyone else,
+            // and range requests, get the content decompressed on the fly
+            String encoding = blob.getEncoding();
+            boolean sendEncoded = encoding != null && requestHeaders.getRange().isEmpty()
+                    && acceptsEncoding(requestHeaders, encoding);
+
+            long size = sendEncoded ? blob.getStoredSize() : blob.getSize();
+            long lastModified = blob.getLastModified();
+            String eTag = blob.getChecksum() != null
+                    ? "\"" + blob.getChecksum() + (sendEncoded ? "-" + encoding : "") + "\""
+                    : "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+            if (webRequest.checkNotModified(eTag, lastModified)) {
+                // 304 already written by checkNotModified
+                documentMetrics.recordNotModified();
+                return null;
+            }
+
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_DISPOSITION,
+                            ContentDisposition.attachment().filename(filename, StandardCharsets.UTF_8).build().toString())
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .contentType(MediaTypeFactory.getMediaType(filename).orElse(MediaType.APPLICATION_OCTET_STREAM))
+                    .eTag(eTag)
+                    .lastModified(lastModified);
+            if (encoding != null) {
+                response.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            }
+            if (sendEncoded) {
+                response.header(HttpHeaders.CONTENT_ENCODING, encoding);
+            }
+
+            // Whole-file GETs are handed to the container's sendfile support when it offers it,
+            // so the bytes go from the page cache to the socket without passing through the JVM
+            Resource resource = sendEncoded ? storageBackend.loadStored(key) : storageBackend.load(key);
+            String coding = sendEncoded ? encoding : "identity";
+            if (requestHeaders.getRange().isEmpty()
+                    && HttpMethod.GET.matches(request.getMethod())
+                    && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))
+                    && resource.isFile()) {
+                request.setAttribute(SENDFILE_FILENAME_ATTR, resource.getFile().getAbsolutePath());
+                request.setAttribute(SENDFILE_START_ATTR, 0L);
+                request.setAttribute(SENDFILE_END_ATTR, size);
+                documentMetrics.recordDownload("sendfile", coding, size);
+                return response.contentLength(size).build();
+            }
+
+            documentMetrics.recordDownload(requestHeaders.getRange().isEmpty() ? "stream" : "partial", coding, size);
+            return response.body(resource);
         } catch (IOException e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(new ApiResponse<>(false, "Could not download the file: " + e.getMessage(), null));
         }
     }
 
-    // Get all documents for a specific user by userId
+    // Whether the Accept-Encoding header allows the given content coding (q=0 refuses it)
+    private static boolean acceptsEncoding(HttpHeaders requestHeaders, String encoding) {
+        for (String header : requestHeaders.getOrEmpty(HttpHeaders.ACCEPT_ENCODING)) {
+            for (String entry : header.split(",")) {
+                String[] parts = entry.trim().split(";");
+                String coding = parts[0].trim();
+                if (!coding.equalsIgnoreCase(encoding) && !coding.equals("*")) {
+                    continue;
+                }
+                double quality = 1;
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].trim();
+                    if (parameter.startsWith("q=")) {
+                        try {
+                            quality = Double.parseDouble(parameter.substring(2));
+                        } catch (NumberFormatException e) {
+                            quality = 0;
+                        }
+                    }
+                }
+                return quality > 0;
+            }
+        }
+        return false;
+    }
+
+    // Get a page of documents for a specific user, newest first; pass nextCursor back to get the next page.
+    // Answers If-None-Match with 304 from the version of the user's documents, without reading them.
     @GetMapping("/users/{userId}")
-    public ResponseEntity<ApiResponse<List<Document>>> getDocumentsByUserId(@PathVariable Long userId) {
+    public ResponseEntity<ApiResponse<CursorPage<DocumentSummary>>> getDocumentsByUserId(
+            @PathVariable Long userId,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
-            List<Document> docs = documentService.getDocumentsByUserId(userId);
+            DocumentETag etag = new DocumentETag("pages", userId, documentService.getUserVersion(userId));
+            if (etag.matches(ifNoneMatch)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag.format()).build();
+            }
+            CursorPage<DocumentSummary> docs = documentService.getDocumentsByUserId(userId, etag.getVersion(), cursor, limit);
+            return ResponseEntity.ok().eTag(etag.format()).body(new ApiResponse<>(true, "Documents retrieved", docs));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        }
+    }
+
+    // Get the changes to a user's documents after a cursor, oldest first. Without since, returns the
+    // current cursor: take it, list the documents, then poll with since to get only what changed.
+    @GetMapping("/users/{userId}/changes")
+    public ResponseEntity<ApiResponse<ChangeFeedPage>> getDocumentChanges(
+            @PathVariable Long userId,
+            @RequestParam(value = "since", required = false) String since,
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        try {
+            ChangeFeedPage changes = documentChangeFeed.getChanges(userId, since, limit);
+            return ResponseEntity.ok(new ApiResponse<>(true, changes.isResync()
+                    ? "Changes expired, list the documents again" : "Changes retrieved", changes));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        }
+    }
+
+    // Stream the changes to a user's documents as Server-Sent Events, starting after since (or the
+    // Last-Event-ID of a reconnecting client) and then as they happen
+    @GetMapping("/users/{userId}/changes/stream")
+    public ResponseEntity<?> streamDocumentChanges(
+            @PathVariable Long userId,
+            @RequestParam(value = "since", required = false) String since,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        try {
+            return ResponseEntity.ok(documentChangeFeed.subscribe(userId, lastEventId != null ? lastEventId : since));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        }
+    }
+
+    // Download a ZIP of a user's files with a manifest.json of their metadata, optionally restricted
+    // by type, category and date range. The archive is streamed as it is built, never held in memory.
+    @GetMapping("/users/{userId}/export")
+    public ResponseEntity<StreamingResponseBody> exportDocuments(
+            @PathVariable Long userId,
+            @RequestParam(value = "type", required = false) String type,
+            @RequestParam(value = "category", required = false) String category,
+            @RequestParam(value = "startDate", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(value = "endDate", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate) {
+        DocumentExportService.Filter filter = new DocumentExportService.Filter(type, category, startDate, endDate);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename("documents-" + userId + ".zip").build().toString())
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .body(out -> documentExportService.export(userId, filter, out));
+    }
+
+    // Get a page of the documents matching any combination of user, type, category, name prefix and
+    // date range, newest first; with facets=true the response also counts all matches by type and category
+    @GetMapping("/query")
+    public ResponseEntity<ApiResponse<FacetedPage<DocumentSummary>>> queryDocuments(
+            @RequestParam(value = "userId", required = false) Long userId,
+            @RequestParam(value = "type", required = false) String type,
+            @RequestParam(value = "category", required = false) String category,
+            @RequestParam(value = "namePrefix", required = false) String namePrefix,
+            @RequestParam(value = "startDate", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(value = "endDate", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "facets", defaultValue = "false") boolean facets) {
+        try {
+            DocumentQuery query = new DocumentQuery(userId, type, category, namePrefix, startDate, endDate);
+            FacetedPage<DocumentSummary> docs = documentService.queryDocuments(query, cursor, limit, facets);
             return ResponseEntity.ok(new ApiResponse<>(true, "Documents retrieved", docs));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(new ApiResponse<>(false, e.getMessage(), null));
@@ -116,56 +546,153 @@ public class DocumentController {
 
     // Get a document by its ID
     @GetMapping("/by-id/{id}")
-    public ResponseEntity<ApiResponse<Document>> getDocumentById(@PathVariable Long id) {
+    public ResponseEntity<ApiResponse<Document>> getDocumentById(
+            @PathVariable Long id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
-            Document document = documentService.getDocumentById(id);
-            if (document == null) {
-                return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                        .body(new ApiResponse<>(false, "Document not found", null));
+            // The client's tag names the owner, so a current copy is confirmed without loading the document
+            String resource = "d" + id;
+            DocumentETag current = DocumentETag.findCurrent(ifNoneMatch, resource, documentService::getUserVersion);
+            if (current != null) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(current.format()).build();
             }
-            return ResponseEntity.ok(new ApiResponse<>(true, "Document found", document));
+            VersionedDocument found = documentService.getVersionedDocument(id);
+            Document document = found.getDocument();
+            if (document.getUserId() == null) {
+                return ResponseEntity.ok(new ApiResponse<>(true, "Document found", document));
+            }
+            return ResponseEntity.ok()
+                    .eTag(new DocumentETag(resource, document.getUserId(), found.getVersion()).format())
+                    .body(new ApiResponse<>(true, "Document found", document));
+        } catch (DocumentNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(new ApiResponse<>(false, "Document not found", null));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(new ApiResponse<>(false, e.getMessage(), null));
         }
     }
 
+    // Get the preview thumbnail of a document, available once background processing has finished
+    @GetMapping("/by-id/{id}/thumbnail")
+    public ResponseEntity<byte[]> getThumbnail(@PathVariable Long id) {
+        byte[] thumbnail = documentService.getThumbnail(id);
+        if (thumbnail == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.IMAGE_PNG)
+                .cacheControl(CacheControl.maxAge(1, TimeUnit.HOURS))
+                .body(thumbnail);
+    }
+
     // Delete a document by its ID
     @DeleteMapping("/by-id/{id}")
     public ResponseEntity<ApiResponse<String>> deleteDocument(@PathVariable Long id) {
         try {
-            Document document = documentService.getDocumentById(id);
-            if (document == null) {
-                return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                        .body(new ApiResponse<>(false, "Document not found", null));
-            }
             documentService.deleteDocument(id);
             return ResponseEntity.ok(new ApiResponse<>(true, "Document deleted", null));
+        } catch (DocumentNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(new ApiResponse<>(false, "Document not found", null));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(new ApiResponse<>(false, e.getMessage(), null));
         }
     }
 
-    // Search documents of a user based on a keyword
+    // Delete all documents of a user; their files are removed in the background - poll the returned purge for progress
+    @DeleteMapping("/users/{userId}")
+    public ResponseEntity<ApiResponse<PurgeStatus>> deleteDocumentsByUserId(@PathVariable Long userId) {
+        try {
+            PurgeStatus purge = documentService.deleteDocumentsByUserId(userId);
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .body(new ApiResponse<>(true, purge.getDocumentsDeleted() + " documents deleted", purge));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        }
+    }
+
+    // Progress of the file reclamation started by a bulk delete
+    @GetMapping("/purges/{purgeId}")
+    public ResponseEntity<ApiResponse<PurgeStatus>> getPurgeStatus(@PathVariable String purgeId) {
+        PurgeStatus purge = storageReclaimer.getStatus(purgeId);
+        if (purge == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(new ApiResponse<>(false, "Purge not found", null));
+        }
+        return ResponseEntity.ok(new ApiResponse<>(true, "Purge " + purge.getState().name().toLowerCase(), purge));
+    }
+
+    // Search documents of a user based on keywords, best matches first; pass nextCursor back to get the next page
     @GetMapping("/user/{userId}/search")
-    public ResponseEntity<ApiResponse<List<Document>>> searchDocumentsByUser(
-            @PathVariable Long userId, @RequestParam String term) {
+    public ResponseEntity<ApiResponse<CursorPage<DocumentSummary>>> searchDocumentsByUser(
+            @PathVariable Long userId,
+            @RequestParam String term,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", required = false) Integer limit) {
         try {
-            List<Document> docs = documentService.searchDocumentsByUser(userId, term);
+            CursorPage<DocumentSummary> docs = documentService.searchDocumentsByUser(userId, term, cursor, limit);
             return ResponseEntity.ok(new ApiResponse<>(true, "Search completed", docs));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ApiResponse<>(false, e.getMessage(), null));
+        }
+    }
+
+    // Totals for the whole system, this month and this year, with per-type and per-category breakdowns
+    @GetMapping("/statistics")
+    public ResponseEntity<ApiResponse<DocumentStatistics>> getStatistics() {
+        try {
+            return ResponseEntity.ok(new ApiResponse<>(true, "Statistics retrieved", documentService.getStatistics()));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(new ApiResponse<>(false, e.getMessage(), null));
         }
     }
 
+    // Count documents of a type
+    @GetMapping("/type/{type}/count")
+    public ResponseEntity<ApiResponse<Long>> countDocumentsByType(@PathVariable String type) {
+        try {
+            Long count = documentService.countDocumentsByType(type);
+            return ResponseEntity.ok(new ApiResponse<>(true, "Count retrieved", count));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ApiResponse<>(false, e.getMessage(), 0L));
+        }
+    }
+
+    // Count documents in a category
+    @GetMapping("/category/{category}/count")
+    public ResponseEntity<ApiResponse<Long>> countDocumentsByCategory(@PathVariable String category) {
+        try {
+            Long count = documentService.countDocumentsByCategory(category);
+            return ResponseEntity.ok(new ApiResponse<>(true, "Count retrieved", count));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ApiResponse<>(false, e.getMessage(), 0L));
+        }
+    }
+
     // Count how many documents a user has
     @GetMapping("/user/{userId}/count")
-    public ResponseEntity<ApiResponse<Long>> countDocumentsByUser(@PathVariable Long userId) {
+    public ResponseEntity<ApiResponse<Long>> countDocumentsByUser(
+            @PathVariable Long userId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         try {
+            // The count is kept in memory, so it is its own version: instances agree on it once their
+            // counters do, and a 304 needs no query at all
             Long count = documentService.countDocumentsByUser(userId);
-            return ResponseEntity.ok(new ApiResponse<>(true, "Count retrieved", count));
+            DocumentETag etag = new DocumentETag("count", userId, count);
+            if (etag.matches(ifNoneMatch)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag.format()).build();
+            }
+            return ResponseEntity.ok().eTag(etag.format()).body(new ApiResponse<>(true, "Count retrieved", count));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(new ApiResponse<>(false, e.getMessage(), 0L));
@@ -0,0 +1,24 @@
+package com.itRoad.documents_service.dto;
+
+import com.itRoad.documents_service.models.Document;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchUploadResult {
+
+    // Original name of the uploaded file
+    private String fileName;
+
+    // Indicates if the document was created
+    private boolean success;
+
+    // Reason of the failure, or a confirmation
+    private String message;
+
+    // The created document - null on failure
+    private Document document;
+}
@@ -0,0 +1,26 @@
+package com.itRoad.documents_service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ChangeFeedPage {
+
+    // Changes after the requested cursor, oldest first
+    private List<DocumentChangeEvent> changes;
+
+    // Cursor to pass back as since on the next call
+    private String cursor;
+
+    // Whether more changes follow right away
+    private boolean hasMore;
+
+    // The requested cursor is older than the retained changes: list the documents again, then
+    // continue from cursor
+    private boolean resync;
+}
@@ -0,0 +1,28 @@
+package com.itRoad.documents_service.dto;
+
+import com.itRoad.documents_service.models.ChangeType;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+// One change of a user's documents, as sent to clients syncing them
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DocumentChangeEvent {
+
+    // Cursor to resume the feed after this change
+    private String cursor;
+
+    private ChangeType type;
+
+    // The created, updated or deleted document - null for a purge, which removes all of them
+    private Long documentId;
+
+    private Instant changedAt;
+
+    // Current state of a created or updated document - null for deletions and for documents deleted since
+    private DocumentSummary document;
+}
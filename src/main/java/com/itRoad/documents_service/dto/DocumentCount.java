@@ -0,0 +1,25 @@
+package com.itRoad.documents_service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Number of documents sharing a user, type, category and month - the unit statistics are rebuilt from
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DocumentCount {
+
+    private Long userId;
+
+    private String type;
+
+    private String category;
+
+    // Year and month of the document date - null for documents without a date
+    private Integer year;
+
+    private Integer month;
+
+    private Long count;
+}
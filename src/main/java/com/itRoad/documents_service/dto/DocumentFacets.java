@@ -0,0 +1,20 @@
+package com.itRoad.documents_service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+// Counts of the documents matching a query, in total and broken down by type and by category
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DocumentFacets {
+
+    private long total;
+
+    private Map<String, Long> types;
+
+    private Map<String, Long> categories;
+}
@@ -0,0 +1,28 @@
+package com.itRoad.documents_service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+// Criteria of the dynamic document query - every field is optional and all given ones must match
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DocumentQuery {
+
+    private Long userId;
+
+    private String type;
+
+    private String category;
+
+    // Documents whose name starts with this, case-sensitive
+    private String namePrefix;
+
+    // Inclusive date range; either end may be open
+    private LocalDate startDate;
+
+    private LocalDate endDate;
+}
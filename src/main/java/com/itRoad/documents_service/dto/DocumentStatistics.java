@@ -4,6 +4,8 @@ import lombok.Data;
 import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
 
+import java.util.Map;
+
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
@@ -17,5 +19,11 @@ public class DocumentStatistics {
 
      //Number of documents created this year
     private Long documentsThisYear;
+
+    //Number of documents per type
+    private Map<String, Long> documentsByType;
+
+    //Number of documents per category
+    private Map<String, Long> documentsByCategory;
 }
 
@@ -0,0 +1,31 @@
+package com.itRoad.documents_service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+
+// Read-only projection of a document used by listing endpoints instead of the managed entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DocumentSummary {
+
+    private Long id;
+
+    private String name;
+
+    private String type;
+
+    private String category;
+
+    private LocalDate date;
+
+    private String url;
+
+    private Long userId;
+
+    // Size of the stored file in bytes
+    private Long size;
+}
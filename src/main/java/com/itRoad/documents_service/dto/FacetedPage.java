@@ -0,0 +1,22 @@
+package com.itRoad.documents_service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class FacetedPage<T> {
+
+    // Items of this page
+    private List<T> items;
+
+    // Opaque cursor to pass back for the next page - null on the last page
+    private String nextCursor;
+
+    // Counts over all matching items, not just this page - null when not requested
+    private DocumentFacets facets;
+}
@@ -0,0 +1,38 @@
+package com.itRoad.documents_service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PurgeStatus {
+
+    public enum State { QUEUED, RUNNING, COMPLETED, FAILED }
+
+    // Identifier to poll the purge with
+    private String id;
+
+    private Long userId;
+
+    private State state;
+
+    // Rows removed by the bulk delete
+    private long documentsDeleted;
+
+    // Distinct stored files the deleted rows referenced
+    private long filesTotal;
+
+    // Files checked so far, whether removed or still referenced elsewhere
+    private long filesProcessed;
+
+    // Files actually removed from storage
+    private long filesReclaimed;
+
+    private Instant createdAt;
+
+    private Instant completedAt;
+}
@@ -0,0 +1,41 @@
+package com.itRoad.documents_service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UploadSession {
+
+    // Identifier to send the chunks and finalize the upload with
+    private String id;
+
+    private Long userId;
+
+    // Title of the document created on completion
+    private String name;
+
+    private String fileName;
+
+    // Total size of the file, fixed when the session is created
+    private long size;
+
+    // Every chunk starts at a multiple of this and has this length, except the last one
+    private long chunkSize;
+
+    private int chunkCount;
+
+    // Bytes of the chunks received so far
+    private long receivedBytes;
+
+    // Indexes of the chunks still to send - resuming clients send only these
+    private List<Integer> missingChunks;
+
+    // The session and its data are dropped if no chunk arrives before then
+    private Instant expiresAt;
+}
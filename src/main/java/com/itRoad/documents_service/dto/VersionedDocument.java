@@ -0,0 +1,18 @@
+package com.itRoad.documents_service.dto;
+
+import com.itRoad.documents_service.models.Document;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// A document with the version of its owner's documents it was read at, read by one statement
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class VersionedDocument {
+
+    private Document document;
+
+    // Head of the owner's change feed - 0 if nothing was recorded for the owner
+    private long version;
+}
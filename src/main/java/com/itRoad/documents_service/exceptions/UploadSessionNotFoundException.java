@@ -0,0 +1,12 @@
+package com.itRoad.documents_service.exceptions;
+
+public class UploadSessionNotFoundException extends RuntimeException {
+
+    /**
+     * Constructor with custom message
+     * @param message The error message
+     */
+    public UploadSessionNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,82 @@
+package com.itRoad.documents_service.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the upload and download paths. Percentile histograms are enabled per meter-name
+ * prefix in application.properties, so p99 can be computed from the Prometheus buckets.
+ */
+@Component
+public class DocumentMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    public DocumentMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Record an upload request
+     * @param mode "single", "batch" or "resumable"
+     * @param outcome "created", "conflict", "rejected" or "error"; "partial" for a batch where only some
+     *                files were created
+     * @param bytes Total size of the uploaded files
+     * @param nanos Time spent storing the files and inserting the documents
+     */
+    public void recordUpload(String mode, String outcome, long bytes, long nanos) {
+        Timer.builder("documents.upload")
+                .description("Time to store uploaded files and insert their documents")
+                .tag("mode", mode)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("documents.upload.size")
+                .description("Size of uploaded files per request")
+                .baseUnit("bytes")
+                .tag("mode", mode)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(bytes);
+        if (nanos > 0 && "created".equals(outcome)) {
+            DistributionSummary.builder("documents.upload.throughput")
+                    .description("Upload processing throughput per request")
+                    .baseUnit("bytes.per.second")
+                    .tag("mode", mode)
+                    .register(meterRegistry)
+                    .record(bytes * 1e9 / nanos);
+        }
+    }
+
+    /**
+     * Record a download answered with file content
+     * @param transfer "sendfile" when the container writes the file, "stream" when it is copied
+     *                 through the JVM, "partial" for range requests
+     * @param encoding Content coding of the response body: "gzip" or "identity"
+     * @param bytes Size of the response body (of the whole file for range requests)
+     */
+    public void recordDownload(String transfer, String encoding, long bytes) {
+        DistributionSummary.builder("documents.download.size")
+                .description("Size of downloaded files")
+                .baseUnit("bytes")
+                .tag("transfer", transfer)
+                .tag("encoding", encoding)
+                .register(meterRegistry)
+                .record(bytes);
+    }
+
+    /**
+     * Record a download answered with 304 Not Modified
+     */
+    public void recordNotModified() {
+        Counter.builder("documents.download.not.modified")
+                .description("Downloads answered from the client's cache")
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -0,0 +1,53 @@
+package com.itRoad.documents_service.metrics;
+
+import com.itRoad.documents_service.storage.ContentAddressedStorageBackend;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Storage usage gauges. The number of blobs and the bytes they take as stored are read from the
+ * storage index, which keeps both up to date, so neither upload sessions nor segment files skew
+ * them; free and total space are read from the file store. All are read on every scrape.
+ */
+@Component
+public class StorageMetrics {
+
+    private final Path root;
+
+    public StorageMetrics(MeterRegistry meterRegistry, ContentAddressedStorageBackend storage,
+                          @Value("${documents.storage.root:uploads}") String root) {
+        this.root = Paths.get(root).toAbsolutePath().normalize();
+        Gauge.builder("documents.storage.used", storage, ContentAddressedStorageBackend::storedBytes)
+                .description("Bytes the stored blobs take on disk")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("documents.storage.files", storage, ContentAddressedStorageBackend::blobCount)
+                .description("Stored blobs")
+                .register(meterRegistry);
+        Gauge.builder("documents.storage.usable", this, metrics -> metrics.fileStoreSpace(true))
+                .description("Usable space left on the storage file system")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("documents.storage.total", this, metrics -> metrics.fileStoreSpace(false))
+                .description("Total space of the storage file system")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    private double fileStoreSpace(boolean usable) {
+        try {
+            FileStore store = Files.getFileStore(root);
+            return usable ? store.getUsableSpace() : store.getTotalSpace();
+        } catch (IOException e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.itRoad.documents_service.models;
+
+// Kind of change recorded in a user's change feed
+public enum ChangeType {
+    CREATED,
+    // Background processing stored the document's detected type and processing status
+    UPDATED,
+    DELETED,
+    // All documents of the user were deleted at once
+    PURGED
+}
@@ -1,5 +1,6 @@
 package com.itRoad.documents_service.models;
 
+import com.itRoad.documents_service.dto.DocumentSummary;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
@@ -11,11 +12,27 @@ import java.time.LocalDate;
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
-@Table(name = "documents")
+@Table(name = "documents", uniqueConstraints =
+        @UniqueConstraint(name = "uq_documents_user_name", columnNames = {"user_id", "name"}))
+// Maps the summary columns selected by the native full-text queries to DocumentSummary
+@SqlResultSetMapping(name = Document.SUMMARY_MAPPING, classes = @ConstructorResult(
+        targetClass = DocumentSummary.class, columns = {
+                @ColumnResult(name = "id", type = Long.class),
+                @ColumnResult(name = "name", type = String.class),
+                @ColumnResult(name = "type", type = String.class),
+                @ColumnResult(name = "category", type = String.class),
+                @ColumnResult(name = "date", type = LocalDate.class),
+                @ColumnResult(name = "url", type = String.class),
+                @ColumnResult(name = "user_id", type = Long.class),
+                @ColumnResult(name = "size", type = Long.class)}))
 public class Document {
 
+    public static final String SUMMARY_MAPPING = "Document.summary";
+
+    // Pooled sequence: one round trip reserves 50 ids, which lets Hibernate batch inserts
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "documents_seq")
+    @SequenceGenerator(name = "documents_seq", sequenceName = "documents_seq", allocationSize = 50)
     private Long id;
 
     // Document name - must be unique per user
@@ -39,6 +56,22 @@ public class Document {
     //URL or file path to the document
     private String url;
 
+    // SHA-256 of the stored file content, hex encoded
+    @Column(length = 64)
+    private String checksum;
+
+    // Size of the stored file in bytes
+    private Long size;
+
+    // MIME type sniffed from the content by the processing pipeline - null until processed
+    @Column(length = 127)
+    private String mimeType;
+
+    // Progress of the post-upload processing (MIME sniffing, text extraction, thumbnail)
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private ProcessingStatus processingStatus = ProcessingStatus.PENDING;
+
     // ID of the user who owns this document
     @NotNull(message = "User ID is required")
     @Column(nullable = false)
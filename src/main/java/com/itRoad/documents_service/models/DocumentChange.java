@@ -0,0 +1,56 @@
+package com.itRoad.documents_service.models;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.springframework.data.domain.Persistable;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+// One entry of a user's change feed
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@IdClass(DocumentChange.Key.class)
+@Table(name = "document_changes")
+public class DocumentChange implements Persistable<DocumentChange.Key> {
+
+    @Id
+    private Long userId;
+
+    // Position in the user's feed, counting from 1 without gaps
+    @Id
+    private Long seq;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "change_type", nullable = false, length = 16)
+    private ChangeType type;
+
+    // The created or deleted document - null for a purge
+    private Long documentId;
+
+    @Column(nullable = false)
+    private Instant changedAt;
+
+    @Override
+    public Key getId() {
+        return new Key(userId, seq);
+    }
+
+    // Changes are only ever inserted - saving one must not look it up first
+    @Override
+    public boolean isNew() {
+        return true;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+
+        private Long userId;
+
+        private Long seq;
+    }
+}
@@ -0,0 +1,19 @@
+package com.itRoad.documents_service.models;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+// Last sequence number handed out in a user's change feed; its row lock orders the user's writers
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "document_change_heads")
+public class DocumentChangeHead {
+
+    @Id
+    private Long userId;
+
+    @Column(nullable = false)
+    private Long lastSeq;
+}
@@ -0,0 +1,25 @@
+package com.itRoad.documents_service.models;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+// Extracted text and preview thumbnail of a document, written by the processing pipeline
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "document_contents")
+public class DocumentContent {
+
+    // Same ID as the document; the row is removed with it
+    @Id
+    private Long documentId;
+
+    // Text extracted for full-text search, truncated to the configured length
+    @Column(name = "content_text")
+    private String text;
+
+    // PNG preview of the first page or of the image
+    @ToString.Exclude
+    private byte[] thumbnail;
+}
@@ -0,0 +1,51 @@
+package com.itRoad.documents_service.models;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.springframework.data.domain.Persistable;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+// A stored file of purged documents that is still to be reclaimed
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@IdClass(PendingReclaim.Key.class)
+@Table(name = "storage_reclaim_queue")
+public class PendingReclaim implements Persistable<PendingReclaim.Key> {
+
+    @Id
+    private String purgeId;
+
+    @Id
+    private String storageKey;
+
+    @Column(nullable = false)
+    private Long userId;
+
+    @Column(nullable = false)
+    private Instant queuedAt;
+
+    @Override
+    public Key getId() {
+        return new Key(purgeId, storageKey);
+    }
+
+    // Entries are only ever inserted - saving one must not look it up first
+    @Override
+    public boolean isNew() {
+        return true;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+
+        private String purgeId;
+
+        private String storageKey;
+    }
+}
@@ -0,0 +1,8 @@
+package com.itRoad.documents_service.models;
+
+// State of a document in the post-upload processing pipeline
+public enum ProcessingStatus {
+    PENDING,
+    DONE,
+    FAILED
+}
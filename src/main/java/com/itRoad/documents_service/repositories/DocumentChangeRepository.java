@@ -0,0 +1,71 @@
+package com.itRoad.documents_service.repositories;
+
+import com.itRoad.documents_service.models.DocumentChange;
+import com.itRoad.documents_service.models.DocumentChangeHead;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface DocumentChangeRepository extends JpaRepository<DocumentChange, DocumentChange.Key> {
+
+    /**
+     * Create the head of a user's feed - fails with a duplicate key if it exists
+     * @param userId The user ID
+     */
+    @Modifying
+    @Query(value = "INSERT INTO document_change_heads (user_id, last_seq) VALUES (:userId, 0)", nativeQuery = true)
+    void createHead(Long userId);
+
+    /**
+     * Reserve sequence numbers in a user's feed. The head row stays locked until the transaction
+     * ends, so concurrent writers of the same user commit their changes in sequence order.
+     * @param userId The user ID
+     * @param count How many sequence numbers to reserve
+     * @return Number of updated heads - 0 if the head does not exist
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE DocumentChangeHead h SET h.lastSeq = h.lastSeq + :count WHERE h.userId = :userId")
+    int advanceHead(Long userId, long count);
+
+    /**
+     * Get the last sequence number of a user's feed
+     * @param userId The user ID
+     * @return The sequence number, or null if nothing was ever recorded for the user
+     */
+    @Query("SELECT h.lastSeq FROM DocumentChangeHead h WHERE h.userId = :userId")
+    Long findLastSeq(Long userId);
+
+    /**
+     * Get the heads of several users' feeds with one query
+     * @param userIds The user IDs
+     * @return The heads that exist
+     */
+    @Query("SELECT h FROM DocumentChangeHead h WHERE h.userId IN :userIds")
+    List<DocumentChangeHead> findHeads(Collection<Long> userIds);
+
+    /**
+     * Get the changes of a user after a position in the feed, oldest first
+     * @param userId The user ID
+     * @param since Sequence number of the last change already seen
+     * @param limit Maximum number of changes
+     * @return The changes
+     */
+    @Query("SELECT c FROM DocumentChange c WHERE c.userId = :userId AND c.seq > :since ORDER BY c.seq")
+    List<DocumentChange> findChanges(Long userId, long since, Limit limit);
+
+    /**
+     * Delete the changes recorded before a point in time
+     * @param before Changes older than this are deleted
+     * @return Number of deleted changes
+     */
+    @Modifying
+    @Query("DELETE FROM DocumentChange c WHERE c.changedAt < :before")
+    int deleteChangedBefore(Instant before);
+}
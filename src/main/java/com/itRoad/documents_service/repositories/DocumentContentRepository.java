@@ -0,0 +1,18 @@
+package com.itRoad.documents_service.repositories;
+
+import com.itRoad.documents_service.models.DocumentContent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface DocumentContentRepository extends JpaRepository<DocumentContent, Long> {
+
+    /**
+     * Get the thumbnail of a document without loading its extracted text
+     * @param documentId The document ID
+     * @return The PNG bytes, or null if the document has no thumbnail
+     */
+    @Query("SELECT c.thumbnail FROM DocumentContent c WHERE c.documentId = :documentId")
+    byte[] findThumbnail(Long documentId);
+}
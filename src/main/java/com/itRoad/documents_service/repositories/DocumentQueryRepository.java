@@ -0,0 +1,30 @@
+package com.itRoad.documents_service.repositories;
+
+import com.itRoad.documents_service.dto.DocumentFacets;
+import com.itRoad.documents_service.dto.DocumentSummary;
+import com.itRoad.documents_service.models.Document;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+/**
+ * Queries over an arbitrary combination of criteria, built with the Criteria API
+ */
+public interface DocumentQueryRepository {
+
+    /**
+     * Page through the documents matching a specification, newest first
+     * @param specification The criteria
+     * @param limit Maximum number of rows
+     * @return Page of document summaries
+     */
+    List<DocumentSummary> findSummaries(Specification<Document> specification, Limit limit);
+
+    /**
+     * Count the documents matching a specification by type and by category, with one grouped query
+     * @param specification The criteria
+     * @return The counts
+     */
+    DocumentFacets countFacets(Specification<Document> specification);
+}
@@ -0,0 +1,65 @@
+package com.itRoad.documents_service.repositories;
+
+import com.itRoad.documents_service.dto.DocumentFacets;
+import com.itRoad.documents_service.dto.DocumentSummary;
+import com.itRoad.documents_service.models.Document;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Tuple;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Root;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+class DocumentQueryRepositoryImpl implements DocumentQueryRepository {
+
+    private final EntityManager entityManager;
+
+    DocumentQueryRepositoryImpl(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    @Override
+    public List<DocumentSummary> findSummaries(Specification<Document> specification, Limit limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<DocumentSummary> query = cb.createQuery(DocumentSummary.class);
+        Root<Document> d = query.from(Document.class);
+        query.select(cb.construct(DocumentSummary.class, d.get("id"), d.get("name"), d.get("type"), d.get("category"),
+                        d.get("date"), d.get("url"), d.get("userId"), d.get("size")))
+                .where(specification.toPredicate(d, query, cb))
+                .orderBy(cb.desc(d.get("date")), cb.desc(d.get("id")));
+        return entityManager.createQuery(query)
+                .setMaxResults(limit.max())
+                .getResultList();
+    }
+
+    @Override
+    public DocumentFacets countFacets(Specification<Document> specification) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<Document> d = query.from(Document.class);
+        Expression<String> type = d.get("type");
+        Expression<String> category = d.get("category");
+        Expression<Long> count = cb.count(d);
+        query.multiselect(type, category, count)
+                .where(specification.toPredicate(d, query, cb))
+                .groupBy(type, category);
+
+        // One row per (type, category) pair, folded into both breakdowns
+        long total = 0;
+        Map<String, Long> types = new TreeMap<>();
+        Map<String, Long> categories = new TreeMap<>();
+        for (Tuple row : entityManager.createQuery(query).getResultList()) {
+            long rows = row.get(count);
+            total += rows;
+            types.merge(String.valueOf(row.get(type)), rows, Long::sum);
+            categories.merge(String.valueOf(row.get(category)), rows, Long::sum);
+        }
+        return new DocumentFacets(total, types, categories);
+    }
+}
@@ -1,86 +1,218 @@
 package com.itRoad.documents_service.repositories;
 
+import com.itRoad.documents_service.dto.DocumentCount;
+import com.itRoad.documents_service.dto.DocumentSummary;
+import com.itRoad.documents_service.dto.VersionedDocument;
 import com.itRoad.documents_service.models.Document;
+import com.itRoad.documents_service.models.ProcessingStatus;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.NativeQuery;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
-public interface DocumentRepository extends JpaRepository<Document, Long> {
+public interface DocumentRepository extends JpaRepository<Document, Long>, DocumentQueryRepository {
 
+    /**
+     * Load a document by ID. Read-write, so it always goes to the primary even with a read replica:
+     * IDs are looked up right after the write that handed them out, e.g. by the processing pipeline.
+     * @param id The document ID
+     * @return The document, if it exists
+     */
+    @Override
+    @Transactional
+    Optional<Document> findById(Long id);
 
     /**
-     * Find all documents belonging to a specific user
-     * @param userId The ID of the user
-     * @return List of documents owned by the user
+     * Load a document together with the head of its owner's change feed. Both come from the same
+     * statement, so the version is never newer than the document. On the primary like {@link #findById(Long)}.
+     * @param id The document ID
+     * @return The document and its version, if it exists
      */
-    List<Document> findByUserId(Long userId);
+    @Transactional
+    @Query("SELECT new com.itRoad.documents_service.dto.VersionedDocument(d, COALESCE(h.lastSeq, 0)) FROM Document d "
+            + "LEFT JOIN DocumentChangeHead h ON h.userId = d.userId WHERE d.id = :id")
+    Optional<VersionedDocument> findVersionedById(Long id);
 
     /**
-     * Find all documents of a specific type
-     * @param type The document type (e.g., PDF, DOCX)
-     * @return List of documents of the specified type
+     * Check whether a document exists, on the primary for the same reason as {@link #findById(Long)}
+     * @param id The document ID
+     * @return Whether it exists
      */
-    List<Document> findByType(String type);
+    @Override
+    @Transactional
+    boolean existsById(Long id);
+
+    // Projection selected by the paginated finders
+    String SELECT_SUMMARY = "SELECT new com.itRoad.documents_service.dto.DocumentSummary("
+            + "d.id, d.name, d.type, d.category, d.date, d.url, d.userId, d.size) FROM Document d ";
+
+    // The same columns for the native queries, mapped by Document.SUMMARY_MAPPING
+    String SUMMARY_COLUMNS = "d.id, d.name, d.type, d.category, d.date, d.url, d.user_id, d.size";
+
+    String SELECT_COUNTS = "SELECT new com.itRoad.documents_service.dto.DocumentCount("
+            + "d.userId, d.type, d.category, YEAR(d.date), MONTH(d.date), COUNT(d)) FROM Document d ";
+
+    // Seek past the (date, id) of the last row of the previous page. The leading "date <= :date"
+    // gives the index a range to start from; the rest excludes rows already returned.
+    String AFTER_CURSOR = "d.date <= :date AND (d.date < :date OR d.id < :id) ";
+
+    String NEWEST_FIRST = "ORDER BY d.date DESC, d.id DESC";
+
+    // Text searched by the full-text queries - must stay identical to the expression of idx_documents_search
+    String SEARCH_VECTOR = "to_tsvector('simple', coalesce(d.name, '') || ' ' || coalesce(d.category, '') || ' ' || coalesce(d.type, ''))";
+
+    // Expression of the GIN index over extracted text (see V7__create_document_contents.sql)
+    String CONTENT_VECTOR = "to_tsvector('simple', coalesce(c.content_text, ''))";
+
+    // Documents matching on metadata or on extracted text - one GIN index lookup per branch
+    String MATCHING_IDS = "SELECT d.id FROM documents d WHERE " + SEARCH_VECTOR + " @@ to_tsquery('simple', :query) "
+            + "UNION SELECT c.document_id FROM document_contents c WHERE " + CONTENT_VECTOR + " @@ to_tsquery('simple', :query)";
+
+    // The same for one user: each branch is restricted to the user before the union, so a common
+    // term never collects the matches of every other user first
+    String USER_MATCHING_IDS = "SELECT d.id FROM documents d WHERE d.user_id = :userId AND " + SEARCH_VECTOR
+            + " @@ to_tsquery('simple', :query) "
+            + "UNION SELECT c.document_id FROM document_contents c JOIN documents o ON o.id = c.document_id "
+            + "WHERE o.user_id = :userId AND " + CONTENT_VECTOR + " @@ to_tsquery('simple', :query)";
+
+    String SEARCH_RANK = "ts_rank(" + SEARCH_VECTOR + ", to_tsquery('simple', :query)) + ts_rank(" + CONTENT_VECTOR
+            + ", to_tsquery('simple', :query))";
 
     /**
-     * Find all documents in a specific category
-     * @param category The document category
-     * @return List of documents in the specified category
+     * Get the summaries of several documents with one query
+     * @param ids The document IDs
+     * @return Summaries of the documents that exist, in no particular order
      */
-    List<Document> findByCategory(String category);
+    @Query(SELECT_SUMMARY + "WHERE d.id IN :ids")
+    List<DocumentSummary> findSummariesByIdIn(Collection<Long> ids);
+
+    // =============================================================================
+    // KEYSET PAGINATION
+    // Every finder below returns at most `limit` projections ordered newest first,
+    // starting after the (date, id) position of the previous page.
+    // =============================================================================
 
     /**
-     * Find documents by exact name match
-     * @param name The document name
-     * @return List of documents with the specified name
+     * Page through all documents
+     * @param date Date of the last row of the previous page
+     * @param id ID of the last row of the previous page
+     * @param limit Maximum number of rows
+     * @return Page of document summaries
      */
-    List<Document> findByName(String name);
+    @Query(SELECT_SUMMARY + "WHERE " + AFTER_CURSOR + NEWEST_FIRST)
+    List<DocumentSummary> findPage(@Param("date") LocalDate date, @Param("id") Long id, Limit limit);
 
     /**
-     * Find documents created on a specific date
-     * @param date The creation date
-     * @return List of documents created on the specified date
+     * Page through the documents of a user
+     * @param userId The user ID
+     * @param date Date of the last row of the previous page
+     * @param id ID of the last row of the previous page
+     * @param limit Maximum number of rows
+     * @return Page of document summaries
      */
-    List<Document> findByDate(LocalDate date);
+    @Query(SELECT_SUMMARY + "WHERE d.userId = :userId AND " + AFTER_CURSOR + NEWEST_FIRST)
+    List<DocumentSummary> findPageByUserId(@Param("userId") Long userId,
+                                           @Param("date") LocalDate date, @Param("id") Long id, Limit limit);
 
+    /**
+     * Page through the documents of a type
+     * @param type The document type
+     * @param date Date of the last row of the previous page
+     * @param id ID of the last row of the previous page
+     * @param limit Maximum number of rows
+     * @return Page of document summaries
+     */
+    @Query(SELECT_SUMMARY + "WHERE d.type = :type AND " + AFTER_CURSOR + NEWEST_FIRST)
+    List<DocumentSummary> findPageByType(@Param("type") String type,
+                                         @Param("date") LocalDate date, @Param("id") Long id, Limit limit);
 
     /**
-     * Find documents within a date range
+     * Page through the documents of a category
+     * @param category The document category
+     * @param date Date of the last row of the previous page
+     * @param id ID of the last row of the previous page
+     * @param limit Maximum number of rows
+     * @return Page of document summaries
+     */
+    @Query(SELECT_SUMMARY + "WHERE d.category = :category AND " + AFTER_CURSOR + NEWEST_FIRST)
+    List<DocumentSummary> findPageByCategory(@Param("category") String category,
+                                             @Param("date") LocalDate date, @Param("id") Long id, Limit limit);
+
+    /**
+     * Page through the documents with an exact name
+     * @param name The document name
+     * @param date Date of the last row of the previous page
+     * @param id ID of the last row of the previous page
+     * @param limit Maximum number of rows
+     * @return Page of document summaries
+     */
+    @Query(SELECT_SUMMARY + "WHERE d.name = :name AND " + AFTER_CURSOR + NEWEST_FIRST)
+    List<DocumentSummary> findPageByName(@Param("name") String name,
+                                         @Param("date") LocalDate date, @Param("id") Long id, Limit limit);
+
+    /**
+     * Page through the documents created within a date range
      * @param startDate The start date (inclusive)
      * @param endDate The end date (inclusive)
-     * @return List of documents within the date range
+     * @param date Date of the last row of the previous page
+     * @param id ID of the last row of the previous page
+     * @param limit Maximum number of rows
+     * @return Page of document summaries
      */
-    List<Document> findByDateBetween(LocalDate startDate, LocalDate endDate);
+    @Query(SELECT_SUMMARY + "WHERE d.date BETWEEN :startDate AND :endDate AND " + AFTER_CURSOR + NEWEST_FIRST)
+    List<DocumentSummary> findPageByDateBetween(@Param("startDate") LocalDate startDate, @Param("endDate") LocalDate endDate,
+                                                @Param("date") LocalDate date, @Param("id") Long id, Limit limit);
 
     /**
-     * Find documents by user and type
+     * Page through the documents of a user with a given type
      * @param userId The user ID
      * @param type The document type
-     * @return List of documents matching both criteria
+     * @param date Date of the last row of the previous page
+     * @param id ID of the last row of the previous page
+     * @param limit Maximum number of rows
+     * @return Page of document summaries
      */
-    List<Document> findByUserIdAndType(Long userId, String type);
+    @Query(SELECT_SUMMARY + "WHERE d.userId = :userId AND d.type = :type AND " + AFTER_CURSOR + NEWEST_FIRST)
+    List<DocumentSummary> findPageByUserIdAndType(@Param("userId") Long userId, @Param("type") String type,
+                                                  @Param("date") LocalDate date, @Param("id") Long id, Limit limit);
 
     /**
-     * Find documents by user and category
+     * Page through the documents of a user in a given category
      * @param userId The user ID
      * @param category The document category
-     * @return List of documents matching both criteria
+     * @param date Date of the last row of the previous page
+     * @param id ID of the last row of the previous page
+     * @param limit Maximum number of rows
+     * @return Page of document summaries
      */
-    List<Document> findByUserIdAndCategory(Long userId, String category);
+    @Query(SELECT_SUMMARY + "WHERE d.userId = :userId AND d.category = :category AND " + AFTER_CURSOR + NEWEST_FIRST)
+    List<DocumentSummary> findPageByUserIdAndCategory(@Param("userId") Long userId, @Param("category") String category,
+                                                      @Param("date") LocalDate date, @Param("id") Long id, Limit limit);
 
     /**
-     * Find documents by user within a date range
+     * Page through the documents of a user created within a date range
      * @param userId The user ID
      * @param startDate The start date (inclusive)
      * @param endDate The end date (inclusive)
-     * @return List of documents matching all criteria
+     * @param date Date of the last row of the previous page
+     * @param id ID of the last row of the previous page
+     * @param limit Maximum number of rows
+     * @return Page of document summaries
      */
-    List<Document> findByUserIdAndDateBetween(Long userId, LocalDate startDate, LocalDate endDate);
+    @Query(SELECT_SUMMARY + "WHERE d.userId = :userId AND d.date BETWEEN :startDate AND :endDate AND " + AFTER_CURSOR + NEWEST_FIRST)
+    List<DocumentSummary> findPageByUserIdAndDateBetween(@Param("userId") Long userId,
+                                                         @Param("startDate") LocalDate startDate, @Param("endDate") LocalDate endDate,
+                                                         @Param("date") LocalDate date, @Param("id") Long id, Limit limit);
 
     // =============================================================================
     // EXISTENCE CHECKS
@@ -94,26 +226,54 @@ public interface DocumentRepository extends JpaRepository<Document, Long> {
      */
     boolean existsByNameAndUserId(String name, Long userId);
 
+    /**
+     * Check if a user has any document
+     * @param userId The user ID
+     * @return true if at least one document exists, false otherwise
+     */
+    boolean existsByUserId(Long userId);
+
+    /**
+     * Find which of the given names a user already has a document for
+     * @param userId The user ID
+     * @param names The candidate document names
+     * @return The names that are already taken
+     */
+    @Query("SELECT d.name FROM Document d WHERE d.userId = :userId AND d.name IN :names")
+    List<String> findExistingNames(@Param("userId") Long userId, @Param("names") Collection<String> names);
+
     // =============================================================================
     // CUSTOM QUERY METHODS
     // =============================================================================
 
     /**
-     * Search documents by name, category, or type using partial matching
-     * @param searchTerm The search term
-     * @return List of documents matching the search criteria
+     * Full-text search over name, category, type and extracted text, best matches first.
+     * Served by the GIN indexes idx_documents_search and idx_document_contents_search.
+     * @param query A PostgreSQL tsquery, e.g. {@code invoice:* & 2024:*}
+     * @param limit Maximum number of rows
+     * @param offset Number of ranked rows to skip
+     * @return Summaries of the documents matching the query
      */
-    @Query("SELECT d FROM Document d WHERE d.name LIKE %:searchTerm% OR d.category LIKE %:searchTerm% OR d.type LIKE %:searchTerm%")
-    List<Document> searchDocuments(@Param("searchTerm") String searchTerm);
+    @NativeQuery(value = "SELECT " + SUMMARY_COLUMNS + " FROM documents d LEFT JOIN document_contents c ON c.document_id = d.id "
+            + "WHERE d.id IN (" + MATCHING_IDS + ") "
+            + "ORDER BY " + SEARCH_RANK + " DESC, d.id DESC "
+            + "LIMIT :limit OFFSET :offset", sqlResultSetMapping = Document.SUMMARY_MAPPING)
+    List<DocumentSummary> searchDocuments(@Param("query") String query, @Param("limit") int limit, @Param("offset") int offset);
 
     /**
-     * Search documents for a specific user by name, category, or type
+     * Full-text search over the name, category, type and extracted text of a user's documents, best matches first
      * @param userId The user ID
-     * @param searchTerm The search term
-     * @return List of documents matching the search criteria for the user
+     * @param query A PostgreSQL tsquery, e.g. {@code invoice:* & 2024:*}
+     * @param limit Maximum number of rows
+     * @param offset Number of ranked rows to skip
+     * @return Summaries of the user's documents matching the query
      */
-    @Query("SELECT d FROM Document d WHERE d.userId = :userId AND (d.name LIKE %:searchTerm% OR d.category LIKE %:searchTerm% OR d.type LIKE %:searchTerm%)")
-    List<Document> searchDocumentsByUser(@Param("userId") Long userId, @Param("searchTerm") String searchTerm);
+    @NativeQuery(value = "SELECT " + SUMMARY_COLUMNS + " FROM documents d LEFT JOIN document_contents c ON c.document_id = d.id "
+            + "WHERE d.user_id = :userId AND d.id IN (" + USER_MATCHING_IDS + ") "
+            + "ORDER BY " + SEARCH_RANK + " DESC, d.id DESC "
+            + "LIMIT :limit OFFSET :offset", sqlResultSetMapping = Document.SUMMARY_MAPPING)
+    List<DocumentSummary> searchDocumentsByUser(@Param("userId") Long userId, @Param("query") String query,
+                                                @Param("limit") int limit, @Param("offset") int offset);
 
     // =============================================================================
     // COUNTING METHODS
@@ -142,4 +302,84 @@ public interface DocumentRepository extends JpaRepository<Document, Long> {
      */
     @Query("SELECT COUNT(d) FROM Document d WHERE d.category = :category")
     Long countDocumentsByCategory(@Param("category") String category);
+
+    /**
+     * Count all documents grouped by user, type, category and month, in one pass over the table
+     * @return One row per non-empty group
+     */
+    @Query(SELECT_COUNTS + "GROUP BY d.userId, d.type, d.category, YEAR(d.date), MONTH(d.date)")
+    List<DocumentCount> countGroups();
+
+    /**
+     * Count a user's documents grouped by type, category and month
+     * @param userId The user ID
+     * @return One row per non-empty group
+     */
+    @Query(SELECT_COUNTS + "WHERE d.userId = :userId GROUP BY d.userId, d.type, d.category, YEAR(d.date), MONTH(d.date)")
+    List<DocumentCount> countGroupsByUserId(Long userId);
+
+    /**
+     * Count documents sharing the same stored content - the reference count of a blob
+     * @param checksum The SHA-256 of the content
+     * @return Number of documents referencing the content
+     */
+    long countByChecksum(String checksum);
+
+    /**
+     * Find which of the given checksums are still referenced by at least one document
+     * @param checksums The SHA-256 of stored contents
+     * @return The referenced checksums, each once
+     */
+    @Query("SELECT DISTINCT d.checksum FROM Document d WHERE d.checksum IN :checksums")
+    List<String> findReferencedChecksums(Collection<String> checksums);
+
+    /**
+     * Find the storage locations of a user's documents: the checksum of hashed content,
+     * the download URL of files stored before hashing. Documents without a stored file are skipped.
+     * @param userId The user ID
+     * @return Distinct checksums and legacy URLs
+     */
+    @Query("SELECT DISTINCT COALESCE(d.checksum, d.url) FROM Document d WHERE d.userId = :userId "
+            + "AND (d.checksum IS NOT NULL OR d.url LIKE '/api/documents/download/%')")
+    List<String> findStorageRefsByUserId(Long userId);
+
+    /**
+     * Find documents waiting for a processing state, oldest first
+     * @param status The processing status
+     * @param limit Maximum number of IDs
+     * @return The document IDs
+     */
+    @Query("SELECT d.id FROM Document d WHERE d.processingStatus = :status ORDER BY d.id")
+    List<Long> findIdsByProcessingStatus(ProcessingStatus status, Limit limit);
+
+    /**
+     * Record the outcome of processing a document without loading it
+     * @param id The document ID
+     * @param mimeType The sniffed MIME type
+     * @param status The new processing status
+     * @return Number of updated documents - 0 if it was deleted meanwhile
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional
+    @Query("UPDATE Document d SET d.mimeType = :mimeType, d.processingStatus = :status WHERE d.id = :id")
+    int updateProcessingResult(Long id, String mimeType, ProcessingStatus status);
+
+    /**
+     * Delete a document with a single statement, without loading it first
+     * @param id The document ID
+     * @return Number of deleted documents - 0 if it did not exist
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Transactional
+    @Query("DELETE FROM Document d WHERE d.id = :id")
+    int deleteDocumentById(Long id);
+
+    /**
+     * Delete all documents of a user with a single statement, without loading them
+     * @param userId The user ID
+     * @return Number of deleted documents
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("DELETE FROM Document d WHERE d.userId = :userId")
+    int deleteAllByUserId(Long userId);
 }
\ No newline at end of file
@@ -0,0 +1,69 @@
+package com.itRoad.documents_service.repositories;
+
+import com.itRoad.documents_service.dto.DocumentQuery;
+import com.itRoad.documents_service.models.Document;
+import jakarta.persistence.criteria.Predicate;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Criteria of the dynamic document query as JPA specifications, combined into one WHERE clause
+ * instead of one derived finder per combination of filters.
+ */
+public final class DocumentSpecifications {
+
+    private static final char LIKE_ESCAPE = '\\';
+
+    private DocumentSpecifications() {
+    }
+
+    /**
+     * Documents matching every criterion set in the query
+     * @param query The criteria; unset fields do not filter
+     * @return The specification
+     */
+    public static Specification<Document> matching(DocumentQuery query) {
+        return (root, criteriaQuery, cb) -> {
+            List<Predicate> predicates = new ArrayList<>();
+            if (query.getUserId() != null) {
+                predicates.add(cb.equal(root.get("userId"), query.getUserId()));
+            }
+            if (query.getType() != null) {
+                predicates.add(cb.equal(root.get("type"), query.getType()));
+            }
+            if (query.getCategory() != null) {
+                predicates.add(cb.equal(root.get("category"), query.getCategory()));
+            }
+            if (query.getNamePrefix() != null && !query.getNamePrefix().isEmpty()) {
+                predicates.add(cb.like(root.get("name"), escapeLike(query.getNamePrefix()) + "%", LIKE_ESCAPE));
+            }
+            if (query.getStartDate() != null) {
+                predicates.add(cb.greaterThanOrEqualTo(root.get("date"), query.getStartDate()));
+            }
+            if (query.getEndDate() != null) {
+                predicates.add(cb.lessThanOrEqualTo(root.get("date"), query.getEndDate()));
+            }
+            return cb.and(predicates.toArray(Predicate[]::new));
+        };
+    }
+
+    /**
+     * Documents after a keyset position in newest-first order - see {@link DocumentRepository#AFTER_CURSOR}
+     * @param date Date of the last row of the previous page
+     * @param id ID of the last row of the previous page
+     * @return The specification
+     */
+    public static Specification<Document> afterCursor(LocalDate date, Long id) {
+        return (root, criteriaQuery, cb) -> cb.and(
+                cb.lessThanOrEqualTo(root.get("date"), date),
+                cb.or(cb.lessThan(root.get("date"), date), cb.lessThan(root.get("id"), id)));
+    }
+
+    // Match the prefix literally - % and _ typed by the user are not wildcards
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
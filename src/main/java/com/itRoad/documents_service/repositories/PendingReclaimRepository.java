@@ -0,0 +1,38 @@
+package com.itRoad.documents_service.repositories;
+
+import com.itRoad.documents_service.models.PendingReclaim;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface PendingReclaimRepository extends JpaRepository<PendingReclaim, PendingReclaim.Key> {
+
+    /**
+     * Get the purges that still have files to reclaim, oldest first
+     * @return The purge IDs
+     */
+    @Query("SELECT r.purgeId FROM PendingReclaim r GROUP BY r.purgeId ORDER BY MIN(r.queuedAt)")
+    List<String> findPurgeIds();
+
+    /**
+     * Get the files a purge still has to reclaim
+     * @param purgeId The purge ID
+     * @return The pending entries
+     */
+    List<PendingReclaim> findByPurgeId(String purgeId);
+
+    /**
+     * Remove handled files from a purge's queue
+     * @param purgeId The purge ID
+     * @param storageKeys The handled storage keys
+     * @return Number of removed entries
+     */
+    @Modifying
+    @Query("DELETE FROM PendingReclaim r WHERE r.purgeId = :purgeId AND r.storageKey IN :storageKeys")
+    int deleteHandled(String purgeId, Collection<String> storageKeys);
+}
@@ -3,6 +3,11 @@ package com.itRoad.documents_service.security;
 import com.itRoad.documents_service.dto.UserDto;
 import com.itRoad.documents_service.utils.JwtUtil;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.security.SignatureException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -23,6 +28,9 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Override
     protected void doFilterInternal(HttpServletRequest request,
                                     HttpServletResponse response,
@@ -61,6 +69,7 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             }
 
         } catch (Exception e) {
+            failures(e).increment();
             // 🟢 En cas d'erreur, on continue sans authentification
             // Spring Security décidera s'il faut bloquer ou non
             System.err.println("Erreur JWT: " + e.getMessage());
@@ -69,4 +78,16 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         // 🟢 TOUJOURS continuer la chaîne de filtres
         filterChain.doFilter(request, response);
     }
+
+    // Rejected tokens, by reason
+    private Counter failures(Exception e) {
+        String reason = e instanceof ExpiredJwtException ? "expired"
+                : e instanceof SignatureException ? "signature"
+                : e instanceof JwtException ? "invalid"
+                : "error";
+        return Counter.builder("jwt.authentication.failures")
+                .description("Bearer tokens that could not be verified")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,446 @@
+package com.itRoad.documents_service.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.itRoad.documents_service.dto.ChangeFeedPage;
+import com.itRoad.documents_service.dto.DocumentChangeEvent;
+import com.itRoad.documents_service.dto.DocumentSummary;
+import com.itRoad.documents_service.models.ChangeType;
+import com.itRoad.documents_service.models.DocumentChange;
+import com.itRoad.documents_service.models.DocumentChangeHead;
+import com.itRoad.documents_service.repositories.DocumentChangeRepository;
+import com.itRoad.documents_service.repositories.DocumentRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Per-user change feed, so clients sync the changes to their documents instead of listing them
+ * again. Creates, processing results and deletes are recorded in the transaction that makes
+ * them, numbered from the user's head row; the row stays locked until commit, so a user's changes
+ * become visible in sequence order and without gaps. A client keeps the cursor of the last change it applied and
+ * asks for what came after it, or subscribes to a Server-Sent Events stream that pushes changes
+ * as they are committed.
+ * <p>
+ * Streams are woken right after commits made by this instance and, for commits made by other
+ * instances, by a periodic check of the heads of subscribed users - one query for all of them.
+ * Changes are kept for retention; a client whose cursor is older is told to list again.
+ * <p>
+ * The heads of users read recently are also kept in memory, as the version of their documents for
+ * conditional requests and the metadata cache. Commits made here move them right away; the same
+ * periodic check picks up commits made elsewhere, so those show up within poll-interval.
+ */
+@Slf4j
+@Service
+public class DocumentChangeFeed {
+
+    // Number of subscribed users whose heads are checked per query
+    private static final int HEAD_BATCH = 1000;
+
+    private final DocumentChangeRepository documentChangeRepository;
+    private final DocumentRepository documentRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate headCreation;
+    private final TransactionTemplate headReads;
+    private final int pageSize;
+    private final Duration retention;
+    private final Duration streamTimeout;
+    private final int maxSubscribers;
+
+    private final Map<Long, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    // Last known head of each user read recently; heads only move forward, so updates keep the larger
+    private final Cache<Long, Long> heads;
+
+    // Streams are fed on virtual threads, so a slow client never holds up a commit or another client
+    private final ExecutorService sender = Executors.newVirtualThreadPerTaskExecutor();
+
+    public DocumentChangeFeed(DocumentChangeRepository documentChangeRepository,
+                              DocumentRepository documentRepository,
+                              TransactionTemplate transactionTemplate,
+                              PlatformTransactionManager transactionManager,
+                              MeterRegistry meterRegistry,
+                              @Value("${documents.changes.page-size:500}") int pageSize,
+                              @Value("${documents.changes.retention:30d}") Duration retention,
+                              @Value("${documents.changes.stream-timeout:30m}") Duration streamTimeout,
+                              @Value("${documents.changes.max-subscribers:10000}") int maxSubscribers,
+                              @Value("${documents.changes.known-heads:100000}") long knownHeads) {
+        this.documentChangeRepository = documentChangeRepository;
+        this.documentRepository = documentRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.headCreation = new TransactionTemplate(transactionManager);
+        this.headCreation.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.headReads = new TransactionTemplate(transactionManager);
+        this.headReads.setReadOnly(true);
+        this.heads = Caffeine.newBuilder()
+                .maximumSize(knownHeads)
+                .build();
+        this.pageSize = pageSize;
+        this.retention = retention;
+        this.streamTimeout = streamTimeout;
+        this.maxSubscribers = maxSubscribers;
+        Gauge.builder("documents.changes.subscribers", subscriberCount, AtomicInteger::get)
+                .description("Open change feed streams")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Record created documents in their user's feed - must run in the transaction that inserts them
+     * @param userId The user owning the documents
+     * @param documentIds The created documents
+     * @return The sequence number of the last recorded change
+     */
+    public long recordCreated(Long userId, List<Long> documentIds) {
+        return record(userId, ChangeType.CREATED, documentIds);
+    }
+
+    /**
+     * Record a document updated by background processing - must run in the transaction that updates it
+     * @param userId The user owning the document
+     * @param documentId The updated document
+     */
+    public void recordUpdated(Long userId, Long documentId) {
+        record(userId, ChangeType.UPDATED, List.of(documentId));
+    }
+
+    /**
+     * Record deleted documents in their user's feed - must run in the transaction that deletes them
+     * @param userId The user owning the documents
+     * @param documentIds The deleted documents
+     * @return The sequence number of the last recorded change
+     */
+    public long recordDeleted(Long userId, List<Long> documentIds) {
+        return record(userId, ChangeType.DELETED, documentIds);
+    }
+
+    /**
+     * Record that all documents of a user were deleted - must run in the transaction that deletes them
+     * @param userId The user
+     * @return The sequence number of the recorded change
+     */
+    public long recordPurged(Long userId) {
+        return record(userId, ChangeType.PURGED, Collections.singletonList(null));
+    }
+
+    /**
+     * Get the changes of a user's documents after a cursor. Without a cursor, returns no changes and
+     * the cursor of the latest one: take it before listing the documents, then sync from it.
+     * @param userId The user
+     * @param cursor Cursor of the last change applied by the client, or null
+     * @param limit Maximum number of changes
+     * @return The changes, oldest first
+     */
+    public ChangeFeedPage getChanges(Long userId, String cursor, Integer limit) {
+        int size = limit == null ? pageSize : Math.min(Math.max(limit, 1), pageSize);
+        if (cursor == null || cursor.isBlank()) {
+            return new ChangeFeedPage(List.of(), encodeCursor(lastSeq(userId)), false, false);
+        }
+        return read(userId, decodeCursor(cursor), size);
+    }
+
+    /**
+     * Get the position of the latest change of a user's documents. Every write to them moves it and
+     * it is shared by all instances, so it versions the user's documents for conditional requests.
+     * Read from memory; only the first read of a user queries it. Writes made through other instances
+     * are seen after the next {@link #pollHeads()}.
+     * @param userId The user
+     * @return The sequence number of the latest change, 0 if there was none
+     */
+    public long getHead(Long userId) {
+        return heads.get(userId, key -> headReads.execute(status -> lastSeq(key)));
+    }
+
+    /**
+     * Take note of a user's head read from the database along with their documents, so reads
+     * versioned by it are served from memory before the next {@link #pollHeads()} confirms it
+     * @param userId The user
+     * @param head The head as read
+     */
+    public void observeHead(Long userId, long head) {
+        advance(userId, head);
+    }
+
+    /**
+     * Stream the changes of a user's documents as Server-Sent Events: those after the cursor first,
+     * then new ones as they are committed. Each change is a "change" event whose ID is its cursor,
+     * so a reconnecting client resumes with Last-Event-ID. A "resync" event carries the cursor to
+     * continue from after listing the documents again.
+     * @param userId The user
+     * @param cursor Cursor of the last change applied by the client, or null to start from now
+     * @return The stream
+     */
+    public SseEmitter subscribe(Long userId, String cursor) {
+        long since = cursor == null || cursor.isBlank() ? lastSeq(userId) : decodeCursor(cursor);
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            throw new IllegalStateException("Too many change streams open, please retry later");
+        }
+
+        SseEmitter emitter = new SseEmitter(streamTimeout.toMillis());
+        Subscriber subscriber = new Subscriber(userId, emitter, since);
+        subscribers.compute(userId, (key, set) -> {
+            Set<Subscriber> current = set != null ? set : ConcurrentHashMap.newKeySet();
+            current.add(subscriber);
+            return current;
+        });
+        emitter.onCompletion(() -> unsubscribe(subscriber));
+        emitter.onTimeout(() -> unsubscribe(subscriber));
+        emitter.onError(error -> unsubscribe(subscriber));
+        wake(subscriber);
+        return emitter;
+    }
+
+    // Refresh the heads kept in memory and wake the streams of users whose heads moved on another
+    // instance, one query per batch of users; idle streams are kept alive
+    @Scheduled(fixedDelayString = "${documents.changes.poll-interval:5s}")
+    public void pollHeads() {
+        Set<Long> users = new HashSet<>(heads.asMap().keySet());
+        users.addAll(subscribers.keySet());
+        List<Long> userIds = new ArrayList<>(users);
+        for (int from = 0; from < userIds.size(); from += HEAD_BATCH) {
+            List<Long> batch = userIds.subList(from, Math.min(from + HEAD_BATCH, userIds.size()));
+            Map<Long, Long> found = headReads.execute(status -> documentChangeRepository.findHeads(batch)).stream()
+                    .collect(Collectors.toMap(DocumentChangeHead::getUserId, DocumentChangeHead::getLastSeq));
+            for (Long userId : batch) {
+                long head = found.getOrDefault(userId, 0L);
+                advance(userId, head);
+                for (Subscriber subscriber : subscribers.getOrDefault(userId, Set.of())) {
+                    if (subscriber.seq < head) {
+                        wake(subscriber);
+                    } else {
+                        sender.execute(() -> heartbeat(subscriber));
+                    }
+                }
+            }
+        }
+    }
+
+    // Drop changes older than the retention; clients behind them are told to resync
+    @Scheduled(fixedDelayString = "${documents.changes.prune-interval:1h}")
+    public void prune() {
+        Instant before = Instant.now().minus(retention);
+        Integer deleted = transactionTemplate.execute(status -> documentChangeRepository.deleteChangedBefore(before));
+        if (deleted != null && deleted > 0) {
+            log.info("Pruned {} document changes recorded before {}", deleted, before);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        subscribers.values().forEach(set -> set.forEach(subscriber -> subscriber.emitter.complete()));
+        sender.shutdownNow();
+        sender.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private long record(Long userId, ChangeType type, List<Long> documentIds) {
+        if (documentIds.isEmpty()) {
+            return 0;
+        }
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Document changes must be recorded in the transaction making them");
+        }
+        if (documentChangeRepository.advanceHead(userId, documentIds.size()) == 0) {
+            createHead(userId);
+            documentChangeRepository.advanceHead(userId, documentIds.size());
+        }
+        long head = documentChangeRepository.findLastSeq(userId);
+        long seq = head - documentIds.size();
+
+        Instant now = Instant.now();
+        List<DocumentChange> changes = new ArrayList<>(documentIds.size());
+        for (Long documentId : documentIds) {
+            changes.add(new DocumentChange(userId, ++seq, type, documentId, now));
+        }
+        documentChangeRepository.saveAll(changes);
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                advance(userId, head);
+                subscribers.getOrDefault(userId, Set.of()).forEach(DocumentChangeFeed.this::wake);
+            }
+        });
+        return head;
+    }
+
+    // Created in a transaction of its own, so losing the race to another first writer of the user
+    // does not abort the caller's
+    private void createHead(Long userId) {
+        try {
+            headCreation.executeWithoutResult(status -> documentChangeRepository.createHead(userId));
+        } catch (DataIntegrityViolationException e) {
+            // Created concurrently
+        }
+    }
+
+    private ChangeFeedPage read(Long userId, long since, int size) {
+        List<DocumentChange> rows = documentChangeRepository.findChanges(userId, since, Limit.of(size + 1));
+        if (rows.isEmpty() || rows.get(0).getSeq() != since + 1) {
+            long head = lastSeq(userId);
+            if (since > head) {
+                throw new IllegalArgumentException("Invalid cursor: " + encodeCursor(since));
+            }
+            // Sequence numbers have no gaps: a missing next change means it was pruned
+            boolean resync = since < head;
+            return new ChangeFeedPage(List.of(), encodeCursor(resync ? head : since), false, resync);
+        }
+
+        List<DocumentChange> page = rows.subList(0, Math.min(size, rows.size()));
+        List<Long> created = page.stream()
+                .filter(change -> hasDocument(change.getType()))
+                .map(DocumentChange::getDocumentId)
+                .toList();
+        Map<Long, DocumentSummary> documents = created.isEmpty() ? Map.of()
+                : documentRepository.findSummariesByIdIn(created).stream()
+                        .collect(Collectors.toMap(DocumentSummary::getId, Function.identity()));
+        List<DocumentChangeEvent> events = page.stream()
+                .map(change -> new DocumentChangeEvent(encodeCursor(change.getSeq()), change.getType(),
+                        change.getDocumentId(), change.getChangedAt(),
+                        hasDocument(change.getType()) ? documents.get(change.getDocumentId()) : null))
+                .toList();
+        return new ChangeFeedPage(events, encodeCursor(page.get(page.size() - 1).getSeq()), rows.size() > size, false);
+    }
+
+    // Changes that are sent with the current state of their document
+    private static boolean hasDocument(ChangeType type) {
+        return type == ChangeType.CREATED || type == ChangeType.UPDATED;
+    }
+
+    // Move the head kept in memory forward; a head read before a later commit never moves it back
+    private void advance(Long userId, long head) {
+        heads.asMap().merge(userId, head, Math::max);
+    }
+
+    private long lastSeq(Long userId) {
+        Long head = documentChangeRepository.findLastSeq(userId);
+        return head == null ? 0 : head;
+    }
+
+    // Schedule a catch-up of the stream; wakes while one is pending are folded into it
+    private void wake(Subscriber subscriber) {
+        if (subscriber.woken.compareAndSet(false, true)) {
+            sender.execute(() -> catchUp(subscriber));
+        }
+    }
+
+    // Send every change after the stream's position, one catch-up at a time per stream
+    private void catchUp(Subscriber subscriber) {
+        // A lock rather than a monitor: the catch-up queries the database and blocks on the client,
+        // and a virtual thread waiting inside synchronized would pin its carrier
+        subscriber.sending.lock();
+        try {
+            subscriber.woken.set(false);
+            try {
+                ChangeFeedPage page;
+                do {
+                    page = read(subscriber.userId, subscriber.seq, pageSize);
+                    if (page.isResync()) {
+                        subscriber.emitter.send(SseEmitter.event().name("resync").id(page.getCursor()).data(page.getCursor()));
+                    }
+                    for (DocumentChangeEvent change : page.getChanges()) {
+                        subscriber.emitter.send(SseEmitter.event().name("change").id(change.getCursor()).data(change));
+                    }
+                    subscriber.seq = decodeCursor(page.getCursor());
+                } while (page.isHasMore());
+            } catch (IOException | IllegalStateException e) {
+                // The client went away or the stream already ended
+                subscriber.emitter.completeWithError(e);
+                unsubscribe(subscriber);
+            } catch (RuntimeException e) {
+                log.warn("Could not send changes of user {}: {}", subscriber.userId, e.getMessage());
+                subscriber.emitter.completeWithError(e);
+                unsubscribe(subscriber);
+            }
+        } finally {
+            subscriber.sending.unlock();
+        }
+    }
+
+    private void heartbeat(Subscriber subscriber) {
+        try {
+            subscriber.emitter.send(SseEmitter.event().comment("keep-alive"));
+        } catch (IOException | IllegalStateException e) {
+            subscriber.emitter.completeWithError(e);
+            unsubscribe(subscriber);
+        }
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        // Removed under the map's lock of the user, so a concurrent subscribe never adds to a dropped set
+        subscribers.computeIfPresent(subscriber.userId, (key, set) -> {
+            if (set.remove(subscriber)) {
+                subscriberCount.decrementAndGet();
+            }
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    static String encodeCursor(long seq) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Long.toString(seq).getBytes(StandardCharsets.UTF_8));
+    }
+
+    static long decodeCursor(String cursor) {
+        try {
+            long seq = Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+            if (seq < 0) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            return seq;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+
+    private static final class Subscriber {
+
+        private final Long userId;
+        private final SseEmitter emitter;
+        private final AtomicBoolean woken = new AtomicBoolean();
+
+        // Held while changes are sent, so catch-ups of one stream never interleave
+        private final ReentrantLock sending = new ReentrantLock();
+
+        // Sequence number of the last change sent
+        private volatile long seq;
+
+        private Subscriber(Long userId, SseEmitter emitter, long seq) {
+            this.userId = userId;
+            this.emitter = emitter;
+            this.seq = seq;
+        }
+    }
+}
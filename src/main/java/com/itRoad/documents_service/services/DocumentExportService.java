@@ -0,0 +1,213 @@
+package com.itRoad.documents_service.services;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.itRoad.documents_service.dto.DocumentSummary;
+import com.itRoad.documents_service.repositories.DocumentRepository;
+import com.itRoad.documents_service.storage.StorageBackend;
+import com.itRoad.documents_service.utils.DocumentCursor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams a ZIP of a user's files straight to the client. Documents are read page by page with
+ * the keyset finders and every file is copied from storage into its entry through a small
+ * buffer, so memory use does not grow with the size of the files or of the export. Types that
+ * are already compressed are stored without deflating them again, keeping the export bound by
+ * disk reads rather than CPU. A manifest.json with the metadata of every exported document is
+ * written as the last entry; its entries are spooled to a temp file while the files are written
+ * and streamed back from it, so the manifest is not held in memory either.
+ */
+@Slf4j
+@Service
+public class DocumentExportService {
+
+    private static final String MANIFEST = "manifest.json";
+
+    // Entries are deflated in blocks of this size before they reach the response
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final LocalDate FIRST_DATE = LocalDate.of(1, 1, 1);
+
+    private final DocumentRepository documentRepository;
+    private final StorageBackend storageBackend;
+    private final ObjectMapper objectMapper;
+    private final Set<String> compressibleTypes;
+    private final int compressionLevel;
+    private final int pageSize;
+
+    public DocumentExportService(DocumentRepository documentRepository,
+                                 StorageBackend storageBackend,
+                                 ObjectMapper objectMapper,
+                                 @Value("${documents.storage.compression.types:TXT,CSV,TSV,JSON,XML,HTML,HTM,MD,LOG,SVG,RTF,PDF,DOC,XLS,PPT}")
+                                 Set<String> compressibleTypes,
+                                 @Value("${documents.export.compression-level:1}") int compressionLevel,
+                                 @Value("${documents.export.page-size:500}") int pageSize) {
+        this.documentRepository = documentRepository;
+        this.storageBackend = storageBackend;
+        this.objectMapper = objectMapper;
+        this.compressibleTypes = compressibleTypes.stream()
+                .map(type -> type.trim().toUpperCase(Locale.ROOT))
+                .collect(Collectors.toUnmodifiableSet());
+        this.compressionLevel = compressionLevel;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Documents to export; null fields do not filter
+     */
+    public record Filter(String type, String category, LocalDate startDate, LocalDate endDate) {
+
+        boolean matches(DocumentSummary document) {
+            return (type == null || type.equals(document.getType()))
+                    && (category == null || category.equals(document.getCategory()))
+                    && (startDate == null || !document.getDate().isBefore(startDate))
+                    && (endDate == null || !document.getDate().isAfter(endDate));
+        }
+    }
+
+    /**
+     * Entry of the export manifest
+     * @param path Path of the file in the archive, or null if the document has no stored file
+     */
+    public record ManifestEntry(Long id, String name, String type, String category, LocalDate date,
+                                Long size, String path) {
+    }
+
+    /**
+     * Write the ZIP of a user's documents
+     * @param userId The user whose documents are exported
+     * @param filter Restricts the exported documents
+     * @param out The response body, not closed
+     */
+    public void export(Long userId, Filter filter, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        Path entries = Files.createTempFile("export-manifest-", ".jsonl");
+        try {
+            int count = 0;
+            try (SequenceWriter manifest = objectMapper.writer().withRootValueSeparator("\n")
+                    .writeValues(new BufferedOutputStream(Files.newOutputStream(entries), BUFFER_SIZE))) {
+                DocumentCursor after = DocumentCursor.START;
+                while (true) {
+                    List<DocumentSummary> page = fetch(userId, filter, after, Limit.of(pageSize));
+                    for (DocumentSummary document : page) {
+                        if (filter.matches(document)) {
+                            manifest.write(new ManifestEntry(document.getId(), document.getName(), document.getType(),
+                                    document.getCategory(), document.getDate(), document.getSize(), write(zip, document)));
+                            count++;
+                        }
+                    }
+                    if (page.size() < pageSize) {
+                        break;
+                    }
+                    DocumentSummary last = page.get(page.size() - 1);
+                    after = new DocumentCursor(last.getDate(), last.getId());
+                }
+            }
+
+            zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+            zip.putNextEntry(new ZipEntry(MANIFEST));
+            writeManifest(zip, userId, filter, count, entries);
+            zip.closeEntry();
+            zip.finish();
+            zip.flush();
+        } finally {
+            Files.deleteIfExists(entries);
+        }
+    }
+
+    // Write the manifest object, copying its document entries one at a time from the spool
+    private void writeManifest(OutputStream out, Long userId, Filter filter, int count, Path entries) throws IOException {
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(out);
+             MappingIterator<ManifestEntry> documents = objectMapper.readerFor(ManifestEntry.class)
+                     .readValues(Files.newInputStream(entries))) {
+            json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            json.useDefaultPrettyPrinter();
+            json.writeStartObject();
+            json.writeObjectField("userId", userId);
+            json.writeObjectField("exportedAt", Instant.now());
+            json.writeObjectField("filter", filter);
+            json.writeNumberField("documentCount", count);
+            json.writeArrayFieldStart("documents");
+            while (documents.hasNext()) {
+                json.writeObject(documents.next());
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+    }
+
+    // Page with the most selective finder for the filter; the other criteria are applied per row
+    private List<DocumentSummary> fetch(Long userId, Filter filter, DocumentCursor after, Limit limit) {
+        if (filter.type() != null) {
+            return documentRepository.findPageByUserIdAndType(userId, filter.type(), after.getDate(), after.getId(), limit);
+        }
+        if (filter.category() != null) {
+            return documentRepository.findPageByUserIdAndCategory(userId, filter.category(), after.getDate(), after.getId(), limit);
+        }
+        if (filter.startDate() != null || filter.endDate() != null) {
+            return documentRepository.findPageByUserIdAndDateBetween(userId,
+                    filter.startDate() != null ? filter.startDate() : FIRST_DATE,
+                    filter.endDate() != null ? filter.endDate() : DocumentCursor.START.getDate(),
+                    after.getDate(), after.getId(), limit);
+        }
+        return documentRepository.findPageByUserId(userId, after.getDate(), after.getId(), limit);
+    }
+
+    // Copy a document's file into the next entry; returns its path, or null if there is no file to export
+    private String write(ZipOutputStream zip, DocumentSummary document) throws IOException {
+        String key = DocumentService.storageKeyOf(null, document.getUrl());
+        if (key == null) {
+            return null;
+        }
+        Resource resource = storageBackend.stat(key) != null ? storageBackend.load(key) : null;
+        if (resource == null) {
+            log.warn("Stored file {} of document {} is missing, exported in the manifest only", key, document.getId());
+            return null;
+        }
+
+        String path = "files/" + document.getId() + "-" + fileNameOf(document.getUrl());
+        boolean compressible = document.getType() != null
+                && compressibleTypes.contains(document.getType().toUpperCase(Locale.ROOT));
+        zip.setLevel(compressible ? compressionLevel : Deflater.NO_COMPRESSION);
+        ZipEntry entry = new ZipEntry(path);
+        if (document.getDate() != null) {
+            entry.setLastModifiedTime(FileTime.from(document.getDate().atStartOfDay(ZoneOffset.UTC).toInstant()));
+        }
+        zip.putNextEntry(entry);
+        try (InputStream in = resource.getInputStream()) {
+            in.transferTo(zip);
+        }
+        zip.closeEntry();
+        return path;
+    }
+
+    private static String fileNameOf(String url) {
+        String name = url.substring(url.lastIndexOf('/') + 1);
+        // Keep entry names within the archive's files/ directory
+        return name.replace("..", "_").replace('\\', '_');
+    }
+}
@@ -0,0 +1,111 @@
+package com.itRoad.documents_service.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.itRoad.documents_service.dto.CursorPage;
+import com.itRoad.documents_service.dto.DocumentSummary;
+import com.itRoad.documents_service.dto.VersionedDocument;
+import com.itRoad.documents_service.models.Document;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Read-through cache of document metadata: single documents by ID and pages of a user's documents.
+ * Entries are bounded in count and lifetime. Cached documents must not be modified.
+ * <p>
+ * Entries are tagged with the version of their owner's documents - the head of the owner's change
+ * feed, which every write moves on whichever instance makes it. Pages are keyed by it and documents
+ * keep the version they were read at; an entry of an older version is never served again and ages
+ * out. The versions are kept in memory by {@link DocumentChangeFeed}, so a hit costs no query. A user
+ * always reads their own writes, and writes made through other instances are seen as soon as their
+ * version is, within documents.changes.poll-interval, without scanning the cache on writes.
+ */
+@Component
+public class DocumentMetadataCache {
+
+    private final Cache<Long, VersionedDocument> documentsById;
+
+    private final Cache<UserPageKey, CursorPage<DocumentSummary>> userPages;
+
+    public DocumentMetadataCache(MeterRegistry meterRegistry,
+                                 @Value("${documents.cache.max-size:10000}") long maxSize,
+                                 @Value("${documents.cache.ttl:5m}") Duration ttl) {
+        this.documentsById = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.userPages = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, documentsById, "documents.by-id");
+        CaffeineCacheMetrics.monitor(meterRegistry, userPages, "documents.user-pages");
+    }
+
+    /**
+     * Get a document with the version it was read at, loading and caching it on a miss
+     * @param id The document ID
+     * @param versionOf Reads the current version of a user's documents, without a query
+     * @param loader Loads the document with its version; may throw if it does not exist, in which case
+     *               nothing is cached
+     * @return The document and its version
+     */
+    public VersionedDocument getDocument(Long id, ToLongFunction<Long> versionOf,
+                                         Function<Long, VersionedDocument> loader) {
+        VersionedDocument cached = documentsById.getIfPresent(id);
+        if (cached != null && cached.getVersion() == versionOf.applyAsLong(cached.getDocument().getUserId())) {
+            return cached;
+        }
+        VersionedDocument loaded = loader.apply(id);
+        if (loaded != null && loaded.getDocument().getUserId() != null) {
+            documentsById.put(id, loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * Get a page of a user's documents, loading and caching it on a miss
+     * @param userId The user ID
+     * @param version The version of the user's documents, read before calling
+     * @param cursor The page cursor as sent by the client
+     * @param limit The page size as sent by the client
+     * @param loader Runs the page query
+     * @return The page
+     */
+    public CursorPage<DocumentSummary> getUserPage(Long userId, long version, String cursor, Integer limit,
+                                                   Supplier<CursorPage<DocumentSummary>> loader) {
+        // The page is read after the version, so it is never older than the key it is filed under
+        UserPageKey key = new UserPageKey(userId, version, cursor, limit);
+        CursorPage<DocumentSummary> cached = userPages.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        CursorPage<DocumentSummary> loaded = loader.get();
+        if (loaded != null) {
+            userPages.put(key, loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * Drop a document right away rather than when its owner's version is next checked
+     * @param document The changed or deleted document
+     */
+    public void invalidate(Document document) {
+        if (document.getId() != null) {
+            documentsById.invalidate(document.getId());
+        }
+    }
+
+    private record UserPageKey(Long userId, long version, String cursor, Integer limit) {
+    }
+}
@@ -0,0 +1,306 @@
+package com.itRoad.documents_service.services;
+
+import com.itRoad.documents_service.models.Document;
+import com.itRoad.documents_service.models.DocumentContent;
+import com.itRoad.documents_service.models.ProcessingStatus;
+import com.itRoad.documents_service.repositories.DocumentContentRepository;
+import com.itRoad.documents_service.repositories.DocumentRepository;
+import com.itRoad.documents_service.storage.StorageBackend;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.tika.Tika;
+import org.apache.tika.io.TikaInputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background processing of uploaded files: sniffs the MIME type from the content, extracts the
+ * text of PDFs for full-text search and renders a PNG thumbnail of PDFs and images.
+ * <p>
+ * Work runs on a fixed pool of workers fed by a bounded queue. When the queue is full the upload
+ * is not slowed down: the document stays PENDING and a periodic sweep enqueues pending documents
+ * as capacity frees up, which also picks up documents left over by a restart.
+ */
+@Slf4j
+@Service
+public class DocumentProcessingPipeline {
+
+    private static final String PDF = "application/pdf";
+
+    private final DocumentRepository documentRepository;
+    private final DocumentContentRepository documentContentRepository;
+    private final StorageBackend storageBackend;
+    private final DocumentMetadataCache documentMetadataCache;
+    private final DocumentChangeFeed documentChangeFeed;
+    private final TransactionTemplate transactionTemplate;
+
+    private final int queueCapacity;
+    private final int maxTextLength;
+    private final int maxPages;
+    private final int thumbnailSize;
+
+    private final Tika tika = new Tika();
+    private final ThreadPoolExecutor executor;
+
+    // Documents queued or being processed, so the sweep does not enqueue them twice
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    private final Timer processedTimer;
+    private final Timer failedTimer;
+    private final Counter deferred;
+
+    public DocumentProcessingPipeline(DocumentRepository documentRepository,
+                                      DocumentContentRepository documentContentRepository,
+                                      StorageBackend storageBackend,
+                                      DocumentMetadataCache documentMetadataCache,
+                                      DocumentChangeFeed documentChangeFeed,
+                                      TransactionTemplate transactionTemplate,
+                                      MeterRegistry meterRegistry,
+                                      @Value("${documents.processing.workers:2}") int workers,
+                                      @Value("${documents.processing.queue-capacity:500}") int queueCapacity,
+                                      @Value("${documents.processing.max-text-length:100000}") int maxTextLength,
+                                      @Value("${documents.processing.max-pages:50}") int maxPages,
+                                      @Value("${documents.processing.thumbnail-size:256}") int thumbnailSize) {
+        this.documentRepository = documentRepository;
+        this.documentContentRepository = documentContentRepository;
+        this.storageBackend = storageBackend;
+        this.documentMetadataCache = documentMetadataCache;
+        this.documentChangeFeed = documentChangeFeed;
+        this.transactionTemplate = transactionTemplate;
+        this.queueCapacity = queueCapacity;
+        this.maxTextLength = maxTextLength;
+        this.maxPages = maxPages;
+        this.thumbnailSize = thumbnailSize;
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("document-processing-", 0).daemon().factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        Gauge.builder("documents.processing.queue", executor, pool -> pool.getQueue().size())
+                .description("Documents waiting for a processing worker")
+                .register(meterRegistry);
+        this.processedTimer = Timer.builder("documents.processing")
+                .description("Time to sniff, extract and thumbnail an uploaded file")
+                .tag("outcome", "done")
+                .register(meterRegistry);
+        this.failedTimer = Timer.builder("documents.processing")
+                .description("Time to sniff, extract and thumbnail an uploaded file")
+                .tag("outcome", "failed")
+                .register(meterRegistry);
+        this.deferred = Counter.builder("documents.processing.deferred")
+                .description("Documents left pending for the sweep because the queue was full")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queue a document for processing; never blocks. If the queue is full the document stays
+     * PENDING and is picked up by a later sweep.
+     * @param documentId The ID of a persisted document
+     */
+    public void submit(Long documentId) {
+        if (!inFlight.add(documentId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    process(documentId);
+                } finally {
+                    inFlight.remove(documentId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(documentId);
+            deferred.increment();
+        }
+    }
+
+    /**
+     * Enqueue pending documents, as many as the queue has room for
+     */
+    @Scheduled(fixedDelayString = "${documents.processing.sweep-interval:1m}")
+    public void sweep() {
+        int room = queueCapacity - executor.getQueue().size();
+        if (room <= 0) {
+            return;
+        }
+        documentRepository.findIdsByProcessingStatus(ProcessingStatus.PENDING, Limit.of(room))
+                .forEach(this::submit);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // Queued documents are still PENDING in the database and resume after a restart
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private void process(Long documentId) {
+        Document document = documentRepository.findById(documentId).orElse(null);
+        if (document == null || document.getProcessingStatus() != ProcessingStatus.PENDING) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        String mimeType = null;
+        try {
+            String key = DocumentService.storageKeyOf(document);
+            String text = null;
+            byte[] thumbnail = null;
+            if (key != null && storageBackend.stat(key) != null) {
+                Resource resource = storageBackend.load(key);
+                String fileName = document.getUrl().substring(document.getUrl().lastIndexOf('/') + 1);
+                try (InputStream in = TikaInputStream.get(resource.getInputStream())) {
+                    mimeType = tika.detect(in, fileName);
+                }
+
+                if (PDF.equals(mimeType)) {
+                    // PDFBox needs to seek, so compressed blobs are decoded to a temp file first
+                    Path decoded = resource.isFile() ? null : decodeToTempFile(resource);
+                    try (PDDocument pdf = Loader.loadPDF(decoded != null ? decoded.toFile() : resource.getFile())) {
+                        text = extractText(pdf);
+                        thumbnail = renderFirstPage(pdf);
+                    } finally {
+                        if (decoded != null) {
+                            Files.deleteIfExists(decoded);
+                        }
+                    }
+                } else if (mimeType.startsWith("image/")) {
+                    thumbnail = renderImage(resource);
+                }
+            }
+
+            save(document, mimeType, text, thumbnail, ProcessingStatus.DONE);
+            processedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        } catch (Exception e) {
+            log.warn("Could not process document {}: {}", documentId, e.getMessage());
+            save(document, mimeType, null, null, ProcessingStatus.FAILED);
+            failedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void save(Document document, String mimeType, String text, byte[] thumbnail, ProcessingStatus status) {
+        try {
+            transactionTemplate.executeWithoutResult(tx -> {
+                // Recorded like any other write, so the owner's version moves on every instance. The
+                // owner's feed head is locked before the document's row, in the same order as a purge.
+                documentChangeFeed.recordUpdated(document.getUserId(), document.getId());
+                if (text != null || thumbnail != null) {
+                    documentContentRepository.save(new DocumentContent(document.getId(), text, thumbnail));
+                }
+                if (documentRepository.updateProcessingResult(document.getId(), mimeType, status) == 0) {
+                    tx.setRollbackOnly();
+                }
+            });
+        } catch (DataIntegrityViolationException e) {
+            // The document was deleted while it was processed
+            return;
+        }
+        documentMetadataCache.invalidate(document);
+    }
+
+    private static Path decodeToTempFile(Resource resource) throws IOException {
+        Path file = Files.createTempFile("document-", ".pdf");
+        try (InputStream in = resource.getInputStream()) {
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return file;
+    }
+
+    private String extractText(PDDocument pdf) throws IOException {
+        PDFTextStripper stripper = new PDFTextStripper();
+        stripper.setEndPage(maxPages);
+        String text = stripper.getText(pdf).strip();
+        if (text.isEmpty()) {
+            return null;
+        }
+        return text.length() > maxTextLength ? text.substring(0, maxTextLength) : text;
+    }
+
+    private byte[] renderFirstPage(PDDocument pdf) throws IOException {
+        if (pdf.getNumberOfPages() == 0) {
+            return null;
+        }
+        PDRectangle box = pdf.getPage(0).getCropBox();
+        float scale = thumbnailSize / Math.max(box.getWidth(), box.getHeight());
+        return toPng(new PDFRenderer(pdf).renderImage(0, Math.min(scale, 1f)));
+    }
+
+    // Decode the image subsampled close to the thumbnail size, so large images are never fully decoded
+    private byte[] renderImage(Resource resource) throws IOException {
+        try (InputStream in = resource.getInputStream();
+             ImageInputStream images = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(images);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(images, true, true);
+                int step = Math.max(1, Math.max(reader.getWidth(0), reader.getHeight(0)) / thumbnailSize);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return toPng(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private byte[] toPng(BufferedImage image) throws IOException {
+        double scale = Math.min(1.0, (double) thumbnailSize / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = thumbnail.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(thumbnail, "png", out);
+        return out.toByteArray();
+    }
+}
@@ -1,130 +1,478 @@
 package com.itRoad.documents_service.services;
 
+import com.itRoad.documents_service.config.ReadYourWrites;
+import com.itRoad.documents_service.dto.BatchUploadResult;
+import com.itRoad.documents_service.dto.CursorPage;
+import com.itRoad.documents_service.dto.DocumentCount;
+import com.itRoad.documents_service.dto.DocumentQuery;
+import com.itRoad.documents_service.dto.DocumentStatistics;
+import com.itRoad.documents_service.dto.DocumentSummary;
+import com.itRoad.documents_service.dto.FacetedPage;
+import com.itRoad.documents_service.dto.PurgeStatus;
+import com.itRoad.documents_service.dto.VersionedDocument;
 import com.itRoad.documents_service.models.Document;
+import com.itRoad.documents_service.repositories.DocumentContentRepository;
 import com.itRoad.documents_service.repositories.DocumentRepository;
+import com.itRoad.documents_service.repositories.DocumentSpecifications;
 import com.itRoad.documents_service.exceptions.DocumentAlreadyExistsException;
 import com.itRoad.documents_service.exceptions.DocumentNotFoundException;
 
+import com.itRoad.documents_service.storage.StorageBackend;
+import com.itRoad.documents_service.storage.StorageLocks;
+import com.itRoad.documents_service.storage.StoredBlob;
+import com.itRoad.documents_service.utils.DocumentCursor;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.exception.ConstraintViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
+@Slf4j
 @Service
 public class DocumentService {
 
+    public static final String DOWNLOAD_PATH = "/api/documents/download/";
+
+    // Unique index on (user_id, name), see V2__add_documents_indexes.sql
+    private static final String UNIQUE_NAME_CONSTRAINT = "uq_documents_user_name";
+
     @Autowired
     private DocumentRepository documentRepository;
 
-    // Create a new document
+    @Autowired
+    private StorageBackend storageBackend;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private StorageReclaimer storageReclaimer;
+
+    @Autowired
+    private DocumentStatisticsService documentStatisticsService;
+
+    @Autowired
+    private DocumentMetadataCache documentMetadataCache;
+
+    @Autowired
+    private DocumentProcessingPipeline documentProcessingPipeline;
+
+    @Autowired
+    private DocumentContentRepository documentContentRepository;
+
+    @Autowired
+    private DocumentChangeFeed documentChangeFeed;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Read-only transactions may be served by the replica; this keeps the writing user on the primary
+    @Autowired
+    private ReadYourWrites readYourWrites;
+
+    // Number of files of a batch upload written to storage at the same time
+    @Value("${documents.upload.batch-parallelism:8}")
+    private int batchParallelism;
+
+    @Value("${documents.pagination.default-page-size:20}")
+    private int defaultPageSize;
+
+    // Upper bound on the page size a client can request
+    @Value("${documents.pagination.max-page-size:100}")
+    private int maxPageSize;
+
+    @Autowired
+    private StorageLocks storageLocks;
+
+    // Create a new document - a duplicate name for the user is rejected by the unique constraint on insert
     public Document createDocument(Document document) {
-        // Check if document name already exists for this user
+        // Set current date if not provided
+        if (document.getDate() == null) {
+            document.setDate(LocalDate.now());
+        }
+
+        try {
+            // The insert and its change feed entry commit together
+            long[] seq = new long[1];
+            Document saved = transactionTemplate.execute(status -> {
+                Document inserted = documentRepository.saveAndFlush(document);
+                seq[0] = documentChangeFeed.recordCreated(inserted.getUserId(), List.of(inserted.getId()));
+                return inserted;
+            });
+            documentStatisticsService.recordCreated(saved, seq[0]);
+            readYourWrites.recordWrite(saved.getUserId());
+            documentProcessingPipeline.submit(saved.getId());
+            return saved;
+        } catch (DataIntegrityViolationException e) {
+            if (isUniqueNameViolation(e)) {
+                throw new DocumentAlreadyExistsException("Document with name '" + document.getName() + "' already exists for this user");
+            }
+            throw e;
+        }
+    }
+
+    // Create a new document and store its file content, sharing the blob with identical uploads
+    public Document createDocument(Document document, String fileName, InputStreamSource content) throws IOException {
+        // Check the name before storing anything; the insert still enforces it against concurrent uploads
         if (documentRepository.existsByNameAndUserId(document.getName(), document.getUserId())) {
             throw new DocumentAlreadyExistsException("Document with name '" + document.getName() + "' already exists for this user");
         }
 
-        // Set current date if not provided
-        if (document.getDate() == null) {
-            document.setDate(LocalDate.now());
+        // Retry once if the blob was reclaimed between storing it and locking it
+        for (int attempt = 1; ; attempt++) {
+            StoredBlob blob;
+            try (InputStream in = content.getInputStream()) {
+                blob = storageBackend.store(in, document.getType(), lengthOf(content));
+            }
+
+            ReentrantLock lock = storageLocks.lock(blob.getKey());
+            try {
+                if (storageBackend.stat(blob.getKey()) == null) {
+                    if (attempt < 2) {
+                        continue;
+                    }
+                    throw new IOException("Stored content was reclaimed concurrently, please retry");
+                }
+
+                document.setChecksum(blob.getChecksum());
+                document.setSize(blob.getSize());
+                document.setUrl(DOWNLOAD_PATH + blob.getKey() + "/" + fileName);
+                try {
+                    return createDocument(document);
+                } catch (RuntimeException e) {
+                    reclaimIfUnreferenced(blob.getKey());
+                    throw e;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Create several documents of one user in a single call: names are checked with one query,
+    // files are stored in parallel and the rows are inserted as one JDBC batch
+    public List<BatchUploadResult> createDocuments(Long userId, List<DocumentUpload> uploads) {
+        BatchUploadResult[] results = new BatchUploadResult[uploads.size()];
+
+        // Names already taken by the user or repeated within the batch are rejected up front
+        List<String> names = uploads.stream().map(upload -> upload.getDocument().getName()).toList();
+        Set<String> taken = new HashSet<>(documentRepository.findExistingNames(userId, names));
+        List<Integer> accepted = new ArrayList<>();
+        for (int i = 0; i < uploads.size(); i++) {
+            if (taken.add(names.get(i))) {
+                accepted.add(i);
+            } else {
+                results[i] = failure(uploads.get(i), "Document with name '" + names.get(i) + "' already exists for this user");
+            }
         }
 
-        return documentRepository.save(document);
+        StoredBlob[] blobs = storeInParallel(uploads, accepted, results);
+
+        List<Integer> stored = accepted.stream().filter(i -> blobs[i] != null).toList();
+        List<ReentrantLock> locks = storageLocks.lockAll(stored.stream().map(i -> blobs[i].getKey()).toList());
+        try {
+            List<Integer> inserting = new ArrayList<>();
+            for (int i : stored) {
+                if (!isStored(blobs[i])) {
+                    results[i] = failure(uploads.get(i), "Stored content was reclaimed concurrently, please retry");
+                    continue;
+                }
+                Document document = uploads.get(i).getDocument();
+                document.setUserId(userId);
+                document.setChecksum(blobs[i].getChecksum());
+                document.setSize(blobs[i].getSize());
+                document.setUrl(DOWNLOAD_PATH + blobs[i].getKey() + "/" + uploads.get(i).getFileName());
+                if (document.getDate() == null) {
+                    document.setDate(LocalDate.now());
+                }
+                inserting.add(i);
+            }
+
+            List<Document> documents = inserting.stream().map(i -> uploads.get(i).getDocument()).toList();
+            try {
+                Long seq = transactionTemplate.execute(status -> {
+                    documentRepository.saveAll(documents);
+                    return documentChangeFeed.recordCreated(userId, documents.stream().map(Document::getId).toList());
+                });
+                documents.forEach(document -> documentStatisticsService.recordCreated(document, seq));
+                readYourWrites.recordWrite(userId);
+                documents.forEach(document -> documentProcessingPipeline.submit(document.getId()));
+                for (int i : inserting) {
+                    results[i] = new BatchUploadResult(uploads.get(i).getFileName(), true, "Document created successfully",
+                            uploads.get(i).getDocument());
+                }
+            } catch (DataIntegrityViolationException e) {
+                // A concurrent request took one of the names - insert one by one to report which
+                for (int i : inserting) {
+                    Document document = uploads.get(i).getDocument();
+                    document.setId(null);
+                    try {
+                        results[i] = new BatchUploadResult(uploads.get(i).getFileName(), true, "Document created successfully",
+                                createDocument(document));
+                    } catch (RuntimeException ex) {
+                        results[i] = failure(uploads.get(i), ex.getMessage());
+                    }
+                }
+            }
+
+            // Drop the blobs of files that did not end up in a document
+            for (int i : stored) {
+                if (!results[i].isSuccess()) {
+                    reclaimIfUnreferenced(blobs[i].getKey());
+                }
+            }
+        } finally {
+            storageLocks.unlockAll(locks);
+        }
+
+        return Arrays.asList(results);
     }
 
-    // Get all documents
-    public List<Document> getAllDocuments() {
-        return documentRepository.findAll();
+    // Get a page of all documents
+    @Transactional(readOnly = true)
+    public CursorPage<DocumentSummary> getAllDocuments(String cursor, Integer limit) {
+        return page(cursor, limit, documentRepository::findPage);
     }
 
     // Get a document by its ID
     public Document getDocumentById(Long id) {
-        return documentRepository.findById(id)
-                .orElseThrow(() -> new DocumentNotFoundException("Document not found with id: " + id));
+        return getVersionedDocument(id).getDocument();
+    }
+
+    // Get a document by its ID with the version of its owner's documents it was read at. Hits are
+    // checked against the version in memory and cost no query.
+    public VersionedDocument getVersionedDocument(Long id) {
+        return documentMetadataCache.getDocument(id, this::getUserVersion, key -> {
+            VersionedDocument loaded = documentRepository.findVersionedById(key)
+                    .orElseThrow(() -> new DocumentNotFoundException("Document not found with id: " + key));
+            // The head read with it may be ahead of memory when another instance wrote since the last poll
+            if (loaded.getDocument().getUserId() != null) {
+                documentChangeFeed.observeHead(loaded.getDocument().getUserId(), loaded.getVersion());
+            }
+            return loaded;
+        });
+    }
+
+    // Get the version of a user's documents: the head of their change feed, moved by every write to
+    // them. Kept in memory - writes through this instance move it on commit, writes through others
+    // within documents.changes.poll-interval.
+    public long getUserVersion(Long userId) {
+        return userId == null ? 0 : documentChangeFeed.getHead(userId);
+    }
+
+    // Get the PNG thumbnail rendered by the processing pipeline, or null if there is none (yet)
+    @Transactional(readOnly = true)
+    public byte[] getThumbnail(Long id) {
+        return documentContentRepository.findThumbnail(id);
+    }
+
+    // Get a page of documents by user ID - served from the metadata cache until the user's documents change
+    public CursorPage<DocumentSummary> getDocumentsByUserId(Long userId, String cursor, Integer limit) {
+        return getDocumentsByUserId(userId, getUserVersion(userId), cursor, limit);
     }
 
-    // Get documents by user ID
-    public List<Document> getDocumentsByUserId(Long userId) {
-        return documentRepository.findByUserId(userId);
+    // Get a page of documents by user ID with the version of the user's documents already read.
+    // Only misses run the page query, in a read-only transaction of their own.
+    public CursorPage<DocumentSummary> getDocumentsByUserId(Long userId, long version, String cursor, Integer limit) {
+        return documentMetadataCache.getUserPage(userId, version, cursor, limit, () -> {
+            TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+            readOnly.setReadOnly(true);
+            return readOnly.execute(status -> {
+                readYourWrites.beforeRead(userId);
+                return page(cursor, limit, (date, id, max) -> documentRepository.findPageByUserId(userId, date, id, max));
+            });
+        });
     }
 
-    // Get documents by type
-    public List<Document> getDocumentsByType(String type) {
-        return documentRepository.findByType(type);
+    // Get a page of documents by type
+    @Transactional(readOnly = true)
+    public CursorPage<DocumentSummary> getDocumentsByType(String type, String cursor, Integer limit) {
+        return page(cursor, limit, (date, id, max) -> documentRepository.findPageByType(type, date, id, max));
     }
 
-    // Get documents by category
-    public List<Document> getDocumentsByCategory(String category) {
-        return documentRepository.findByCategory(category);
+    // Get a page of documents by category
+    @Transactional(readOnly = true)
+    public CursorPage<DocumentSummary> getDocumentsByCategory(String category, String cursor, Integer limit) {
+        return page(cursor, limit, (date, id, max) -> documentRepository.findPageByCategory(category, date, id, max));
     }
 
-    // Get documents by name
-    public List<Document> getDocumentsByName(String name) {
-        return documentRepository.findByName(name);
+    // Get a page of documents by name
+    @Transactional(readOnly = true)
+    public CursorPage<DocumentSummary> getDocumentsByName(String name, String cursor, Integer limit) {
+        return page(cursor, limit, (date, id, max) -> documentRepository.findPageByName(name, date, id, max));
     }
 
-    // Get documents by exact date
-    public List<Document> getDocumentsByDate(LocalDate date) {
-        return documentRepository.findByDate(date);
+    // Get a page of documents by exact date
+    @Transactional(readOnly = true)
+    public CursorPage<DocumentSummary> getDocumentsByDate(LocalDate date, String cursor, Integer limit) {
+        return getDocumentsByDateRange(date, date, cursor, limit);
     }
 
-    // Get documents in a date range
-    public List<Document> getDocumentsByDateRange(LocalDate startDate, LocalDate endDate) {
-        return documentRepository.findByDateBetween(startDate, endDate);
+    // Get a page of documents in a date range
+    @Transactional(readOnly = true)
+    public CursorPage<DocumentSummary> getDocumentsByDateRange(LocalDate startDate, LocalDate endDate, String cursor, Integer limit) {
+        return page(cursor, limit, (date, id, max) -> documentRepository.findPageByDateBetween(startDate, endDate, date, id, max));
     }
 
-    // Get documents by user ID and type
-    public List<Document> getDocumentsByUserAndType(Long userId, String type) {
-        return documentRepository.findByUserIdAndType(userId, type);
+    // Get a page of documents by user ID and type
+    @Transactional(readOnly = true)
+    public CursorPage<DocumentSummary> getDocumentsByUserAndType(Long userId, String type, String cursor, Integer limit) {
+        readYourWrites.beforeRead(userId);
+        return page(cursor, limit, (date, id, max) -> documentRepository.findPageByUserIdAndType(userId, type, date, id, max));
     }
 
-    // Get documents by user ID and category
-    public List<Document> getDocumentsByUserAndCategory(Long userId, String category) {
-        return documentRepository.findByUserIdAndCategory(userId, category);
+    // Get a page of documents by user ID and category
+    @Transactional(readOnly = true)
+    public CursorPage<DocumentSummary> getDocumentsByUserAndCategory(Long userId, String category, String cursor, Integer limit) {
+        readYourWrites.beforeRead(userId);
+        return page(cursor, limit, (date, id, max) -> documentRepository.findPageByUserIdAndCategory(userId, category, date, id, max));
     }
 
-    // Get documents by user ID and date range
-    public List<Document> getDocumentsByUserAndDateRange(Long userId, LocalDate startDate, LocalDate endDate) {
-        return documentRepository.findByUserIdAndDateBetween(userId, startDate, endDate);
+    // Get a page of documents by user ID and date range
+    @Transactional(readOnly = true)
+    public CursorPage<DocumentSummary> getDocumentsByUserAndDateRange(Long userId, LocalDate startDate, LocalDate endDate,
+                                                                      String cursor, Integer limit) {
+        readYourWrites.beforeRead(userId);
+        return page(cursor, limit,
+                (date, id, max) -> documentRepository.findPageByUserIdAndDateBetween(userId, startDate, endDate, date, id, max));
     }
 
-    // Delete a document by ID
+    /**
+     * Get a page of the documents matching any combination of criteria, newest first, optionally
+     * with their counts by type and by category - the page and the counts take one query each
+     * @param query The criteria; unset fields do not filter
+     * @param cursor Cursor of the page, null for the first one
+     * @param limit Page size
+     * @param facets Whether to count the matching documents by type and by category
+     * @return The page, with facets if requested
+     */
+    @Transactional(readOnly = true)
+    public FacetedPage<DocumentSummary> queryDocuments(DocumentQuery query, String cursor, Integer limit, boolean facets) {
+        if (query.getStartDate() != null && query.getEndDate() != null && query.getStartDate().isAfter(query.getEndDate())) {
+            throw new IllegalArgumentException("startDate must not be after endDate");
+        }
+        readYourWrites.beforeRead(query.getUserId());
+        Specification<Document> matching = DocumentSpecifications.matching(query);
+        CursorPage<DocumentSummary> page = page(cursor, limit, (date, id, max) ->
+                documentRepository.findSummaries(matching.and(DocumentSpecifications.afterCursor(date, id)), max));
+        return new FacetedPage<>(page.getItems(), page.getNextCursor(),
+                facets ? documentRepository.countFacets(matching) : null);
+    }
+
+    // Delete a document by ID and reclaim its file once nothing references it
     public void deleteDocument(Long id) {
-        if (!documentRepository.existsById(id)) {
+        Document document = getDocumentById(id);
+        // Sequence number of the delete in the feed, or null if the document was already gone
+        Long seq = transactionTemplate.execute(status -> {
+            // The feed head is locked before the row, in the same order as a purge of the user
+            long recorded = documentChangeFeed.recordDeleted(document.getUserId(), List.of(id));
+            if (documentRepository.deleteDocumentById(id) == 0) {
+                status.setRollbackOnly();
+                return null;
+            }
+            return recorded;
+        });
+        if (seq == null) {
+            documentMetadataCache.invalidate(document);
             throw new DocumentNotFoundException("Document not found with id: " + id);
         }
-        documentRepository.deleteById(id);
+        documentStatisticsService.recordDeleted(document, seq);
+        readYourWrites.recordWrite(document.getUserId());
+        documentMetadataCache.invalidate(document);
+        reclaimStorage(document);
     }
 
-    // Delete all documents for a user
-    public void deleteDocumentsByUserId(Long userId) {
-        List<Document> documents = documentRepository.findByUserId(userId);
-        documentRepository.deleteAll(documents);
+    // Delete all documents for a user with one statement; their files are reclaimed in the background
+    public PurgeStatus deleteDocumentsByUserId(Long userId) {
+        // Read the storage locations, delete the rows and queue the files in one transaction, so a
+        // failed delete never queues files that are still referenced and a committed one never
+        // loses its queue. Numbering the purge in the feed first locks the user's head row. Deletes
+        // and processing updates take it before their row locks, so they wait for the purge rather
+        // than deadlock with it. Creates take it after inserting rows no one else sees yet: a
+        // document inserted concurrently has either committed before the locations are read or
+        // waits until the delete has committed, so no row is deleted without its file being queued.
+        PurgeDeletion deletion = transactionTemplate.execute(status -> {
+            if (!documentRepository.existsByUserId(userId)) {
+                return new PurgeDeletion(storageReclaimer.enqueue(userId, List.of()), 0, List.of(), List.of(), 0);
+            }
+            long seq = documentChangeFeed.recordPurged(userId);
+            List<String> keys = documentRepository.findStorageRefsByUserId(userId).stream()
+                    .map(ref -> ref.startsWith(DOWNLOAD_PATH) ? ref.substring(DOWNLOAD_PATH.length()) : ref)
+                    .distinct()
+                    .toList();
+            List<DocumentCount> counts = documentRepository.countGroupsByUserId(userId);
+            int deleted = documentRepository.deleteAllByUserId(userId);
+            return new PurgeDeletion(storageReclaimer.enqueue(userId, keys), deleted, keys, counts, seq);
+        });
+        documentStatisticsService.recordDeleted(userId, deletion.counts(), deletion.seq());
+        readYourWrites.recordWrite(userId);
+        return storageReclaimer.submit(deletion.purgeId(), userId, deletion.deleted(), deletion.keys());
     }
 
-    // Search documents by name, category, or type
-    public List<Document> searchDocuments(String searchTerm) {
-        return documentRepository.searchDocuments(searchTerm);
+    private record PurgeDeletion(String purgeId, int deleted, List<String> keys, List<DocumentCount> counts, long seq) {
     }
 
-    // Search documents by user and search term
-    public List<Document> searchDocumentsByUser(Long userId, String searchTerm) {
-        return documentRepository.searchDocumentsByUser(userId, searchTerm);
+    // Search documents by name, category, or type - every word of the term must prefix-match
+    @Transactional(readOnly = true)
+    public CursorPage<DocumentSummary> searchDocuments(String searchTerm, String cursor, Integer limit) {
+        return searchPage(searchTerm, cursor, limit, documentRepository::searchDocuments);
     }
 
-    // Count documents for a user
+    // Search documents by user and search term - every word of the term must prefix-match
+    @Transactional(readOnly = true)
+    public CursorPage<DocumentSummary> searchDocumentsByUser(Long userId, String searchTerm, String cursor, Integer limit) {
+        readYourWrites.beforeRead(userId);
+        return searchPage(searchTerm, cursor, limit,
+                (query, max, offset) -> documentRepository.searchDocumentsByUser(userId, query, max, offset));
+    }
+
+    // Count documents for a user - served from the maintained counters
     public Long countDocumentsByUser(Long userId) {
-        return documentRepository.countDocumentsByUser(userId);
+        return documentStatisticsService.countByUser(userId);
     }
 
-    // Count documents by type
+    // Count documents by type - served from the maintained counters
     public Long countDocumentsByType(String type) {
-        return documentRepository.countDocumentsByType(type);
+        return documentStatisticsService.countByType(type);
     }
 
-    // Count documents by category
+    // Count documents by category - served from the maintained counters
     public Long countDocumentsByCategory(String category) {
-        return documentRepository.countDocumentsByCategory(category);
+        return documentStatisticsService.countByCategory(category);
+    }
+
+    // Totals for the whole system, this month and this year, with per-type and per-category breakdowns
+    public DocumentStatistics getStatistics() {
+        return documentStatisticsService.getStatistics();
     }
 
     // Check if document exists by ID
@@ -136,4 +484,187 @@ public class DocumentService {
     public boolean existsByNameAndUserId(String name, Long userId) {
         return documentRepository.existsByNameAndUserId(name, userId);
     }
+
+    private static boolean isUniqueNameViolation(DataIntegrityViolationException e) {
+        return e.getCause() instanceof ConstraintViolationException violation
+                && violation.getConstraintName() != null
+                && violation.getConstraintName().toLowerCase(Locale.ROOT).contains(UNIQUE_NAME_CONSTRAINT);
+    }
+
+    // Store the accepted files of a batch on virtual threads, at most batchParallelism at a time
+    private StoredBlob[] storeInParallel(List<DocumentUpload> uploads, List<Integer> accepted, BatchUploadResult[] results) {
+        StoredBlob[] blobs = new StoredBlob[uploads.size()];
+        int threads = Math.max(1, Math.min(batchParallelism, accepted.size()));
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads, Thread.ofVirtual().factory())) {
+            Map<Integer, Future<StoredBlob>> futures = new LinkedHashMap<>();
+            for (int i : accepted) {
+                InputStreamSource content = uploads.get(i).getContent();
+                String type = uploads.get(i).getDocument().getType();
+                futures.put(i, executor.submit(() -> {
+                    try (InputStream in = content.getInputStream()) {
+                        return storageBackend.store(in, type, lengthOf(content));
+                    }
+                }));
+            }
+            for (Map.Entry<Integer, Future<StoredBlob>> entry : futures.entrySet()) {
+                int i = entry.getKey();
+                try {
+                    blobs[i] = entry.getValue().get();
+                } catch (ExecutionException e) {
+                    results[i] = failure(uploads.get(i), "File upload failed: " + e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    results[i] = failure(uploads.get(i), "File upload interrupted");
+                }
+            }
+        }
+        return blobs;
+    }
+
+    // Length of uploaded content when its source knows it, e.g. a multipart file or a resumable upload's file
+    private static long lengthOf(InputStreamSource content) {
+        try {
+            if (content instanceof MultipartFile file) {
+                return file.getSize();
+            }
+            return content instanceof Resource resource ? resource.contentLength() : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private boolean isStored(StoredBlob blob) {
+        try {
+            return storageBackend.stat(blob.getKey()) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static BatchUploadResult failure(DocumentUpload upload, String message) {
+        return new BatchUploadResult(upload.getFileName(), false, message, null);
+    }
+
+    // Storage key of a document's file - its checksum, or the file name for files stored before hashing
+    public static String storageKeyOf(Document document) {
+        return storageKeyOf(document.getChecksum(), document.getUrl());
+    }
+
+    // Storage key from a checksum, or when there is none from the download URL:
+    // /api/documents/download/<key>/<file name>, or /api/documents/download/<file name> for legacy files
+    public static String storageKeyOf(String checksum, String url) {
+        if (checksum != null) {
+            return checksum;
+        }
+        if (url == null || !url.startsWith(DOWNLOAD_PATH)) {
+            return null;
+        }
+        String rest = url.substring(DOWNLOAD_PATH.length());
+        int slash = rest.indexOf('/');
+        return slash < 0 ? rest : rest.substring(0, slash);
+    }
+
+    // Remove a deleted document's file if no other document references it
+    private void reclaimStorage(Document document) {
+        String key = storageKeyOf(document);
+        if (key == null) {
+            return;
+        }
+        ReentrantLock lock = storageLocks.lock(key);
+        try {
+            if (document.getChecksum() == null) {
+                // Files stored before hashing belong to exactly one document
+                storageBackend.delete(key);
+            } else {
+                reclaimIfUnreferenced(key);
+            }
+        } catch (IOException e) {
+            log.warn("Could not reclaim stored file {}: {}", key, e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must be called with the key's storage lock held
+    private void reclaimIfUnreferenced(String checksum) {
+        if (documentRepository.countByChecksum(checksum) > 0) {
+            return;
+        }
+        try {
+            storageBackend.delete(checksum);
+        } catch (IOException e) {
+            log.warn("Could not reclaim stored file {}: {}", checksum, e.getMessage());
+        }
+    }
+
+    // Run a keyset query for one page; one extra row is fetched to tell whether another page follows
+    private CursorPage<DocumentSummary> page(String cursor, Integer limit, PageQuery query) {
+        int pageSize = limit == null ? defaultPageSize : Math.min(Math.max(limit, 1), maxPageSize);
+        DocumentCursor after = DocumentCursor.decode(cursor);
+
+        List<DocumentSummary> rows = query.fetch(after.getDate(), after.getId(), Limit.of(pageSize + 1));
+        if (rows.size() <= pageSize) {
+            return new CursorPage<>(rows, null);
+        }
+        List<DocumentSummary> items = rows.subList(0, pageSize);
+        DocumentSummary last = items.get(pageSize - 1);
+        return new CursorPage<>(items, new DocumentCursor(last.getDate(), last.getId()).encode());
+    }
+
+    // Run a ranked search for one page. Relevance order has no stable key to seek on,
+    // so the cursor carries the offset of the next page.
+    private CursorPage<DocumentSummary> searchPage(String searchTerm, String cursor, Integer limit, SearchQuery query) {
+        int pageSize = limit == null ? defaultPageSize : Math.min(Math.max(limit, 1), maxPageSize);
+        int offset = decodeOffset(cursor);
+
+        String tsQuery = toPrefixQuery(searchTerm);
+        if (tsQuery.isEmpty()) {
+            return new CursorPage<>(List.of(), null);
+        }
+
+        List<DocumentSummary> rows = query.fetch(tsQuery, pageSize + 1, offset);
+        List<DocumentSummary> items = rows.size() > pageSize ? rows.subList(0, pageSize) : rows;
+        String nextCursor = rows.size() > pageSize ? encodeOffset(offset + pageSize) : null;
+        return new CursorPage<>(items, nextCursor);
+    }
+
+    // Turn free text into a tsquery where every word must match as a prefix: "inv 2024" -> "inv:* & 2024:*"
+    static String toPrefixQuery(String searchTerm) {
+        if (searchTerm == null) {
+            return "";
+        }
+        return Arrays.stream(searchTerm.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+                .filter(word -> !word.isEmpty())
+                .map(word -> word + ":*")
+                .collect(Collectors.joining(" & "));
+    }
+
+    private static String encodeOffset(int offset) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Integer.toString(offset).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int decodeOffset(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return 0;
+        }
+        try {
+            int offset = Integer.parseInt(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+            if (offset < 0) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            return offset;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+
+    @FunctionalInterface
+    private interface PageQuery {
+        List<DocumentSummary> fetch(LocalDate date, Long id, Limit limit);
+    }
+
+    @FunctionalInterface
+    private interface SearchQuery {
+        List<DocumentSummary> fetch(String tsQuery, int limit, int offset);
+    }
 }
@@ -0,0 +1,290 @@
+package com.itRoad.documents_service.services;
+
+import com.itRoad.documents_service.dto.DocumentCount;
+import com.itRoad.documents_service.dto.DocumentStatistics;
+import com.itRoad.documents_service.models.Document;
+import com.itRoad.documents_service.repositories.DocumentChangeRepository;
+import com.itRoad.documents_service.repositories.DocumentRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Document counts kept in memory and adjusted on every create and delete, so statistics and
+ * per-user/type/category counts are map lookups instead of COUNT(*) queries. The counters are
+ * rebuilt from the database on startup and periodically, which corrects changes made by other
+ * instances.
+ */
+@Slf4j
+@Service
+public class DocumentStatisticsService {
+
+    // Users whose feed heads are looked up with one query
+    private static final int HEAD_BATCH = 1000;
+
+    @Autowired
+    private DocumentRepository documentRepository;
+
+    @Autowired
+    private DocumentChangeRepository documentChangeRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Replaced as a whole by each reconciliation; null until the first one completes
+    private volatile Counters counters;
+
+    // The reconciliation running, if any
+    private volatile Rebuild rebuilding;
+
+    // Lets one reconciliation run at a time; callers needing the first load wait for it
+    private final ReentrantLock rebuild = new ReentrantLock();
+
+    /**
+     * Account for a newly created document
+     * @param document The persisted document
+     * @param seq Sequence number of the creation in the user's change feed
+     */
+    public void recordCreated(Document document, long seq) {
+        record(document.getUserId(), seq,
+                counters -> counters.add(document.getUserId(), document.getType(), document.getCategory(), document.getDate(), 1));
+    }
+
+    /**
+     * Account for a deleted document
+     * @param document The deleted document
+     * @param seq Sequence number of the deletion in the user's change feed
+     */
+    public void recordDeleted(Document document, long seq) {
+        record(document.getUserId(), seq,
+                counters -> counters.add(document.getUserId(), document.getType(), document.getCategory(), document.getDate(), -1));
+    }
+
+    /**
+     * Account for bulk-deleted documents of a user
+     * @param userId The user
+     * @param groups The counts of the deleted documents, as returned before deleting them
+     * @param seq Sequence number of the deletion in the user's change feed
+     */
+    public void recordDeleted(Long userId, List<DocumentCount> groups, long seq) {
+        record(userId, seq, counters -> groups.forEach(group -> counters.add(group, -1)));
+    }
+
+    /**
+     * Get totals for the whole system, this month and this year, plus breakdowns per type and category
+     * @return The current statistics
+     */
+    public DocumentStatistics getStatistics() {
+        Counters current = ensureLoaded();
+        YearMonth now = YearMonth.now();
+        long thisYear = 0;
+        for (Map.Entry<YearMonth, LongAdder> month : current.byMonth.entrySet()) {
+            if (month.getKey().getYear() == now.getYear()) {
+                thisYear += month.getValue().sum();
+            }
+        }
+        return new DocumentStatistics(current.total.sum(), sum(current.byMonth.get(now)), thisYear,
+                snapshot(current.byType), snapshot(current.byCategory));
+    }
+
+    public long countByUser(Long userId) {
+        return sum(ensureLoaded().byUser.get(userId));
+    }
+
+    public long countByType(String type) {
+        return sum(ensureLoaded().byType.get(type));
+    }
+
+    public long countByCategory(String category) {
+        return sum(ensureLoaded().byCategory.get(category));
+    }
+
+    /**
+     * Rebuild the counters from the database with a single grouped query. Changes recorded while the
+     * query runs are kept with their change feed sequence numbers; the feed heads read in the same
+     * snapshot as the counts tell which of them the query already saw, and only the others are applied
+     * to the new counters. A change committed before the query but recorded only after the rebuild
+     * has finished its last head lookup is still counted twice, until the next reconciliation.
+     */
+    @Scheduled(fixedDelayString = "${documents.statistics.reconcile-interval:10m}")
+    public void reconcile() {
+        rebuild.lock();
+        try {
+            Rebuild next = new Rebuild();
+            rebuilding = next;
+            TransactionTemplate snapshot = new TransactionTemplate(transactionManager);
+            snapshot.setReadOnly(true);
+            // Serializable so that H2 also reads the heads from the counts' snapshot, which its
+            // repeatable read does not guarantee for rows inserted meanwhile
+            snapshot.setIsolationLevel(TransactionDefinition.ISOLATION_SERIALIZABLE);
+            Map<Long, Long> heads = new HashMap<>();
+            snapshot.executeWithoutResult(status -> {
+                documentRepository.countGroups().forEach(group -> next.fresh.add(group, 1));
+                // Heads of the users with pending changes, until no change of another user arrives
+                for (List<Long> users = next.closeOrWithout(heads.keySet()); !users.isEmpty();
+                     users = next.closeOrWithout(heads.keySet())) {
+                    for (int from = 0; from < users.size(); from += HEAD_BATCH) {
+                        List<Long> batch = users.subList(from, Math.min(from + HEAD_BATCH, users.size()));
+                        batch.forEach(userId -> heads.put(userId, 0L));
+                        documentChangeRepository.findHeads(batch)
+                                .forEach(head -> heads.put(head.getUserId(), head.getLastSeq()));
+                    }
+                }
+            });
+            for (PendingChange pending : next.pending) {
+                if (pending.userId() == null || pending.seq() > heads.get(pending.userId())) {
+                    pending.change().accept(next.fresh);
+                }
+            }
+
+            Counters previous = counters;
+            counters = next.fresh;
+            if (previous != null && previous.total.sum() != next.fresh.total.sum()) {
+                log.info("Document counters reconciled: {} -> {} documents", previous.total.sum(), next.fresh.total.sum());
+            }
+        } finally {
+            rebuilding = null;
+            rebuild.unlock();
+        }
+    }
+
+    // Apply a change to the current counters and hand it to the rebuild, if one runs. The rebuild is
+    // read first: a change that misses it was committed before the rebuild's query started, which counts it.
+    private void record(Long userId, long seq, Consumer<Counters> change) {
+        Rebuild pending = rebuilding;
+        Counters current = counters;
+        if (current != null) {
+            change.accept(current);
+        }
+        if (pending != null && pending.fresh != current) {
+            pending.add(new PendingChange(userId, seq, change));
+        }
+    }
+
+    private Counters ensureLoaded() {
+        Counters current = counters;
+        if (current == null) {
+            // Not synchronized: the first load queries the database, which would pin a virtual thread's carrier
+            rebuild.lock();
+            try {
+                if (counters == null) {
+                    reconcile();
+                }
+                current = counters;
+            } finally {
+                rebuild.unlock();
+            }
+        }
+        return current;
+    }
+
+    private static long sum(LongAdder adder) {
+        return adder == null ? 0 : adder.sum();
+    }
+
+    private static Map<String, Long> snapshot(Map<String, LongAdder> counts) {
+        Map<String, Long> result = new TreeMap<>();
+        counts.forEach((key, count) -> {
+            long value = count.sum();
+            if (value > 0) {
+                result.put(key, value);
+            }
+        });
+        return result;
+    }
+
+    private record PendingChange(Long userId, long seq, Consumer<Counters> change) {
+    }
+
+    // The counters being rebuilt and the changes recorded meanwhile
+    private static class Rebuild {
+
+        private final Counters fresh = new Counters();
+        private final List<PendingChange> pending = new ArrayList<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private boolean closed;
+
+        void add(PendingChange change) {
+            lock.lock();
+            try {
+                if (!closed) {
+                    pending.add(change);
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            // Past the last head lookup, so committed after the snapshot unless its record was delayed
+            change.change().accept(fresh);
+        }
+
+        // The users with pending changes not among those given, or none after closing the rebuild to
+        // further pending changes
+        List<Long> closeOrWithout(Set<Long> users) {
+            lock.lock();
+            try {
+                Set<Long> missing = new HashSet<>();
+                for (PendingChange change : pending) {
+                    if (change.userId() != null && !users.contains(change.userId())) {
+                        missing.add(change.userId());
+                    }
+                }
+                closed = missing.isEmpty();
+                return new ArrayList<>(missing);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static class Counters {
+
+        // Keys of ConcurrentHashMap cannot be null
+        private static final String NONE = "";
+
+        private final LongAdder total = new LongAdder();
+        private final Map<Long, LongAdder> byUser = new ConcurrentHashMap<>();
+        private final Map<String, LongAdder> byType = new ConcurrentHashMap<>();
+        private final Map<String, LongAdder> byCategory = new ConcurrentHashMap<>();
+        private final Map<YearMonth, LongAdder> byMonth = new ConcurrentHashMap<>();
+
+        void add(DocumentCount group, int sign) {
+            YearMonth month = group.getYear() == null ? null : YearMonth.of(group.getYear(), group.getMonth());
+            addTo(group.getUserId(), group.getType(), group.getCategory(), month, sign * group.getCount());
+        }
+
+        void add(Long userId, String type, String category, LocalDate date, long delta) {
+            addTo(userId, type, category, date == null ? null : YearMonth.from(date), delta);
+        }
+
+        private void addTo(Long userId, String type, String category, YearMonth month, long delta) {
+            total.add(delta);
+            if (userId != null) {
+                byUser.computeIfAbsent(userId, key -> new LongAdder()).add(delta);
+            }
+            byType.computeIfAbsent(type == null ? NONE : type, key -> new LongAdder()).add(delta);
+            byCategory.computeIfAbsent(category == null ? NONE : category, key -> new LongAdder()).add(delta);
+            if (month != null) {
+                byMonth.computeIfAbsent(month, key -> new LongAdder()).add(delta);
+            }
+        }
+    }
+}
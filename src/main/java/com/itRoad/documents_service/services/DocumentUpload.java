@@ -0,0 +1,16 @@
+package com.itRoad.documents_service.services;
+
+import com.itRoad.documents_service.models.Document;
+import lombok.Value;
+import org.springframework.core.io.InputStreamSource;
+
+// One file of a batch upload: the document to create, the original file name and the content
+@Value
+public class DocumentUpload {
+
+    Document document;
+
+    String fileName;
+
+    InputStreamSource content;
+}
@@ -0,0 +1,322 @@
+package com.itRoad.documents_service.services;
+
+import com.itRoad.documents_service.dto.UploadSession;
+import com.itRoad.documents_service.exceptions.DocumentAlreadyExistsException;
+import com.itRoad.documents_service.exceptions.UploadSessionNotFoundException;
+import com.itRoad.documents_service.models.Document;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Resumable uploads of large files: a session preallocates a file of the announced size, chunks
+ * are written into it at their offsets with positional writes - so they can arrive in any order
+ * and in parallel - and completing the session creates the document from the assembled file
+ * through the regular upload path. Sessions nobody writes to for session-ttl are dropped.
+ * <p>
+ * Sessions live in memory and their files in a directory of their own; both are discarded on restart.
+ */
+@Slf4j
+@Service
+public class ResumableUploadService {
+
+    // Size of the buffer each chunk is streamed through
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String PART_SUFFIX = ".part";
+
+    private final DocumentService documentService;
+    private final Path directory;
+    private final long chunkSize;
+    private final long maxSize;
+    private final Duration sessionTtl;
+    private final int maxSessions;
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    public ResumableUploadService(DocumentService documentService,
+                                  @Value("${documents.upload.resumable.directory:${documents.storage.root:uploads}/.sessions}") String directory,
+                                  @Value("${documents.upload.resumable.chunk-size:8MB}") DataSize chunkSize,
+                                  @Value("${documents.upload.resumable.max-size:20GB}") DataSize maxSize,
+                                  @Value("${documents.upload.resumable.session-ttl:24h}") Duration sessionTtl,
+                                  @Value("${documents.upload.resumable.max-sessions:1000}") int maxSessions) {
+        this.documentService = documentService;
+        this.directory = Paths.get(directory).toAbsolutePath().normalize();
+        this.chunkSize = chunkSize.toBytes();
+        this.maxSize = maxSize.toBytes();
+        this.sessionTtl = sessionTtl;
+        this.maxSessions = maxSessions;
+    }
+
+    // Sessions do not survive a restart, so files left behind by the previous run are removed
+    @PostConstruct
+    void init() throws IOException {
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory, "*" + PART_SUFFIX)) {
+            for (Path file : leftovers) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Open an upload session and preallocate its file
+     * @param document The document to create on completion (name, type, category and user set)
+     * @param fileName Original name of the file
+     * @param size Total size of the file in bytes
+     * @return The new session
+     */
+    public UploadSession createSession(Document document, String fileName, long size) throws IOException {
+        if (size <= 0 || size > maxSize) {
+            throw new IllegalArgumentException("File size must be between 1 and " + maxSize + " bytes");
+        }
+        if (sessions.size() >= maxSessions) {
+            throw new IllegalStateException("Too many uploads in progress, please retry later");
+        }
+        // Checked again on completion; failing here saves sending the whole file for nothing
+        if (documentService.existsByNameAndUserId(document.getName(), document.getUserId())) {
+            throw new DocumentAlreadyExistsException("Document with name '" + document.getName() + "' already exists for this user");
+        }
+
+        String id = UUID.randomUUID().toString();
+        Path file = directory.resolve(id + PART_SUFFIX);
+        try (RandomAccessFile preallocated = new RandomAccessFile(file.toFile(), "rw")) {
+            preallocated.setLength(size);
+        }
+        Session session = new Session(id, document, fileName, file, size, Math.toIntExact((size + chunkSize - 1) / chunkSize));
+        session.touch(sessionTtl);
+        sessions.put(id, session);
+        return snapshot(session);
+    }
+
+    /**
+     * Write one chunk of a session's file. Chunks start at a multiple of the chunk size and span a
+     * whole chunk (the last one the rest of the file); resending a chunk overwrites it.
+     * @param id The session ID
+     * @param offset Position of the chunk's first byte in the file
+     * @param length Length of the chunk
+     * @param content The chunk bytes, read up to length but not closed
+     * @return The session after the write
+     */
+    public UploadSession writeChunk(String id, long offset, long length, InputStream content) throws IOException {
+        Session session = getSession(id);
+        if (offset < 0 || offset >= session.size || offset % chunkSize != 0) {
+            throw new IllegalArgumentException("Chunks must start at a multiple of " + chunkSize + " below " + session.size);
+        }
+        int chunk = Math.toIntExact(offset / chunkSize);
+        long expected = Math.min(chunkSize, session.size - offset);
+        if (length != expected) {
+            throw new IllegalArgumentException("Chunk " + chunk + " must be " + expected + " bytes long");
+        }
+
+        // Chunks are written under the shared lock so they run in parallel; completion and expiry take it exclusively
+        session.lock.readLock().lock();
+        try {
+            if (session.closed) {
+                throw new UploadSessionNotFoundException("Upload session not found: " + id);
+            }
+            session.touch(sessionTtl);
+            long written = write(session.file, offset, length, content);
+            if (written != length) {
+                throw new IOException("Chunk " + chunk + " ended after " + written + " of " + length + " bytes");
+            }
+            synchronized (session) {
+                session.received.set(chunk);
+            }
+        } finally {
+            session.lock.readLock().unlock();
+        }
+        return snapshot(session);
+    }
+
+    /**
+     * Get the progress of a session
+     * @param id The session ID
+     * @return A snapshot of the session
+     */
+    public UploadSession getStatus(String id) {
+        return snapshot(getSession(id));
+    }
+
+    /**
+     * Create the document from a fully received file and close the session. If chunks are missing
+     * the session stays open so they can still be sent.
+     * @param id The session ID
+     * @return The created document
+     */
+    public Document complete(String id) throws IOException {
+        Session session = getSession(id);
+        session.lock.writeLock().lock();
+        try {
+            if (session.closed) {
+                throw new UploadSessionNotFoundException("Upload session not found: " + id);
+            }
+            int missing;
+            synchronized (session) {
+                missing = session.chunkCount - session.received.cardinality();
+            }
+            if (missing > 0) {
+                throw new IllegalStateException(missing + " of " + session.chunkCount + " chunks have not been received");
+            }
+
+            Document document;
+            try {
+                document = documentService.createDocument(session.document, session.fileName, new FileSystemResource(session.file));
+            } catch (DocumentAlreadyExistsException e) {
+                // The name was taken while uploading - nothing left to retry
+                close(session);
+                throw e;
+            }
+            close(session);
+            return document;
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Abandon a session and delete what was received
+     * @param id The session ID
+     */
+    public void abort(String id) {
+        Session session = getSession(id);
+        session.lock.writeLock().lock();
+        try {
+            close(session);
+        } finally {
+            session.lock.writeLock().unlock();
+        }
+    }
+
+    // Drop sessions nobody has written to for session-ttl; sessions busy with a chunk are left for the next sweep
+    @Scheduled(fixedDelayString = "${documents.upload.resumable.sweep-interval:5m}")
+    public void expireSessions() {
+        Instant now = Instant.now();
+        for (Session session : sessions.values()) {
+            if (session.expiresAt.isAfter(now) || !session.lock.writeLock().tryLock()) {
+                continue;
+            }
+            try {
+                if (session.expiresAt.isBefore(now)) {
+                    log.info("Upload session {} expired with {} of {} chunks received",
+                            session.id, session.received.cardinality(), session.chunkCount);
+                    close(session);
+                }
+            } finally {
+                session.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private Session getSession(String id) {
+        Session session = sessions.get(id);
+        if (session == null) {
+            throw new UploadSessionNotFoundException("Upload session not found: " + id);
+        }
+        return session;
+    }
+
+    // Must be called with the session's write lock held
+    private void close(Session session) {
+        session.closed = true;
+        sessions.remove(session.id);
+        try {
+            Files.deleteIfExists(session.file);
+        } catch (IOException e) {
+            log.warn("Could not delete upload session file {}: {}", session.file, e.getMessage());
+        }
+    }
+
+    // Copy up to length bytes of the content into the file at offset; returns how many were written.
+    // A heap buffer per chunk: a direct one would cost a native allocation, freed only by GC, every time.
+    private static long write(Path file, long offset, long length, InputStream content) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long written = 0;
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            while (written < length) {
+                int read = content.read(buffer, 0, (int) Math.min(BUFFER_SIZE, length - written));
+                if (read == -1) {
+                    break;
+                }
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                while (chunk.hasRemaining()) {
+                    written += out.write(chunk, offset + written);
+                }
+            }
+            out.force(false);
+        }
+        return written;
+    }
+
+    private UploadSession snapshot(Session session) {
+        synchronized (session) {
+            List<Integer> missing = new ArrayList<>();
+            for (int chunk = session.received.nextClearBit(0); chunk < session.chunkCount;
+                 chunk = session.received.nextClearBit(chunk + 1)) {
+                missing.add(chunk);
+            }
+            long receivedBytes = (long) session.received.cardinality() * chunkSize;
+            if (session.received.get(session.chunkCount - 1)) {
+                // The last chunk is usually shorter
+                receivedBytes -= (long) session.chunkCount * chunkSize - session.size;
+            }
+            return new UploadSession(session.id, session.document.getUserId(), session.document.getName(),
+                    session.fileName, session.size, chunkSize, session.chunkCount, receivedBytes, missing,
+                    session.expiresAt);
+        }
+    }
+
+    private static final class Session {
+
+        private final String id;
+        private final Document document;
+        private final String fileName;
+        private final Path file;
+        private final long size;
+        private final int chunkCount;
+        private final BitSet received;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private volatile Instant expiresAt;
+        private volatile boolean closed;
+
+        private Session(String id, Document document, String fileName, Path file, long size, int chunkCount) {
+            this.id = id;
+            this.document = document;
+            this.fileName = fileName;
+            this.file = file;
+            this.size = size;
+            this.chunkCount = chunkCount;
+            this.received = new BitSet(chunkCount);
+        }
+
+        private void touch(Duration ttl) {
+            expiresAt = Instant.now().plus(ttl);
+        }
+    }
+}
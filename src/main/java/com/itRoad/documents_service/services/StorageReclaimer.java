@@ -0,0 +1,225 @@
+package com.itRoad.documents_service.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.itRoad.documents_service.dto.PurgeStatus;
+import com.itRoad.documents_service.models.PendingReclaim;
+import com.itRoad.documents_service.repositories.DocumentRepository;
+import com.itRoad.documents_service.repositories.PendingReclaimRepository;
+import com.itRoad.documents_service.storage.StorageBackend;
+import com.itRoad.documents_service.storage.StorageLocks;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Removes the stored files of bulk-deleted documents in the background. Files are handled in
+ * batches - one reference query and one lock acquisition per batch - and paced to a maximum
+ * rate so a large purge does not saturate the disk or the database.
+ * <p>
+ * The files of a purge are queued in the database by the transaction that deletes the documents
+ * and dequeued batch by batch as they are handled, so purges cut short by a restart are resumed
+ * when the application starts again.
+ */
+@Slf4j
+@Service
+public class StorageReclaimer {
+
+    private final DocumentRepository documentRepository;
+    private final StorageBackend storageBackend;
+    private final StorageLocks storageLocks;
+    private final PendingReclaimRepository pendingReclaimRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final int maxFilesPerSecond;
+
+    // Purges run one at a time, in submission order
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(
+            Thread.ofVirtual().name("storage-reclaimer").factory());
+
+    private final Cache<String, PurgeStatus> purges;
+
+    public StorageReclaimer(DocumentRepository documentRepository,
+                            StorageBackend storageBackend,
+                            StorageLocks storageLocks,
+                            PendingReclaimRepository pendingReclaimRepository,
+                            TransactionTemplate transactionTemplate,
+                            @Value("${documents.reclaim.batch-size:100}") int batchSize,
+                            @Value("${documents.reclaim.max-files-per-second:500}") int maxFilesPerSecond,
+                            @Value("${documents.reclaim.status-retention:1h}") Duration statusRetention) {
+        this.documentRepository = documentRepository;
+        this.storageBackend = storageBackend;
+        this.storageLocks = storageLocks;
+        this.pendingReclaimRepository = pendingReclaimRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.maxFilesPerSecond = maxFilesPerSecond;
+        this.purges = Caffeine.newBuilder()
+                .expireAfterWrite(statusRetention)
+                .build();
+    }
+
+    /**
+     * Queue the stored files of deleted documents in the database - must run in the transaction
+     * that deletes them, so the queue is committed exactly when the rows are gone
+     * @param userId The user whose documents are deleted
+     * @param keys Distinct storage keys the deleted rows referenced
+     * @return The ID of the purge, to start it with once the transaction committed
+     */
+    public String enqueue(Long userId, List<String> keys) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Reclaimed files must be queued in the transaction deleting their documents");
+        }
+        String purgeId = UUID.randomUUID().toString();
+        Instant now = Instant.now();
+        pendingReclaimRepository.saveAll(keys.stream()
+                .map(key -> new PendingReclaim(purgeId, key, userId, now))
+                .toList());
+        return purgeId;
+    }
+
+    /**
+     * Start removing the files of a committed purge
+     * @param purgeId The ID returned when the files were queued
+     * @param userId The user whose documents were deleted
+     * @param documentsDeleted Number of deleted rows
+     * @param keys Distinct storage keys the deleted rows referenced
+     * @return The status of the purge, updated as it progresses
+     */
+    public PurgeStatus submit(String purgeId, Long userId, long documentsDeleted, List<String> keys) {
+        PurgeStatus status = new PurgeStatus(purgeId, userId, PurgeStatus.State.QUEUED,
+                documentsDeleted, keys.size(), 0, 0, Instant.now(), null);
+        purges.put(status.getId(), status);
+        worker.execute(() -> run(status, keys));
+        return snapshot(status);
+    }
+
+    /**
+     * Resume the purges whose files were still queued when the application last stopped. Their
+     * statuses keep their IDs; the number of deleted rows is no longer known and reported as 0.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resume() {
+        for (String purgeId : pendingReclaimRepository.findPurgeIds()) {
+            if (purges.getIfPresent(purgeId) != null) {
+                continue;
+            }
+            List<PendingReclaim> pending = pendingReclaimRepository.findByPurgeId(purgeId);
+            if (pending.isEmpty()) {
+                continue;
+            }
+            List<String> keys = new ArrayList<>(pending.size());
+            pending.forEach(entry -> keys.add(entry.getStorageKey()));
+            log.info("Resuming purge {} of user {} with {} files left", purgeId, pending.get(0).getUserId(), keys.size());
+            submit(purgeId, pending.get(0).getUserId(), 0, keys);
+        }
+    }
+
+    /**
+     * Get the progress of a purge
+     * @param id The purge ID
+     * @return A snapshot of its status, or null if unknown or expired
+     */
+    public PurgeStatus getStatus(String id) {
+        PurgeStatus status = purges.getIfPresent(id);
+        return status == null ? null : snapshot(status);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        worker.shutdown();
+        worker.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private void run(PurgeStatus status, List<String> keys) {
+        update(status, s -> s.setState(PurgeStatus.State.RUNNING));
+        long start = System.nanoTime();
+        try {
+            for (int from = 0; from < keys.size(); from += batchSize) {
+                List<String> batch = keys.subList(from, Math.min(from + batchSize, keys.size()));
+                int reclaimed = reclaim(batch);
+                transactionTemplate.executeWithoutResult(tx -> pendingReclaimRepository.deleteHandled(status.getId(), batch));
+                update(status, s -> {
+                    s.setFilesProcessed(s.getFilesProcessed() + batch.size());
+                    s.setFilesReclaimed(s.getFilesReclaimed() + reclaimed);
+                });
+                pace(start, from + batch.size());
+            }
+            update(status, s -> s.setState(PurgeStatus.State.COMPLETED));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Purge {} interrupted after {} of {} files", status.getId(), status.getFilesProcessed(), keys.size());
+            update(status, s -> s.setState(PurgeStatus.State.FAILED));
+        } catch (RuntimeException e) {
+            log.error("Purge {} failed: {}", status.getId(), e.getMessage(), e);
+            update(status, s -> s.setState(PurgeStatus.State.FAILED));
+        } finally {
+            update(status, s -> s.setCompletedAt(Instant.now()));
+        }
+    }
+
+    // Delete the files of a batch that no remaining document references; returns how many were deleted
+    private int reclaim(List<String> keys) {
+        List<ReentrantLock> locks = storageLocks.lockAll(keys);
+        try {
+            Set<String> referenced = new HashSet<>(documentRepository.findReferencedChecksums(keys));
+            int reclaimed = 0;
+            for (String key : keys) {
+                if (referenced.contains(key)) {
+                    continue;
+                }
+                try {
+                    storageBackend.delete(key);
+                    reclaimed++;
+                } catch (IOException e) {
+                    log.warn("Could not reclaim stored file {}: {}", key, e.getMessage());
+                }
+            }
+            return reclaimed;
+        } finally {
+            storageLocks.unlockAll(locks);
+        }
+    }
+
+    // Sleep until the number of files handled so far fits the configured rate
+    private void pace(long startNanos, int processed) throws InterruptedException {
+        long dueNanos = TimeUnit.SECONDS.toNanos(processed) / maxFilesPerSecond;
+        long aheadNanos = dueNanos - (System.nanoTime() - startNanos);
+        if (aheadNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(aheadNanos);
+        }
+    }
+
+    private static void update(PurgeStatus status, Consumer<PurgeStatus> change) {
+        synchronized (status) {
+            change.accept(status);
+        }
+    }
+
+    private static PurgeStatus snapshot(PurgeStatus status) {
+        synchronized (status) {
+            return new PurgeStatus(status.getId(), status.getUserId(), status.getState(), status.getDocumentsDeleted(),
+                    status.getFilesTotal(), status.getFilesProcessed(), status.getFilesReclaimed(),
+                    status.getCreatedAt(), status.getCompletedAt());
+        }
+    }
+}
@@ -0,0 +1,662 @@
+package com.itRoad.documents_service.storage;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local storage keyed by the SHA-256 of the content, so identical uploads share one file.
+ * Blobs live under blobs/ab/cd/abcd..., keeping every directory small. Keys that are not
+ * hashes resolve to the flat files written before content addressing was introduced.
+ * <p>
+ * Content of compressible types is gzipped while it is streamed in and kept as abcd....gz
+ * when that saves enough space; the key and checksum always refer to the uncompressed content.
+ * Whether to try is decided on a compressed sample of the first bytes, so content that is already
+ * compressed inside, like most PDFs, is stored raw in a single pass.
+ * <p>
+ * Size, encoding and mtime of every blob are kept in a {@link StorageIndex}, so looking a blob up
+ * never stats the filesystem. Blobs are added to and removed from the index under its stripe lock,
+ * together with the file operation. An index that was not closed cleanly is rebuilt at startup by
+ * scanning the blob shards in parallel.
+ * <p>
+ * Blobs stored in at most packing.max-size are not given a file of their own but appended to
+ * large segment files by a {@link SegmentStore}, and the index records their segment and offset;
+ * millions of small scans and receipts then cost a few hundred segment files rather than millions
+ * of inodes and directory entries. Larger blobs stay plain files so downloads can use sendfile.
+ * Deleting a packed blob only appends a tombstone; a scheduled compaction copies the live blobs
+ * out of mostly deleted segments and drops them.
+ */
+@Slf4j
+@Component
+public class ContentAddressedStorageBackend implements StorageBackend {
+
+    // Size of the buffer each upload is streamed through
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Pattern HASH_KEY = Pattern.compile("[0-9a-f]{64}");
+
+    private static final String GZIP = "gzip";
+
+    private static final String GZIP_SUFFIX = ".gz";
+
+    // The gzip trailer records the content size modulo 2^32, so larger content is kept uncompressed
+    private static final long MAX_GZIP_CONTENT = 0xFFFFFFFFL;
+
+    // Leading bytes deflated to decide whether compressing the content is worthwhile
+    private static final int COMPRESSION_SAMPLE = 128 * 1024;
+
+    private final Path root;
+    private final Path blobDir;
+    private final Path tempDir;
+    private final Path indexDir;
+    private final Path segmentDir;
+
+    private final boolean compressionEnabled;
+    private final Set<String> compressibleTypes;
+    private final int compressionLevel;
+    private final double minSavings;
+    private final int indexStripes;
+    private final int indexCapacity;
+    private final long packingMaxSize;
+    private final long segmentSize;
+    private final double compactionLiveRatio;
+
+    private StorageIndex index;
+
+    // Null when packing is disabled
+    private SegmentStore segments;
+
+    public ContentAddressedStorageBackend(
+            @Value("${documents.storage.root:uploads}") String root,
+            @Value("${documents.storage.compression.enabled:true}") boolean compressionEnabled,
+            @Value("${documents.storage.compression.types:TXT,CSV,TSV,JSON,XML,HTML,HTM,MD,LOG,SVG,RTF,PDF,DOC,XLS,PPT}")
+            Set<String> compressibleTypes,
+            @Value("${documents.storage.compression.level:6}") int compressionLevel,
+            @Value("${documents.storage.compression.min-savings:0.1}") double minSavings,
+            @Value("${documents.storage.index.stripes:64}") int indexStripes,
+            @Value("${documents.storage.index.initial-capacity:262144}") int indexCapacity,
+            @Value("${documents.storage.packing.max-size:64KB}") DataSize packingMaxSize,
+            @Value("${documents.storage.packing.segment-size:64MB}") DataSize segmentSize,
+            @Value("${documents.storage.packing.compaction-live-ratio:0.5}") double compactionLiveRatio) {
+        this.root = Paths.get(root).toAbsolutePath().normalize();
+        this.blobDir = this.root.resolve("blobs");
+        this.tempDir = this.root.resolve(".tmp");
+        this.indexDir = this.root.resolve(".index");
+        this.segmentDir = this.root.resolve("segments");
+        this.compressionEnabled = compressionEnabled;
+        this.compressibleTypes = compressibleTypes.stream()
+                .map(type -> type.trim().toUpperCase(Locale.ROOT))
+                .collect(Collectors.toUnmodifiableSet());
+        this.compressionLevel = compressionLevel;
+        this.minSavings = minSavings;
+        this.indexStripes = indexStripes;
+        this.indexCapacity = indexCapacity;
+        this.packingMaxSize = packingMaxSize.toBytes();
+        this.segmentSize = segmentSize.toBytes();
+        this.compactionLiveRatio = compactionLiveRatio;
+    }
+
+    // Create the storage directories once instead of on every upload, and load the index
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(blobDir);
+        Files.createDirectories(tempDir);
+        // Segments written while packing was enabled stay readable after it is turned off
+        if (packingMaxSize > 0 || Files.isDirectory(segmentDir)) {
+            segments = new SegmentStore(segmentDir, segmentSize);
+        }
+        index = new StorageIndex(indexDir, indexStripes, indexCapacity);
+        if (!index.isComplete()) {
+            rebuildIndex();
+        }
+        if (segments != null) {
+            index.forEach(entry -> {
+                if (entry.packed()) {
+                    segments.retain(entry.segment(), entry.storedSize());
+                }
+            });
+        }
+    }
+
+    // Mark the index clean so the next start does not rescan the blobs
+    @PreDestroy
+    public void close() throws IOException {
+        index.close();
+        if (segments != null) {
+            segments.close();
+        }
+    }
+
+    /**
+     * Stream the content into a spool, computing its SHA-256 and size in the same pass,
+     * gzipping it on the way for compressible types whose first bytes compress by min-savings and
+     * whose length does not rule gzip out. Compressed output that still does not save min-savings
+     * of the size is decompressed back. If a blob with that hash already exists
+     * the spool is dropped. Otherwise stored bytes that fit in packing.max-size are still in
+     * memory and are appended to the active segment; larger ones were spooled to a temp file,
+     * which is atomically moved into place. Memory use is one fixed-size buffer per upload, plus
+     * at most packing.max-size.
+     */
+    @Override
+    public StoredBlob store(InputStream content, String type, long length) throws IOException {
+        MessageDigest digest = sha256();
+        boolean compress = compressionEnabled && type != null && compressibleTypes.contains(type.toUpperCase(Locale.ROOT))
+                && length <= MAX_GZIP_CONTENT;
+        if (compress) {
+            byte[] sample = content.readNBytes(COMPRESSION_SAMPLE);
+            compress = compressesWell(sample);
+            content = new SequenceInputStream(new ByteArrayInputStream(sample), content);
+        }
+
+        Spool spool = new Spool();
+        Spool rawSpool = null;
+        try {
+            long size = compress ? writeCompressed(content, spool, digest) : writeRaw(content, spool, digest);
+            String encoding = compress ? GZIP : null;
+            if (compress && (spool.size() > size * (1 - minSavings) || size > MAX_GZIP_CONTENT)) {
+                // Not worth keeping compressed
+                rawSpool = new Spool();
+                try (InputStream in = new GZIPInputStream(spool.openInputStream(), BUFFER_SIZE)) {
+                    writeRaw(in, rawSpool, sha256());
+                }
+                encoding = null;
+            }
+
+            String key = HexFormat.of().formatHex(digest.digest());
+            Spool source = rawSpool != null ? rawSpool : spool;
+            boolean gzip = encoding != null;
+            // Small blobs never touch a temp file, so appending them costs a single flush
+            ByteBuffer packed = source.inMemory() && packingMaxSize > 0 ? source.bytes() : null;
+            Path sourceFile = packed == null ? source.toFile() : null;
+            StorageIndex.Entry entry = index.update(key, current -> {
+                if (current != null) {
+                    // Same content already stored - keep the existing blob
+                    return current;
+                }
+                if (packed != null) {
+                    long now = System.currentTimeMillis();
+                    SegmentStore.Location location = segments.append(HexFormat.of().parseHex(key), packed, size, now, gzip);
+                    return new StorageIndex.Entry(size, packed.remaining(), now, gzip, location.segment(), location.offset());
+                }
+                Path target = gzip ? gzipPath(key) : blobPath(key);
+                Files.createDirectories(target.getParent());
+                Files.move(sourceFile, target, StandardCopyOption.ATOMIC_MOVE);
+                BasicFileAttributes attributes = Files.readAttributes(target, BasicFileAttributes.class);
+                return new StorageIndex.Entry(size, attributes.size(), attributes.lastModifiedTime().toMillis(), gzip);
+            });
+            return toBlob(key, entry);
+        } finally {
+            spool.delete();
+            if (rawSpool != null) {
+                rawSpool.delete();
+            }
+        }
+    }
+
+    @Override
+    public StoredBlob stat(String key) throws IOException {
+        Path path = resolve(key);
+        if (path == null) {
+            return null;
+        }
+        if (isHashKey(key)) {
+            return toBlob(key, index.get(key));
+        }
+        // Legacy flat files are not indexed
+        BasicFileAttributes attributes = attributes(path);
+        if (attributes == null) {
+            return null;
+        }
+        return new StoredBlob(key, null, attributes.size(), attributes.lastModifiedTime().toMillis(), null, attributes.size());
+    }
+
+    @Override
+    public Resource load(String key) {
+        Path path = resolve(key);
+        if (path == null) {
+            return null;
+        }
+        if (isHashKey(key)) {
+            StorageIndex.Entry entry = index.get(key);
+            if (entry != null && entry.packed()) {
+                Resource resource = packedResource(key, entry, true);
+                if (resource != null) {
+                    return resource;
+                }
+            } else if (entry != null && entry.gzip()) {
+                return new GzipFileResource(gzipPath(key), entry.size());
+            }
+        }
+        return new FileSystemResource(path);
+    }
+
+    @Override
+    public Resource loadStored(String key) {
+        Path path = resolve(key);
+        if (path == null) {
+            return null;
+        }
+        if (isHashKey(key)) {
+            StorageIndex.Entry entry = index.get(key);
+            if (entry != null && entry.packed()) {
+                Resource resource = packedResource(key, entry, false);
+                if (resource != null) {
+                    return resource;
+                }
+            } else if (entry != null && entry.gzip()) {
+                return new FileSystemResource(gzipPath(key));
+            }
+        }
+        return new FileSystemResource(path);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Path path = resolve(key);
+        if (path == null) {
+            return;
+        }
+        if (!isHashKey(key)) {
+            Files.deleteIfExists(path);
+            return;
+        }
+        index.update(key, current -> {
+            if (current != null && current.packed()) {
+                segments.appendTombstone(HexFormat.of().parseHex(key));
+                segments.release(current.segment(), current.storedSize());
+                return null;
+            }
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(gzipPath(key));
+            return null;
+        });
+    }
+
+    /**
+     * @return Number of content-addressed blobs, packed or not; legacy flat files are not counted
+     */
+    public long blobCount() {
+        return index.size();
+    }
+
+    /**
+     * @return Bytes the blobs take as stored, after compression; packed blobs count their part of
+     *         a segment, not the whole segment
+     */
+    public long storedBytes() {
+        return index.storedBytes();
+    }
+
+    /**
+     * Reclaim the space of deleted packed blobs: every sealed segment whose live blobs fill at most
+     * compaction-live-ratio of it has them appended to the active segment and is retired. Retired
+     * segments are deleted on the next run, so downloads that opened them just before finish first.
+     */
+    @Scheduled(fixedDelayString = "${documents.storage.packing.compaction-interval:10m}",
+            initialDelayString = "${documents.storage.packing.compaction-interval:10m}")
+    public void compactSegments() throws IOException {
+        if (segments == null) {
+            return;
+        }
+        long freed = segments.deleteRetired();
+        if (freed > 0) {
+            log.info("Deleted compacted storage segments, {} bytes freed", freed);
+        }
+        for (int segment : segments.compactionCandidates(compactionLiveRatio)) {
+            compact(segment);
+        }
+    }
+
+    // Move the live blobs of a segment to the active one; each move happens under the blob's stripe lock
+    private void compact(int segment) throws IOException {
+        long start = System.nanoTime();
+        // Tombstones hide blobs of older segments from a rebuild, so they survive until those are gone
+        boolean oldest = segments.isOldest(segment);
+        long[] moved = new long[1];
+        segments.scan(segment, false, record -> {
+            String key = HexFormat.of().formatHex(record.hash());
+            index.update(key, current -> {
+                if (record.tombstone()) {
+                    if (current == null && !oldest) {
+                        segments.appendTombstone(record.hash());
+                    }
+                    return current;
+                }
+                if (current == null || current.segment() != segment || current.offset() != record.offset()) {
+                    // Deleted, or superseded by a later copy
+                    return current;
+                }
+                ByteBuffer stored = segments.read(new SegmentStore.Location(segment, record.offset()), record.length());
+                SegmentStore.Location location = segments.append(record.hash(), stored, current.size(),
+                        current.lastModified(), current.gzip());
+                segments.release(segment, current.storedSize());
+                moved[0]++;
+                return new StorageIndex.Entry(current.size(), current.storedSize(), current.lastModified(),
+                        current.gzip(), location.segment(), location.offset());
+            });
+        });
+        segments.retire(segment);
+        log.info("Compacted storage segment {}: {} live blobs moved in {} ms", segment, moved[0],
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // A packed blob's bytes; a compaction may move them between the lookup and the read, so look again
+    private Resource packedResource(String key, StorageIndex.Entry entry, boolean decompress) {
+        while (entry != null && entry.packed()) {
+            Resource resource = segments.resource(new SegmentStore.Location(entry.segment(), entry.offset()),
+                    entry.storedSize(), entry.lastModified(), decompress && entry.gzip(),
+                    decompress ? entry.size() : entry.storedSize());
+            if (resource != null) {
+                return resource;
+            }
+            entry = index.get(key);
+        }
+        return null;
+    }
+
+    // Repopulate the index from the blob files, one shard directory per task
+    private void rebuildIndex() throws IOException {
+        long start = System.nanoTime();
+        List<Path> shards;
+        try (Stream<Path> listing = Files.list(blobDir)) {
+            shards = listing.filter(Files::isDirectory).toList();
+        }
+        try {
+            shards.parallelStream().forEach(shard -> {
+                try {
+                    Files.walkFileTree(shard, new SimpleFileVisitor<>() {
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                            indexFile(file, attributes);
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (segments != null) {
+            indexSegments();
+        }
+        log.info("Storage index rebuilt with {} blobs in {} ms", index.size(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Replay the segments in order: a later record of a blob replaces an earlier one, a tombstone drops it
+    private void indexSegments() throws IOException {
+        for (int segment : segments.segmentIds()) {
+            segments.scan(segment, true, record -> {
+                String key = HexFormat.of().formatHex(record.hash());
+                if (record.tombstone()) {
+                    index.update(key, current -> current != null && current.packed() ? null : current);
+                } else {
+                    index.put(key, new StorageIndex.Entry(record.size(), record.length(), record.lastModified(),
+                            record.gzip(), segment, record.offset()));
+                }
+            });
+        }
+    }
+
+    private void indexFile(Path file, BasicFileAttributes attributes) throws IOException {
+        String name = file.getFileName().toString();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        if (isHashKey(name)) {
+            index.put(name, new StorageIndex.Entry(attributes.size(), attributes.size(), lastModified, false));
+        } else if (name.endsWith(GZIP_SUFFIX) && isHashKey(name.substring(0, name.length() - GZIP_SUFFIX.length()))) {
+            try {
+                index.put(name.substring(0, name.length() - GZIP_SUFFIX.length()),
+                        new StorageIndex.Entry(gzipContentSize(file), attributes.size(), lastModified, true));
+            } catch (NoSuchFileException e) {
+                // Deleted while scanning
+            }
+        }
+    }
+
+    private static StoredBlob toBlob(String key, StorageIndex.Entry entry) {
+        if (entry == null) {
+            return null;
+        }
+        return new StoredBlob(key, key, entry.size(), entry.lastModified(), entry.gzip() ? GZIP : null, entry.storedSize());
+    }
+
+    // A heap buffer per upload: a direct one would cost a native allocation, freed only by GC, every time
+    private static long writeRaw(InputStream content, Spool out, MessageDigest digest) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+            size += read;
+            digest.update(buffer, 0, read);
+            out.write(ByteBuffer.wrap(buffer, 0, read));
+        }
+        return size;
+    }
+
+    // Whether deflating the sample saves min-savings of it; for content no longer than the sample
+    // this is exact, for longer content the stored result is checked again
+    private boolean compressesWell(byte[] sample) {
+        if (sample.length == 0) {
+            return false;
+        }
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            byte[] scratch = new byte[8192];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(scratch);
+            }
+            return compressed <= sample.length * (1 - minSavings);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private long writeCompressed(InputStream content, Spool spool, MessageDigest digest) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long size = 0;
+        GZIPOutputStream out = new GZIPOutputStream(Channels.newOutputStream(spool), BUFFER_SIZE) {
+            {
+                def.setLevel(compressionLevel);
+            }
+        };
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+            size += read;
+            digest.update(buffer, 0, read);
+            out.write(buffer, 0, read);
+        }
+        out.finish();
+        out.flush();
+        return size;
+    }
+
+    private static BasicFileAttributes attributes(Path path) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return attributes.isRegularFile() ? attributes : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    // Uncompressed size from the last four bytes of the gzip trailer
+    private static long gzipContentSize(Path gzip) throws IOException {
+        try (FileChannel channel = FileChannel.open(gzip, StandardOpenOption.READ)) {
+            ByteBuffer trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(trailer, channel.size() - 4);
+            return Integer.toUnsignedLong(trailer.getInt(0));
+        }
+    }
+
+    // Map a key to its file, or null if the key could point outside the storage root
+    private Path resolve(String key) {
+        if (key == null || key.isEmpty()) {
+            return null;
+        }
+        if (isHashKey(key)) {
+            return blobPath(key);
+        }
+        // Legacy flat file directly under the root
+        Path path = root.resolve(key).normalize();
+        if (!root.equals(path.getParent()) || path.equals(blobDir) || path.equals(tempDir) || path.equals(indexDir)
+                || path.equals(segmentDir)) {
+            return null;
+        }
+        return path;
+    }
+
+    private Path blobPath(String key) {
+        return blobDir.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+
+    private Path gzipPath(String key) {
+        return blobPath(key).resolveSibling(key + GZIP_SUFFIX);
+    }
+
+    private static boolean isHashKey(String key) {
+        return HASH_KEY.matcher(key).matches();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Stored bytes of an upload: kept in memory while they fit in packing.max-size, then moved
+     * to a temp file that takes the rest. The temp file is only flushed when it becomes a blob.
+     */
+    private final class Spool implements WritableByteChannel {
+
+        private ByteBuffer memory = ByteBuffer.allocate((int) Math.min(packingMaxSize, BUFFER_SIZE));
+        private Path file;
+        private FileChannel channel;
+        private long size;
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            int length = source.remaining();
+            size += length;
+            if (channel == null && size <= packingMaxSize) {
+                if (memory.remaining() < length) {
+                    memory = ByteBuffer.allocate((int) Math.min(packingMaxSize, Math.max(size, memory.capacity() * 2L)))
+                            .put(memory.flip());
+                }
+                memory.put(source);
+                return length;
+            }
+            if (channel == null) {
+                spill();
+            }
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+            return length;
+        }
+
+        long size() {
+            return size;
+        }
+
+        boolean inMemory() {
+            return channel == null;
+        }
+
+        // The bytes written, while they are in memory
+        ByteBuffer bytes() {
+            return memory.duplicate().flip();
+        }
+
+        InputStream openInputStream() throws IOException {
+            if (inMemory()) {
+                ByteBuffer bytes = bytes();
+                return new ByteArrayInputStream(bytes.array(), 0, bytes.limit());
+            }
+            return Files.newInputStream(file);
+        }
+
+        // The temp file holding the bytes, flushed to disk
+        Path toFile() throws IOException {
+            if (inMemory()) {
+                spill();
+            }
+            channel.force(false);
+            return file;
+        }
+
+        void delete() throws IOException {
+            close();
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel == null || channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+
+        private void spill() throws IOException {
+            file = Files.createTempFile(tempDir, "upload-", ".part");
+            channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            ByteBuffer buffered = memory.flip();
+            while (buffered.hasRemaining()) {
+                channel.write(buffered);
+            }
+            memory = null;
+        }
+    }
+}
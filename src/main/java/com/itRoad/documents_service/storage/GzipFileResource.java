@@ -0,0 +1,59 @@
+package com.itRoad.documents_service.storage;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+// Decompressed view of a gzip blob, streamed on every read; not a file, so it is never handed to sendfile
+class GzipFileResource extends AbstractResource {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+
+    private final long contentLength;
+
+    GzipFileResource(Path path, long contentLength) {
+        this.path = path;
+        this.contentLength = contentLength;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new GZIPInputStream(Files.newInputStream(path), BUFFER_SIZE);
+    }
+
+    @Override
+    public boolean exists() {
+        return Files.isRegularFile(path);
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        return Files.getLastModifiedTime(path).toMillis();
+    }
+
+    @Override
+    public String getDescription() {
+        return "gzip blob [" + path + "]";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return this == other || (other instanceof GzipFileResource resource && path.equals(resource.path));
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+}
@@ -0,0 +1,498 @@
+package com.itRoad.documents_service.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.AbstractResource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Append-only segment files that pack small blobs together, so storing a receipt or a scan
+ * costs a few hundred bytes at the end of a large file instead of a file, a directory entry and
+ * an inode of its own. Each record is a fixed header - hash, flags, sizes, mtime - followed by
+ * the stored bytes, so segments describe themselves and the index can be rebuilt by scanning
+ * them. Deleting a blob appends a tombstone; the space of deleted records is reclaimed by
+ * compaction, which copies the live records of a mostly dead segment to the end of the active
+ * one and retires it.
+ * <p>
+ * Appends are serialized; reads are positional and share one channel per segment. Retired
+ * segments stay readable until {@link #deleteRetired()} runs again, so streams opened just
+ * before a compaction are not cut off.
+ */
+@Slf4j
+final class SegmentStore implements Closeable {
+
+    /**
+     * Where a record's stored bytes are
+     * @param segment The segment ID, from 1
+     * @param offset Position of the first stored byte in the segment file
+     */
+    record Location(int segment, long offset) {
+    }
+
+    /**
+     * A record found while scanning a segment
+     * @param hash SHA-256 of the content
+     * @param tombstone Whether the record marks the blob deleted
+     * @param gzip Whether the stored bytes are gzip-compressed
+     * @param size Size of the content
+     * @param lastModified When the blob was stored, in epoch milliseconds
+     * @param length Number of stored bytes
+     * @param offset Position of the first stored byte
+     */
+    record Record(byte[] hash, boolean tombstone, boolean gzip, long size, long lastModified, int length, long offset) {
+    }
+
+    @FunctionalInterface
+    interface RecordVisitor {
+        void visit(Record record) throws IOException;
+    }
+
+    private static final Pattern SEGMENT_FILE = Pattern.compile("segment-(\\d{8})\\.dat");
+
+    private static final int MAGIC = 0x5345474D;
+
+    // Record header: magic, flags, padding, content size, mtime, stored length, padding, SHA-256
+    static final int HEADER_SIZE = 64;
+    private static final int FLAGS_OFFSET = 4;
+    private static final int SIZE_OFFSET = 8;
+    private static final int MTIME_OFFSET = 16;
+    private static final int LENGTH_OFFSET = 24;
+    private static final int HASH_OFFSET = 32;
+    private static final int HASH_LENGTH = 32;
+
+    private static final byte FLAG_GZIP = 1;
+    private static final byte FLAG_TOMBSTONE = 2;
+
+    private final Path directory;
+    private final long segmentSize;
+
+    private final Map<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final List<Segment> retired = new ArrayList<>();
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    // Segment appends go to - guarded by appendLock
+    private Segment active;
+
+    /**
+     * Open the segments of a directory; appends continue at the end of the last one
+     * @param directory Directory of the segment files
+     * @param segmentSize Size at which a segment is sealed and a new one started
+     */
+    SegmentStore(Path directory, long segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.dat")) {
+            for (Path file : files) {
+                Matcher name = SEGMENT_FILE.matcher(file.getFileName().toString());
+                if (name.matches()) {
+                    Segment segment = new Segment(Integer.parseInt(name.group(1)), file);
+                    segments.put(segment.id, segment);
+                }
+            }
+        }
+        active = segments.isEmpty() ? null : ((ConcurrentSkipListMap<Integer, Segment>) segments).lastEntry().getValue();
+    }
+
+    /**
+     * Append the stored bytes of a blob and flush them to disk
+     * @param hash SHA-256 of the content
+     * @param stored The stored bytes, from position to limit
+     * @param size Size of the content
+     * @param lastModified Recorded as the blob's mtime
+     * @param gzip Whether the stored bytes are gzip-compressed
+     * @return Where the stored bytes were written
+     */
+    Location append(byte[] hash, ByteBuffer stored, long size, long lastModified, boolean gzip) throws IOException {
+        ByteBuffer record = header(hash, gzip ? FLAG_GZIP : 0, size, lastModified, stored.remaining());
+        appendLock.lock();
+        try {
+            Segment segment = activeFor(HEADER_SIZE + stored.remaining());
+            long position = segment.size;
+            write(segment, record, position);
+            write(segment, stored.duplicate(), position + HEADER_SIZE);
+            segment.channel.force(false);
+            segment.size = position + HEADER_SIZE + stored.remaining();
+            segment.liveBytes.addAndGet(HEADER_SIZE + stored.remaining());
+            return new Location(segment.id, position + HEADER_SIZE);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Mark a blob deleted, so scanning the segments does not bring it back. Not flushed: a lost
+     * tombstone only leaves an unreferenced blob behind.
+     * @param hash SHA-256 of the content
+     */
+    void appendTombstone(byte[] hash) throws IOException {
+        ByteBuffer record = header(hash, FLAG_TOMBSTONE, 0, System.currentTimeMillis(), 0);
+        appendLock.lock();
+        try {
+            Segment segment = activeFor(HEADER_SIZE);
+            write(segment, record, segment.size);
+            segment.size += HEADER_SIZE;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Account for a record that is no longer referenced, making its segment a compaction candidate
+     * @param segment The segment of the record
+     * @param length Number of stored bytes of the record
+     */
+    void release(int segment, long length) {
+        Segment released = segments.get(segment);
+        if (released != null) {
+            released.liveBytes.addAndGet(-(HEADER_SIZE + length));
+        }
+    }
+
+    /**
+     * Account for a live record found in the index at startup
+     */
+    void retain(int segment, long length) {
+        Segment retained = segments.get(segment);
+        if (retained != null) {
+            retained.liveBytes.addAndGet(HEADER_SIZE + length);
+        }
+    }
+
+    /**
+     * Read the stored bytes of a record
+     * @param location Where they are
+     * @param length How many there are
+     * @return The bytes
+     */
+    ByteBuffer read(Location location, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        readFully(segment(location.segment()).channel, bytes, location.offset());
+        return bytes.flip();
+    }
+
+    /**
+     * Get a readable handle on the bytes of a record
+     * @param location Where the stored bytes are
+     * @param length Number of stored bytes
+     * @param lastModified Reported as the resource's mtime
+     * @param decompress Whether to gunzip the stored bytes
+     * @param contentLength Length of what the resource yields - the content size when decompressing
+     * @return The resource, or null if the segment was compacted away in the meantime
+     */
+    Resource resource(Location location, long length, long lastModified, boolean decompress, long contentLength) {
+        Segment segment = segments.get(location.segment());
+        if (segment == null) {
+            return null;
+        }
+        return new Resource(segment, location.offset(), length, lastModified, decompress, contentLength);
+    }
+
+    /**
+     * Visit the records of a segment in order. A record cut short by a crash ends the scan; the
+     * segment is truncated before it if truncate is set.
+     * @param segment The segment ID
+     * @param truncate Whether to cut off a torn record at the end
+     * @param visitor Called for every complete record
+     */
+    void scan(int segment, boolean truncate, RecordVisitor visitor) throws IOException {
+        Segment scanned = segment(segment);
+        long end = scanned.channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE <= end) {
+            header.clear();
+            readFully(scanned.channel, header, position);
+            int length = header.getInt(LENGTH_OFFSET);
+            if (header.getInt(0) != MAGIC || length < 0 || position + HEADER_SIZE + length > end) {
+                break;
+            }
+            byte[] hash = new byte[HASH_LENGTH];
+            header.get(HASH_OFFSET, hash);
+            byte flags = header.get(FLAGS_OFFSET);
+            visitor.visit(new Record(hash, (flags & FLAG_TOMBSTONE) != 0, (flags & FLAG_GZIP) != 0,
+                    header.getLong(SIZE_OFFSET), header.getLong(MTIME_OFFSET), length, position + HEADER_SIZE));
+            position += HEADER_SIZE + length;
+        }
+        if (position < end && truncate) {
+            log.warn("Truncating torn record at {} of segment {}", position, scanned.file.getFileName());
+            appendLock.lock();
+            try {
+                scanned.channel.truncate(position);
+                scanned.size = position;
+            } finally {
+                appendLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return IDs of all segments, oldest first
+     */
+    List<Integer> segmentIds() {
+        return List.copyOf(segments.keySet());
+    }
+
+    /**
+     * Sealed segments whose live records take at most the given share of the file
+     * @param maxLiveRatio Live bytes over file size at or below which a segment is worth compacting
+     * @return Their IDs, oldest first
+     */
+    List<Integer> compactionCandidates(double maxLiveRatio) {
+        appendLock.lock();
+        try {
+            List<Integer> candidates = new ArrayList<>();
+            for (Segment segment : segments.values()) {
+                if (segment != active && segment.size > 0 && segment.liveBytes.get() <= segment.size * maxLiveRatio) {
+                    candidates.add(segment.id);
+                }
+            }
+            return candidates;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * @return Whether no segment older than this one remains - its tombstones then have nothing left to hide
+     */
+    boolean isOldest(int segment) {
+        return segments.keySet().stream().allMatch(id -> id >= segment);
+    }
+
+    /**
+     * Take a compacted segment out of use; its file is deleted on the next {@link #deleteRetired()}
+     */
+    void retire(int segment) {
+        Segment removed = segments.remove(segment);
+        if (removed != null) {
+            synchronized (retired) {
+                retired.add(removed);
+            }
+        }
+    }
+
+    /**
+     * Delete the files of segments retired before the previous call
+     * @return Number of bytes freed
+     */
+    long deleteRetired() throws IOException {
+        List<Segment> deleting;
+        synchronized (retired) {
+            deleting = List.copyOf(retired);
+            retired.clear();
+        }
+        long freed = 0;
+        for (Segment segment : deleting) {
+            freed += segment.size;
+            segment.channel.close();
+            Files.deleteIfExists(segment.file);
+        }
+        return freed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        appendLock.lock();
+        try {
+            for (Segment segment : segments.values()) {
+                if (segment.channel.isOpen()) {
+                    segment.channel.force(false);
+                    segment.channel.close();
+                }
+            }
+            deleteRetired();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // Segment with room for a record, starting a new one when the active one is full
+    private Segment activeFor(long recordSize) throws IOException {
+        if (active == null || (active.size > 0 && active.size + recordSize > segmentSize)) {
+            int id = active == null ? 1 : active.id + 1;
+            Segment segment = new Segment(id, directory.resolve(String.format("segment-%08d.dat", id)));
+            segments.put(id, segment);
+            active = segment;
+        }
+        return active;
+    }
+
+    private Segment segment(int id) throws IOException {
+        Segment segment = segments.get(id);
+        if (segment == null) {
+            throw new IOException("Storage segment " + id + " does not exist");
+        }
+        return segment;
+    }
+
+    private static ByteBuffer header(byte[] hash, byte flags, long size, long lastModified, int length) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(0, MAGIC);
+        header.put(FLAGS_OFFSET, flags);
+        header.putLong(SIZE_OFFSET, size);
+        header.putLong(MTIME_OFFSET, lastModified);
+        header.putInt(LENGTH_OFFSET, length);
+        header.put(HASH_OFFSET, hash);
+        return header;
+    }
+
+    private static void write(Segment segment, ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            position += segment.channel.write(bytes, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer into, long position) throws IOException {
+        while (into.hasRemaining()) {
+            int read = channel.read(into, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of storage segment");
+            }
+            position += read;
+        }
+    }
+
+    private static final class Segment {
+
+        private final int id;
+        private final Path file;
+        private final FileChannel channel;
+        private final AtomicLong liveBytes = new AtomicLong();
+
+        // End of the last record - written under appendLock
+        private volatile long size;
+
+        private Segment(int id, Path file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+    }
+
+    /**
+     * The bytes of one record, read with positional reads on the segment's shared channel.
+     * Not a file, so it is never handed to sendfile.
+     */
+    static final class Resource extends AbstractResource {
+
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        private final Segment segment;
+        private final long offset;
+        private final long length;
+        private final long lastModified;
+        private final boolean decompress;
+        private final long contentLength;
+
+        private Resource(Segment segment, long offset, long length, long lastModified, boolean decompress,
+                         long contentLength) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.decompress = decompress;
+            this.contentLength = contentLength;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            InputStream stored = new RecordInputStream(segment.channel, offset, offset + length);
+            return decompress ? new GZIPInputStream(stored, BUFFER_SIZE) : stored;
+        }
+
+        @Override
+        public boolean exists() {
+            return segment.channel.isOpen();
+        }
+
+        @Override
+        public long contentLength() {
+            return contentLength;
+        }
+
+        @Override
+        public long lastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public String getDescription() {
+            return "packed blob [" + segment.file + " @ " + offset + "]";
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return this == other || (other instanceof Resource resource && segment == resource.segment
+                    && offset == resource.offset && decompress == resource.decompress);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(offset) * 31 + segment.id;
+        }
+    }
+
+    // Reads a byte range of a channel without moving its position, so streams can share it
+    private static final class RecordInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        private RecordInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int read = channel.read(ByteBuffer.wrap(bytes, off, (int) Math.min(len, end - position)), position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of storage segment");
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.itRoad.documents_service.storage;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Storage for document file content, addressed by an opaque key.
+ * Implementations must be safe for concurrent use.
+ */
+public interface StorageBackend {
+
+    /**
+     * Store the given content and return the key it can be loaded with
+     * @param content The content to store, read to the end but not closed
+     * @param type The document type (upper-cased file extension) - lets the backend decide
+     *             whether compressing the content is worthwhile; may be null
+     * @param length The length of the content if known up front, or -1
+     * @return The stored blob
+     */
+    StoredBlob store(InputStream content, String type, long length) throws IOException;
+
+    /**
+     * Store the given content of unknown length
+     * @param content The content to store, read to the end but not closed
+     * @param type The document type, may be null
+     * @return The stored blob
+     */
+    default StoredBlob store(InputStream content, String type) throws IOException {
+        return store(content, type, -1);
+    }
+
+    /**
+     * Store the given content without a type hint
+     * @param content The content to store, read to the end but not closed
+     * @return The stored blob
+     */
+    default StoredBlob store(InputStream content) throws IOException {
+        return store(content, null);
+    }
+
+    /**
+     * Look up a stored blob without opening it
+     * @param key The blob key
+     * @return The stored blob, or null if no content is stored under the key
+     */
+    StoredBlob stat(String key) throws IOException;
+
+    /**
+     * Get a readable handle on the content of a stored blob, decompressed if needed
+     * @param key The blob key
+     * @return The blob content, or null if the key is not valid for this backend
+     */
+    Resource load(String key);
+
+    /**
+     * Get a readable handle on the bytes of a blob as stored, in the blob's encoding
+     * @param key The blob key
+     * @return The stored bytes, or null if the key is not valid for this backend
+     */
+    Resource loadStored(String key);
+
+    /**
+     * Remove a stored blob if it exists
+     * @param key The blob key
+     */
+    void delete(String key) throws IOException;
+}
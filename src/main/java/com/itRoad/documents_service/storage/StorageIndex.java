@@ -0,0 +1,513 @@
+package com.itRoad.documents_service.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HexFormat;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index of the content-addressed blobs - hash to size, stored size, encoding, mtime and, for blobs
+ * packed into segments, their location - so
+ * lookups never touch filesystem metadata. The index is split into stripes by hash, each an
+ * open-addressing hash table in a memory-mapped file of its own and guarded by its own
+ * read/write lock; a stripe doubles its file when it gets too full.
+ * <p>
+ * Every stripe file carries a clean flag that is cleared while the index is open and set on
+ * {@link #close()}. If any stripe was not closed cleanly, {@link #isComplete()} is false and the
+ * owner must repopulate the index from the files on disk.
+ */
+final class StorageIndex implements Closeable {
+
+    /**
+     * What the index knows about one blob
+     * @param size Size of the content
+     * @param storedSize Size of the file on disk
+     * @param lastModified Modification time of the file, in epoch milliseconds
+     * @param gzip Whether the file is gzip-compressed
+     * @param segment Segment the blob is packed in, or 0 if it is a file of its own
+     * @param offset Position of the stored bytes in the segment
+     */
+    record Entry(long size, long storedSize, long lastModified, boolean gzip, int segment, long offset) {
+
+        // A blob stored as a file of its own
+        Entry(long size, long storedSize, long lastModified, boolean gzip) {
+            this(size, storedSize, lastModified, gzip, 0, 0);
+        }
+
+        boolean packed() {
+            return segment != 0;
+        }
+    }
+
+    /**
+     * Visitor of every entry, see {@link #forEach(Visitor)}
+     */
+    @FunctionalInterface
+    interface Visitor {
+        void visit(Entry entry);
+    }
+
+    /**
+     * Change to the entry of one hash, applied under its stripe's write lock
+     */
+    @FunctionalInterface
+    interface Update {
+        /**
+         * @param current The current entry, or null if there is none
+         * @return The new entry, or null to remove it
+         */
+        Entry apply(Entry current) throws IOException;
+    }
+
+    private static final int MAGIC = 0x44534958;
+    // Version 2 added the segment location, version 3 the stripe count; older files are rebuilt
+    private static final int VERSION = 3;
+
+    private static final Pattern STRIPE_FILE = Pattern.compile("stripe-(\\d{3,})\\.idx");
+
+    // Header: magic, version, capacity, count, clean flag, stripe count
+    private static final int HEADER_SIZE = 64;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int COUNT_OFFSET = 12;
+    private static final int CLEAN_OFFSET = 16;
+    private static final int STRIPES_OFFSET = 20;
+
+    // Slot: used flag, gzip flag, padding, size, stored size, mtime, SHA-256, segment, padding, offset
+    private static final int SLOT_SIZE = 80;
+    private static final int FLAGS_OFFSET = 1;
+    private static final int SIZE_OFFSET = 8;
+    private static final int STORED_SIZE_OFFSET = 16;
+    private static final int MTIME_OFFSET = 24;
+    private static final int HASH_OFFSET = 32;
+    private static final int HASH_LENGTH = 32;
+    private static final int SEGMENT_OFFSET = 64;
+    private static final int OFFSET_OFFSET = 72;
+
+    private static final double MAX_LOAD = 0.75;
+
+    private final Stripe[] stripes;
+    private final boolean complete;
+
+    /**
+     * Open the index in a directory, creating empty stripe files where none exist
+     * @param directory Directory of the stripe files
+     * @param stripeCount Number of stripes, i.e. of independent locks
+     * @param initialCapacity Total number of slots of new stripe files, spread over the stripes
+     */
+    StorageIndex(Path directory, int stripeCount, int initialCapacity) throws IOException {
+        Files.createDirectories(directory);
+        int stripeCapacity = Integer.highestOneBit(Math.max(16, initialCapacity / stripeCount - 1) * 2);
+        this.stripes = new Stripe[stripeCount];
+        // Blobs are spread over the stripes by hash, so a table written with another stripe count
+        // does not hold the blobs it would now be asked for
+        boolean allClean = !removeExtraStripes(directory, stripeCount);
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(directory.resolve(String.format("stripe-%03d.idx", i)), stripeCount);
+            allClean &= stripes[i].open(stripeCapacity);
+        }
+        if (!allClean) {
+            for (Stripe stripe : stripes) {
+                stripe.reset(stripeCapacity);
+            }
+        }
+        this.complete = allClean;
+    }
+
+    // Delete stripe files left by a configuration with more stripes; returns whether there were any
+    private static boolean removeExtraStripes(Path directory, int stripeCount) throws IOException {
+        boolean removed = false;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "stripe-*.idx")) {
+            for (Path file : files) {
+                Matcher name = STRIPE_FILE.matcher(file.getFileName().toString());
+                if (name.matches() && Integer.parseInt(name.group(1)) >= stripeCount) {
+                    Files.delete(file);
+                    removed = true;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return Whether the index was loaded from a clean shutdown; if not it starts empty
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Look up a blob
+     * @param key The blob key, a hex SHA-256
+     * @return The entry, or null if the blob is not in the index
+     */
+    Entry get(String key) {
+        byte[] hash = HexFormat.of().parseHex(key);
+        Stripe stripe = stripeOf(hash);
+        stripe.lock.readLock().lock();
+        try {
+            int slot = stripe.find(hash);
+            return slot < 0 ? null : stripe.entry(slot);
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replace the entry of a blob. The update runs under the stripe's write lock, so file
+     * operations done inside it are atomic with the index change for lookups of the same key.
+     * @param key The blob key, a hex SHA-256
+     * @param update Computes the new entry from the current one
+     * @return The new entry, or null if it was removed
+     */
+    Entry update(String key, Update update) throws IOException {
+        byte[] hash = HexFormat.of().parseHex(key);
+        Stripe stripe = stripeOf(hash);
+        stripe.lock.writeLock().lock();
+        try {
+            int slot = stripe.find(hash);
+            Entry current = slot < 0 ? null : stripe.entry(slot);
+            Entry next = update.apply(current);
+            if (next != null) {
+                stripe.put(hash, slot, next);
+            } else if (slot >= 0) {
+                stripe.remove(slot);
+            }
+            return next;
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Record a blob found on disk, e.g. while repopulating the index
+     */
+    void put(String key, Entry entry) throws IOException {
+        update(key, current -> entry);
+    }
+
+    /**
+     * @return Number of blobs in the index
+     */
+    long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                size += stripe.count;
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return Bytes the indexed blobs take on disk, counting packed blobs by their part of a segment
+     */
+    long storedBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                bytes += stripe.storedBytes;
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Visit every entry, one stripe at a time under its read lock
+     * @param visitor Called for every entry; must not call back into the index
+     */
+    void forEach(Visitor visitor) {
+        for (Stripe stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                for (int slot = 0; slot < stripe.capacity; slot++) {
+                    if (stripe.used(slot)) {
+                        visitor.visit(stripe.entry(slot));
+                    }
+                }
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Flush every stripe to disk and mark it clean, so the next start can use it as is
+     */
+    @Override
+    public void close() throws IOException {
+        for (Stripe stripe : stripes) {
+            stripe.lock.writeLock().lock();
+            try {
+                stripe.close();
+            } finally {
+                stripe.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    // SHA-256 is uniform, so the first bytes pick the stripe and later ones the home slot
+    private Stripe stripeOf(byte[] hash) {
+        int prefix = (hash[0] & 0xFF) << 8 | hash[1] & 0xFF;
+        return stripes[prefix % stripes.length];
+    }
+
+    private static int homeSlot(byte[] hash, int capacity) {
+        long bits = 0;
+        for (int i = 8; i < 16; i++) {
+            bits = bits << 8 | hash[i] & 0xFF;
+        }
+        return (int) (bits & (capacity - 1));
+    }
+
+    /**
+     * One hash table with linear probing in a memory-mapped file. All access happens under the lock.
+     */
+    private static final class Stripe {
+
+        private final Path file;
+        private final int stripeCount;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private FileChannel channel;
+        private MappedByteBuffer buffer;
+        private int capacity;
+        private int count;
+        // Not kept in the file; summed over the slots when a table is opened
+        private long storedBytes;
+
+        private Stripe(Path file, int stripeCount) {
+            this.file = file;
+            this.stripeCount = stripeCount;
+        }
+
+        // Map the stripe file; returns whether it holds a cleanly closed table
+        private boolean open(int initialCapacity) throws IOException {
+            if (Files.exists(file) && Files.size(file) >= HEADER_SIZE) {
+                map(FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+                int storedCapacity = buffer.getInt(CAPACITY_OFFSET);
+                boolean valid = buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+                        && buffer.getInt(STRIPES_OFFSET) == stripeCount
+                        && Integer.bitCount(storedCapacity) == 1
+                        && channel.size() == HEADER_SIZE + (long) storedCapacity * SLOT_SIZE;
+                if (valid) {
+                    capacity = storedCapacity;
+                    count = buffer.getInt(COUNT_OFFSET);
+                    storedBytes = 0;
+                    for (int slot = 0; slot < capacity; slot++) {
+                        if (used(slot)) {
+                            storedBytes += storedSize(slot);
+                        }
+                    }
+                    boolean clean = buffer.getInt(CLEAN_OFFSET) == 1;
+                    markDirty();
+                    return clean;
+                }
+                channel.close();
+            }
+            reset(initialCapacity);
+            return false;
+        }
+
+        // Replace the stripe with an empty table
+        private void reset(int newCapacity) throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+            Path temp = create(file.resolveSibling(file.getFileName() + ".tmp"), newCapacity, stripeCount);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            map(FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            capacity = newCapacity;
+            count = 0;
+            storedBytes = 0;
+        }
+
+        private int find(byte[] hash) {
+            int mask = capacity - 1;
+            for (int slot = homeSlot(hash, capacity); ; slot = (slot + 1) & mask) {
+                if (!used(slot)) {
+                    return -1;
+                }
+                if (hashEquals(slot, hash)) {
+                    return slot;
+                }
+            }
+        }
+
+        private void put(byte[] hash, int slot, Entry entry) throws IOException {
+            if (slot < 0) {
+                if (count + 1 > capacity * MAX_LOAD) {
+                    grow();
+                }
+                int mask = capacity - 1;
+                slot = homeSlot(hash, capacity);
+                while (used(slot)) {
+                    slot = (slot + 1) & mask;
+                }
+                count++;
+                buffer.putInt(COUNT_OFFSET, count);
+            } else {
+                storedBytes -= storedSize(slot);
+            }
+            storedBytes += entry.storedSize();
+            write(slot, hash, entry);
+        }
+
+        // Backward-shift deletion: later entries of the probe run move up so lookups need no tombstones
+        private void remove(int slot) {
+            storedBytes -= storedSize(slot);
+            int mask = capacity - 1;
+            int hole = slot;
+            for (int next = (hole + 1) & mask; used(next); next = (next + 1) & mask) {
+                int home = homeSlot(hash(next), capacity);
+                boolean staysBehindHole = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+                if (!staysBehindHole) {
+                    copy(next, hole);
+                    hole = next;
+                }
+            }
+            clear(hole);
+            count--;
+            buffer.putInt(COUNT_OFFSET, count);
+        }
+
+        // Rehash into a file of twice the capacity and swap it in
+        private void grow() throws IOException {
+            int newCapacity = capacity * 2;
+            if ((long) newCapacity * SLOT_SIZE > Integer.MAX_VALUE - HEADER_SIZE) {
+                throw new IOException("Storage index stripe " + file.getFileName() + " is full, configure more stripes");
+            }
+            Path temp = create(file.resolveSibling(file.getFileName() + ".tmp"), newCapacity, stripeCount);
+            try (FileChannel target = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer grown = target.map(FileChannel.MapMode.READ_WRITE, 0, target.size());
+                grown.order(ByteOrder.LITTLE_ENDIAN);
+                int mask = newCapacity - 1;
+                for (int slot = 0; slot < capacity; slot++) {
+                    if (!used(slot)) {
+                        continue;
+                    }
+                    byte[] hash = hash(slot);
+                    int to = homeSlot(hash, newCapacity);
+                    while (grown.get(HEADER_SIZE + to * SLOT_SIZE) != 0) {
+                        to = (to + 1) & mask;
+                    }
+                    grown.put(HEADER_SIZE + to * SLOT_SIZE, buffer, HEADER_SIZE + slot * SLOT_SIZE, SLOT_SIZE);
+                }
+                grown.putInt(COUNT_OFFSET, count);
+                grown.force();
+            }
+            channel.close();
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            map(FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            capacity = newCapacity;
+        }
+
+        private void close() throws IOException {
+            if (channel == null || !channel.isOpen()) {
+                return;
+            }
+            buffer.force();
+            buffer.putInt(CLEAN_OFFSET, 1);
+            buffer.force();
+            channel.close();
+        }
+
+        private void map(FileChannel opened) throws IOException {
+            channel = opened;
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        // Cleared on disk before the first change, so a crash leaves the stripe marked for rebuilding
+        private void markDirty() {
+            buffer.putInt(CLEAN_OFFSET, 0);
+            buffer.force(CLEAN_OFFSET, 4);
+        }
+
+        // Write an empty table of the given capacity, marked dirty as it is about to be used
+        private static Path create(Path path, int capacity, int stripeCount) throws IOException {
+            try (FileChannel created = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer header = created.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(0, MAGIC);
+                header.putInt(4, VERSION);
+                header.putInt(CAPACITY_OFFSET, capacity);
+                header.putInt(COUNT_OFFSET, 0);
+                header.putInt(CLEAN_OFFSET, 0);
+                header.putInt(STRIPES_OFFSET, stripeCount);
+                header.force();
+            }
+            return path;
+        }
+
+        private boolean used(int slot) {
+            return buffer.get(HEADER_SIZE + slot * SLOT_SIZE) != 0;
+        }
+
+        private boolean hashEquals(int slot, byte[] hash) {
+            int base = HEADER_SIZE + slot * SLOT_SIZE + HASH_OFFSET;
+            for (int i = 0; i < HASH_LENGTH; i++) {
+                if (buffer.get(base + i) != hash[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private byte[] hash(int slot) {
+            byte[] hash = new byte[HASH_LENGTH];
+            buffer.get(HEADER_SIZE + slot * SLOT_SIZE + HASH_OFFSET, hash);
+            return hash;
+        }
+
+        private long storedSize(int slot) {
+            return buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE + STORED_SIZE_OFFSET);
+        }
+
+        private Entry entry(int slot) {
+            int base = HEADER_SIZE + slot * SLOT_SIZE;
+            return new Entry(buffer.getLong(base + SIZE_OFFSET), buffer.getLong(base + STORED_SIZE_OFFSET),
+                    buffer.getLong(base + MTIME_OFFSET), buffer.get(base + FLAGS_OFFSET) != 0,
+                    buffer.getInt(base + SEGMENT_OFFSET), buffer.getLong(base + OFFSET_OFFSET));
+        }
+
+        private void write(int slot, byte[] hash, Entry entry) {
+            int base = HEADER_SIZE + slot * SLOT_SIZE;
+            buffer.put(base + HASH_OFFSET, hash);
+            buffer.putLong(base + SIZE_OFFSET, entry.size());
+            buffer.putLong(base + STORED_SIZE_OFFSET, entry.storedSize());
+            buffer.putLong(base + MTIME_OFFSET, entry.lastModified());
+            buffer.put(base + FLAGS_OFFSET, (byte) (entry.gzip() ? 1 : 0));
+            buffer.putInt(base + SEGMENT_OFFSET, entry.segment());
+            buffer.putLong(base + OFFSET_OFFSET, entry.offset());
+            buffer.put(base, (byte) 1);
+        }
+
+        private void copy(int from, int to) {
+            buffer.put(HEADER_SIZE + to * SLOT_SIZE, buffer, HEADER_SIZE + from * SLOT_SIZE, SLOT_SIZE);
+        }
+
+        private void clear(int slot) {
+            int base = HEADER_SIZE + slot * SLOT_SIZE;
+            for (int i = 0; i < SLOT_SIZE; i += 8) {
+                buffer.putLong(base + i, 0);
+            }
+        }
+    }
+}
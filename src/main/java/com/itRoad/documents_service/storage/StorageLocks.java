@@ -0,0 +1,62 @@
+package com.itRoad.documents_service.storage;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks per storage key. They serialize "blob still stored + insert row" against
+ * "no rows left + delete blob", so a document never ends up referencing reclaimed content.
+ */
+@Component
+public class StorageLocks {
+
+    private static final int STRIPES = 64;
+
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    public StorageLocks() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Lock the stripe of a single key
+     * @param key The storage key
+     * @return The acquired lock, to be unlocked by the caller
+     */
+    public ReentrantLock lock(String key) {
+        ReentrantLock lock = locks[stripe(key)];
+        lock.lock();
+        return lock;
+    }
+
+    /**
+     * Lock the stripes of several keys, always in stripe order so concurrent callers cannot deadlock
+     * @param keys The storage keys
+     * @return The acquired locks, to be released with {@link #unlockAll(List)}
+     */
+    public List<ReentrantLock> lockAll(Collection<String> keys) {
+        List<ReentrantLock> acquired = keys.stream()
+                .mapToInt(StorageLocks::stripe)
+                .distinct()
+                .sorted()
+                .mapToObj(stripe -> locks[stripe])
+                .toList();
+        acquired.forEach(ReentrantLock::lock);
+        return acquired;
+    }
+
+    public void unlockAll(List<ReentrantLock> acquired) {
+        for (int i = acquired.size() - 1; i >= 0; i--) {
+            acquired.get(i).unlock();
+        }
+    }
+
+    private static int stripe(String key) {
+        return Math.floorMod(key.hashCode(), STRIPES);
+    }
+}
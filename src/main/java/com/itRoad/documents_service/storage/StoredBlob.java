@@ -0,0 +1,25 @@
+package com.itRoad.documents_service.storage;
+
+import lombok.Value;
+
+@Value
+public class StoredBlob {
+
+    // Key the blob is stored under
+    String key;
+
+    // SHA-256 of the content, hex encoded - null for legacy files stored before hashing
+    String checksum;
+
+    // Size of the content in bytes
+    long size;
+
+    // Last modification time in epoch milliseconds
+    long lastModified;
+
+    // Content coding of the stored bytes ("gzip"), or null if stored as is
+    String encoding;
+
+    // Size of the stored bytes - smaller than size when compressed
+    long storedSize;
+}
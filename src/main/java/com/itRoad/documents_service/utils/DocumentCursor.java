@@ -0,0 +1,49 @@
+package com.itRoad.documents_service.utils;
+
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Position in a listing ordered by (date DESC, id DESC), encoded as an opaque URL-safe string.
+ * Pages are fetched by seeking past the position instead of using OFFSET,
+ * so every page costs the same regardless of how deep it is.
+ */
+@Value
+public class DocumentCursor {
+
+    // Position before the first row - later than any stored date and id
+    public static final DocumentCursor START = new DocumentCursor(LocalDate.of(9999, 12, 31), Long.MAX_VALUE);
+
+    LocalDate date;
+
+    Long id;
+
+    public String encode() {
+        String raw = date + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a cursor received from a client
+     * @param cursor The encoded cursor, or null/blank for the first page
+     * @return The decoded position
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public static DocumentCursor decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return START;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(':');
+            return new DocumentCursor(LocalDate.parse(raw.substring(0, separator)),
+                    Long.parseLong(raw.substring(separator + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.itRoad.documents_service.utils;
+
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Strong ETag of a response built from a user's documents: the resource, the owning user and the
+ * version of the user's documents at the time of the response - the head of their change feed,
+ * which every write to them moves on whichever instance makes it. The heads are kept in memory, so
+ * an If-None-Match carrying the current version is answered with 304 without a query, and tags stay
+ * valid across instances. Carrying the owner lets a request for a single document be validated
+ * without looking up who owns it. A count is versioned by its own value.
+ */
+@Value
+public class DocumentETag {
+
+    // Tags read from one If-None-Match header; the rest are ignored
+    private static final int MAX_TAGS = 32;
+
+    // Owners whose version is looked up for one request; a document has one, so more are not genuine
+    private static final int MAX_OWNERS = 4;
+
+    // What the response holds, e.g. "pages", "count" or "d42" - tags of other resources never match
+    String resource;
+
+    Long userId;
+
+    long version;
+
+    public String format() {
+        return "\"" + resource + "." + userId + "." + Long.toString(version, 36) + "\"";
+    }
+
+    /**
+     * Whether an If-None-Match header lists this tag (compared weakly, as If-None-Match requires)
+     * @param ifNoneMatch The header value, or null
+     * @return true if the client's copy is current
+     */
+    public boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        return ifNoneMatch.trim().equals("*") || parseAll(ifNoneMatch).contains(this);
+    }
+
+    /**
+     * Find a tag of a resource in an If-None-Match header that carries the current version of its
+     * owner's documents. Each owner's version is looked up once, for at most a few owners.
+     * @param ifNoneMatch The header value, or null
+     * @param resource The resource, e.g. "d42"
+     * @param versionOf Reads the current version of a user's documents
+     * @return The current tag, or null if the client has none
+     */
+    public static DocumentETag findCurrent(String ifNoneMatch, String resource, ToLongFunction<Long> versionOf) {
+        Map<Long, Long> versions = new HashMap<>();
+        for (DocumentETag tag : parseAll(ifNoneMatch)) {
+            if (!tag.resource.equals(resource)
+                    || (!versions.containsKey(tag.userId) && versions.size() == MAX_OWNERS)) {
+                continue;
+            }
+            long version = versions.computeIfAbsent(tag.userId, versionOf::applyAsLong);
+            if (tag.version == version) {
+                return tag;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parse the first {@value #MAX_TAGS} tags of an If-None-Match header, skipping those not issued
+     * by {@link #format()}
+     * @param ifNoneMatch The header value, or null
+     * @return The tags
+     */
+    public static List<DocumentETag> parseAll(String ifNoneMatch) {
+        List<DocumentETag> tags = new ArrayList<>();
+        if (ifNoneMatch == null) {
+            return tags;
+        }
+        String[] listed = ifNoneMatch.split(",");
+        for (int i = 0; i < Math.min(listed.length, MAX_TAGS); i++) {
+            String tag = listed[i].trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.length() < 2 || tag.charAt(0) != '"' || tag.charAt(tag.length() - 1) != '"') {
+                continue;
+            }
+            String[] parts = tag.substring(1, tag.length() - 1).split("\\.");
+            if (parts.length != 3) {
+                continue;
+            }
+            try {
+                tags.add(new DocumentETag(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2], 36)));
+            } catch (NumberFormatException e) {
+                // Not one of ours
+            }
+        }
+        return tags;
+    }
+}
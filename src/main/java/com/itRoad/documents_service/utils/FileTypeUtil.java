@@ -0,0 +1,22 @@
+package com.itRoad.documents_service.utils;
+
+import java.util.Locale;
+
+public final class FileTypeUtil {
+
+    private FileTypeUtil() {
+    }
+
+    /**
+     * Derive the document type from a file name's extension
+     * @param filename The original file name
+     * @return The upper-cased extension (e.g. PDF), or an empty string if there is none
+     */
+    public static String extractType(String filename) {
+        if (filename == null) {
+            return "";
+        }
+        int dot = filename.lastIndexOf('.');
+        return dot >= 0 ? filename.substring(dot + 1).toUpperCase(Locale.ROOT) : "";
+    }
+}
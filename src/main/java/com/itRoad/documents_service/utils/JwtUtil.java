@@ -1,27 +1,108 @@
 package com.itRoad.documents_service.utils;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.security.Key;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Date;
+import java.util.HexFormat;
 
 @Component
 public class JwtUtil {
 
     private static final String SECRET_KEY = "jwt.myVerySecureSecretKeyThatIsAtLeast32CharactersLongForHS256Algorithm";
 
+    // The key and parser are immutable and thread-safe, so they are built once
+    private final JwtParser parser = Jwts.parser()
+            .verifyWith(Keys.hmacShaKeyFor(SECRET_KEY.getBytes(StandardCharsets.UTF_8)))
+            .build();
+
+    // Claims of already verified tokens, keyed by the SHA-256 of the token and evicted at its expiry
+    private final Cache<String, Claims> verifiedTokens;
+
+    private final Timer verificationTimer;
+
+    public JwtUtil(MeterRegistry meterRegistry,
+                   @Value("${documents.jwt.cache.max-size:10000}") long maxSize,
+                   @Value("${documents.jwt.cache.max-ttl:15m}") Duration maxTtl) {
+        this.verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new ExpireAtTokenExpiry(maxTtl))
+                .recordStats()
+                .build();
+        this.verificationTimer = Timer.builder("jwt.verification")
+                .description("Time spent verifying JWT signatures and parsing claims")
+                .register(meterRegistry);
+        CaffeineCacheMetrics.monitor(meterRegistry, verifiedTokens, "jwt.verified-tokens");
+    }
+
+    /**
+     * Verify a token and return its claims. A token seen before is served from the cache
+     * until it expires, skipping signature verification.
+     * @param token The compact JWS
+     * @return The verified claims
+     * @throws io.jsonwebtoken.JwtException if the token is invalid or expired
+     */
     public Claims extractClaims(String token) {
-        Key key = Keys.hmacShaKeyFor(SECRET_KEY.getBytes());
-
-        return Jwts
-                .parser()
-                .setSigningKey(key)
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        String tokenHash = sha256(token);
+        Claims claims = verifiedTokens.getIfPresent(tokenHash);
+        if (claims != null) {
+            return claims;
+        }
+
+        claims = verificationTimer.record(() -> parser.parseSignedClaims(token).getPayload());
+        verifiedTokens.put(tokenHash, claims);
+        return claims;
     }
-}
 
+    private static String sha256(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    // Keeps an entry until the token's exp claim, and never longer than maxTtl
+    private static class ExpireAtTokenExpiry implements Expiry<String, Claims> {
+
+        private final long maxTtlNanos;
+
+        ExpireAtTokenExpiry(Duration maxTtl) {
+            this.maxTtlNanos = maxTtl.toNanos();
+        }
 
+        @Override
+        public long expireAfterCreate(String key, Claims claims, long currentTime) {
+            Date expiration = claims.getExpiration();
+            if (expiration == null) {
+                return maxTtlNanos;
+            }
+            long untilExpiry = Duration.ofMillis(expiration.getTime() - System.currentTimeMillis()).toNanos();
+            return Math.max(0, Math.min(untilExpiry, maxTtlNanos));
+        }
 
+        @Override
+        public long expireAfterUpdate(String key, Claims claims, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+
+        @Override
+        public long expireAfterRead(String key, Claims claims, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.itRoad.documents_service.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket. Instead of a token count refilled by a timer, the whole state is one
+ * timestamp - the moment the bucket will be full again (GCRA) - updated with a compare-and-set,
+ * so checking a bucket costs a couple of atomic operations and never blocks.
+ * <p>
+ * A request larger than the capacity is admitted once the bucket is full and leaves it in debt,
+ * so large files are not rejected forever but still pay for their size.
+ */
+public final class TokenBucket {
+
+    private final double nanosPerToken;
+
+    // Time the bucket takes to refill from empty
+    private final long capacityNanos;
+
+    // The bucket is full from this moment on; it holds (capacity - (fullAt - now) / nanosPerToken) tokens
+    private final AtomicLong fullAt;
+
+    /**
+     * @param tokensPerSecond Refill rate
+     * @param capacity Maximum number of tokens, i.e. the largest burst
+     * @param now Current {@link System#nanoTime()}; the bucket starts full
+     */
+    public TokenBucket(double tokensPerSecond, double capacity, long now) {
+        this.nanosPerToken = 1e9 / tokensPerSecond;
+        this.capacityNanos = (long) Math.ceil(capacity * nanosPerToken);
+        this.fullAt = new AtomicLong(now);
+    }
+
+    /**
+     * Take tokens if enough are available
+     * @param tokens Number of tokens; 0 only checks that the bucket is not in debt
+     * @param now Current {@link System#nanoTime()}
+     * @return 0 if the tokens were taken, otherwise how many nanoseconds to wait before retrying
+     */
+    public long tryAcquire(long tokens, long now) {
+        long cost = cost(tokens);
+        long required = Math.min(cost, capacityNanos);
+        while (true) {
+            long current = fullAt.get();
+            long from = Math.max(current, now);
+            long wait = from + required - now - capacityNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (fullAt.compareAndSet(current, from + cost)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Take tokens unconditionally, going into debt if there are not enough - for usage only known
+     * afterwards. Negative tokens give tokens back.
+     * @param tokens Number of tokens
+     * @param now Current {@link System#nanoTime()}
+     */
+    public void charge(long tokens, long now) {
+        long cost = tokens >= 0 ? cost(tokens) : -cost(-tokens);
+        fullAt.updateAndGet(current -> Math.max(current, now) + cost);
+    }
+
+    private long cost(long tokens) {
+        return (long) Math.ceil(tokens * nanosPerToken);
+    }
+}
@@ -0,0 +1,10 @@
+-- Stored files of purged documents that still have to be reclaimed. Rows are written in the
+-- transaction that deletes the documents and removed once their files are handled, so a purge
+-- interrupted by a restart is resumed instead of leaving its files behind.
+CREATE TABLE IF NOT EXISTS storage_reclaim_queue (
+    purge_id    VARCHAR(36)              NOT NULL,
+    storage_key VARCHAR(255)             NOT NULL,
+    user_id     BIGINT                   NOT NULL,
+    queued_at   TIMESTAMP WITH TIME ZONE NOT NULL,
+    PRIMARY KEY (purge_id, storage_key)
+);
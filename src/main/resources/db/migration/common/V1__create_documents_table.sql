@@ -0,0 +1,14 @@
+-- Documents table. Databases created before migrations were introduced already have it,
+-- so every statement is idempotent and only adds what is missing.
+CREATE TABLE IF NOT EXISTS documents (
+    id       BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    name     VARCHAR(255) NOT NULL,
+    type     VARCHAR(255),
+    category VARCHAR(255) NOT NULL,
+    date     DATE         NOT NULL,
+    url      VARCHAR(255),
+    user_id  BIGINT       NOT NULL
+);
+
+ALTER TABLE documents ADD COLUMN IF NOT EXISTS checksum VARCHAR(64);
+ALTER TABLE documents ADD COLUMN IF NOT EXISTS size BIGINT;
@@ -0,0 +1,15 @@
+-- A document name is unique per user. The duplicate check on upload is this constraint
+-- rather than a separate SELECT, and it also serves existsByNameAndUserId.
+CREATE UNIQUE INDEX IF NOT EXISTS uq_documents_user_name ON documents (user_id, name);
+
+-- Keyset pagination seeks on (date, id) newest first, after an optional equality filter
+CREATE INDEX IF NOT EXISTS idx_documents_user_date ON documents (user_id, date DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_documents_user_type_date ON documents (user_id, type, date DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_documents_user_category_date ON documents (user_id, category, date DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_documents_type_date ON documents (type, date DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_documents_category_date ON documents (category, date DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_documents_name_date ON documents (name, date DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_documents_date ON documents (date DESC, id DESC);
+
+-- Reference count of a stored blob
+CREATE INDEX IF NOT EXISTS idx_documents_checksum ON documents (checksum);
@@ -0,0 +1,3 @@
+-- Ids come from a pooled sequence instead of IDENTITY so Hibernate can batch inserts:
+-- each nextval hands out a block of 50 ids, see Document.id
+CREATE SEQUENCE IF NOT EXISTS documents_seq START WITH 1 INCREMENT BY 50;
@@ -0,0 +1,7 @@
+-- Results of the post-upload processing pipeline kept on the document row.
+-- Existing documents start as PENDING and are processed in the background.
+ALTER TABLE documents ADD COLUMN IF NOT EXISTS mime_type VARCHAR(127);
+ALTER TABLE documents ADD COLUMN IF NOT EXISTS processing_status VARCHAR(16) DEFAULT 'PENDING' NOT NULL;
+
+-- Lets the sweeper find pending documents without scanning processed ones
+CREATE INDEX IF NOT EXISTS idx_documents_processing ON documents (processing_status, id);
@@ -0,0 +1,19 @@
+-- Change feed: every create and delete of a user's documents is numbered with the next value of the
+-- user's head. Updating the head row locks it until the writing transaction commits, so a user's
+-- sequence numbers commit in order and without gaps.
+CREATE TABLE IF NOT EXISTS document_change_heads (
+    user_id  BIGINT PRIMARY KEY,
+    last_seq BIGINT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS document_changes (
+    user_id     BIGINT                   NOT NULL,
+    seq         BIGINT                   NOT NULL,
+    change_type VARCHAR(16)              NOT NULL,
+    document_id BIGINT,
+    changed_at  TIMESTAMP WITH TIME ZONE NOT NULL,
+    PRIMARY KEY (user_id, seq)
+);
+
+-- Lets the retention sweep find expired changes without scanning the table
+CREATE INDEX IF NOT EXISTS idx_document_changes_changed_at ON document_changes (changed_at);
@@ -0,0 +1,3 @@
+-- Inserts that do not go through Hibernate draw from the same sequence, see the PostgreSQL version
+ALTER TABLE documents ALTER COLUMN id DROP IDENTITY;
+ALTER TABLE documents ALTER COLUMN id SET DEFAULT NEXT VALUE FOR documents_seq;
@@ -0,0 +1,5 @@
+CREATE TABLE IF NOT EXISTS document_contents (
+    document_id  BIGINT PRIMARY KEY REFERENCES documents (id) ON DELETE CASCADE,
+    content_text CHARACTER VARYING,
+    thumbnail    BINARY VARYING
+);
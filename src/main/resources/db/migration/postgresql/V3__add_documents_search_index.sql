@@ -0,0 +1,5 @@
+-- Full-text search index over name, category and type.
+-- The indexed expression must stay identical to DocumentRepository.SEARCH_VECTOR
+-- for PostgreSQL to use it when evaluating the search queries.
+CREATE INDEX IF NOT EXISTS idx_documents_search ON documents
+    USING GIN (to_tsvector('simple', coalesce(name, '') || ' ' || coalesce(category, '') || ' ' || coalesce(type, '')));
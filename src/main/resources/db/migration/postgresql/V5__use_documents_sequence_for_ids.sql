@@ -0,0 +1,7 @@
+-- Continue after the ids already handed out by the identity column
+SELECT setval('documents_seq', (SELECT COALESCE(MAX(id), 0) + 1 FROM documents));
+
+-- Inserts that do not go through Hibernate draw from the same sequence. They take a whole
+-- block's upper value, which Hibernate never uses, so both can insert side by side.
+ALTER TABLE documents ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE documents ALTER COLUMN id SET DEFAULT nextval('documents_seq');
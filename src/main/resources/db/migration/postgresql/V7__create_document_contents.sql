@@ -0,0 +1,12 @@
+-- Extracted text and preview thumbnail of a document, kept out of the documents row
+-- so listings and lookups do not carry them
+CREATE TABLE IF NOT EXISTS document_contents (
+    document_id  BIGINT PRIMARY KEY REFERENCES documents (id) ON DELETE CASCADE,
+    content_text TEXT,
+    thumbnail    BYTEA
+);
+
+-- Full-text search over the extracted text.
+-- The indexed expression must stay identical to DocumentRepository.CONTENT_VECTOR.
+CREATE INDEX IF NOT EXISTS idx_document_contents_search ON document_contents
+    USING GIN (to_tsvector('simple', coalesce(content_text, '')));
@@ -0,0 +1,3 @@
+-- Name-prefix filters of the document query (name LIKE 'abc%') can only use a btree index with
+-- pattern operators unless the database collation is C
+CREATE INDEX IF NOT EXISTS idx_documents_user_name_prefix ON documents (user_id, name text_pattern_ops);
@@ -0,0 +1,78 @@
+package com.itRoad.documents_service.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ConcurrencyLimitFilterTests {
+
+	private static final String DOCUMENTS = "/api/documents/users/1";
+
+	private static final FilterChain OK = (request, response) -> { };
+
+	// One request at a time, and a short wait for the slot
+	private final ConcurrencyLimitFilter filter = new ConcurrencyLimitFilter(1, Duration.ofMillis(50), new ObjectMapper());
+
+	@Test
+	void aRequestThatFindsThePermitsHeldIsRejectedWith503() throws Exception {
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CompletableFuture<MockHttpServletResponse> holder = CompletableFuture.supplyAsync(() -> {
+			try {
+				return perform(DOCUMENTS, (request, response) -> {
+					entered.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+
+		MockHttpServletResponse rejected = perform(DOCUMENTS, OK);
+		assertThat(rejected.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE.value());
+		assertThat(rejected.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+		assertThat(rejected.getContentAsString()).contains("\"success\":false");
+
+		// Requests outside the document API are not limited
+		assertThat(perform("/actuator/health", OK).getStatus()).isEqualTo(HttpStatus.OK.value());
+		assertThat(perform("/api/auth/login", OK).getStatus()).isEqualTo(HttpStatus.OK.value());
+
+		release.countDown();
+		assertThat(holder.get(5, TimeUnit.SECONDS).getStatus()).isEqualTo(HttpStatus.OK.value());
+		assertThat(perform(DOCUMENTS, OK).getStatus()).isEqualTo(HttpStatus.OK.value());
+	}
+
+	@Test
+	void thePermitIsReleasedWhenTheRequestFails() throws Exception {
+		assertThatThrownBy(() -> perform(DOCUMENTS, (request, response) -> {
+			throw new ServletException("failed");
+		})).isInstanceOf(ServletException.class);
+
+		assertThat(perform(DOCUMENTS, OK).getStatus()).isEqualTo(HttpStatus.OK.value());
+	}
+
+	private MockHttpServletResponse perform(String uri, FilterChain chain) throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(request, response, chain);
+		return response;
+	}
+}
@@ -0,0 +1,57 @@
+package com.itRoad.documents_service.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimitFilterTests {
+
+	private static final String EXPORT = "/api/documents/users/1/export";
+
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	// 1 KB of download budget per second, a burst of one second, plenty of requests
+	private final RateLimitFilter filter = new RateLimitFilter(true, 1, 100, DataSize.ofMegabytes(1), 100,
+			DataSize.ofKilobytes(1), DataSize.ofBytes(0), DataSize.ofBytes(0), Duration.ofMinutes(10),
+			new ObjectMapper(), meterRegistry);
+
+	@Test
+	void bytesStreamedWithoutContentLengthAreCharged() throws Exception {
+		MockHttpServletResponse export = perform(EXPORT, (request, response) ->
+				response.getOutputStream().write(new byte[8192]));
+		assertThat(export.getStatus()).isEqualTo(HttpStatus.OK.value());
+		assertThat(export.getContentAsByteArray()).hasSize(8192);
+
+		// The export left the client's bytes budget in debt
+		MockHttpServletResponse next = perform(EXPORT, (request, response) -> { });
+		assertThat(next.getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+		assertThat(next.getHeader(HttpHeaders.RETRY_AFTER)).isNotNull();
+		assertThat(meterRegistry.get("documents.rate.limit.rejected")
+				.tags("direction", "download", "budget", "bytes", "scope", "client").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	void countersAreRegisteredBeforeTheFirstRequest() {
+		assertThat(meterRegistry.find("documents.rate.limit.admitted").counters()).hasSize(2);
+		assertThat(meterRegistry.find("documents.rate.limit.rejected").counters()).hasSize(6);
+	}
+
+	private MockHttpServletResponse perform(String uri, FilterChain chain) throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+		request.setRemoteAddr("192.0.2.1");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(request, response, chain);
+		return response;
+	}
+}
@@ -0,0 +1,155 @@
+package com.itRoad.documents_service.controllers;
+
+import com.itRoad.documents_service.models.Document;
+import com.itRoad.documents_service.models.ProcessingStatus;
+import com.itRoad.documents_service.repositories.RecordingStatementInspector;
+import com.itRoad.documents_service.services.DocumentChangeFeed;
+import com.itRoad.documents_service.services.DocumentService;
+import com.itRoad.documents_service.utils.DocumentETag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Heads are polled by the tests alone
+@SpringBootTest(properties = {"spring.jpa.properties.hibernate.session_factory.statement_inspector="
+		+ "com.itRoad.documents_service.repositories.RecordingStatementInspector", "documents.changes.poll-interval=1h"})
+@AutoConfigureMockMvc
+class DocumentControllerConditionalGetTests {
+
+	private static final int POLLS = 50;
+
+	private static final Long USER_ID = 7001L;
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private DocumentService documentService;
+
+	@Autowired
+	private DocumentChangeFeed documentChangeFeed;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	@Test
+	void pollingWithTheETagIsAnsweredWith304WithoutQueries() throws Exception {
+		Document document = documentService.createDocument(document("polled-1"));
+		assertThat(RecordingStatementInspector.drain(Thread.currentThread())).as("Recorded insert").isNotEmpty();
+		awaitProcessed(document.getId());
+		List<String> urls = List.of(
+				"/api/documents/users/" + USER_ID,
+				"/api/documents/by-id/" + document.getId(),
+				"/api/documents/user/" + USER_ID + "/count");
+
+		for (String url : urls) {
+			String etag = mockMvc.perform(get(url))
+					.andExpect(status().isOk())
+					.andExpect(header().exists(HttpHeaders.ETAG))
+					.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+			RecordingStatementInspector.drain();
+			for (int i = 0; i < POLLS; i++) {
+				mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, etag))
+						.andExpect(status().isNotModified())
+						.andExpect(header().string(HttpHeaders.ETAG, etag))
+						.andExpect(content().string(""));
+			}
+			assertThat(RecordingStatementInspector.drain(Thread.currentThread())).as("Queries polling %s", url).isEmpty();
+		}
+	}
+
+	@Test
+	void tagsOfManyOwnersAreNotEachLookedUp() throws Exception {
+		Document document = documentService.createDocument(document("tagged-1"));
+		String tags = IntStream.range(0, 100)
+				.mapToObj(i -> new DocumentETag("d" + document.getId(), 900_000L + i, 1).format())
+				.collect(Collectors.joining(", "));
+
+		RecordingStatementInspector.drain();
+		mockMvc.perform(get("/api/documents/by-id/" + document.getId()).header(HttpHeaders.IF_NONE_MATCH, tags))
+				.andExpect(status().isOk());
+		// A few owners' heads and the document itself
+		assertThat(RecordingStatementInspector.drain(Thread.currentThread())).hasSizeLessThanOrEqualTo(5);
+	}
+
+	@Test
+	void aWriteThroughAnotherInstanceChangesTheETag() throws Exception {
+		awaitProcessed(documentService.createDocument(document("shared-1")).getId());
+		String url = "/api/documents/users/" + USER_ID;
+		String etag = mockMvc.perform(get(url)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		// Another instance inserts a document and moves the feed head, leaving this instance's cache untouched
+		transactionTemplate.executeWithoutResult(status -> {
+			jdbcTemplate.update("INSERT INTO documents (name, type, category, date, user_id) VALUES (?, 'PDF', 'test', ?, ?)",
+					"elsewhere-" + System.nanoTime(), Date.valueOf(LocalDate.of(2025, 1, 2)), USER_ID);
+			jdbcTemplate.update("UPDATE document_change_heads SET last_seq = last_seq + 1 WHERE user_id = ?", USER_ID);
+		});
+		// Seen here once the heads are next polled
+		mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified());
+		documentChangeFeed.pollHeads();
+
+		MvcResult result = mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk())
+				.andReturn();
+		assertThat(result.getResponse().getHeader(HttpHeaders.ETAG)).isNotEqualTo(etag);
+		assertThat(result.getResponse().getContentAsString()).contains("elsewhere-");
+	}
+
+	@Test
+	void aWriteToTheUsersDocumentsChangesTheETag() throws Exception {
+		documentService.createDocument(document("changed-1"));
+		String url = "/api/documents/users/" + USER_ID;
+		String etag = mockMvc.perform(get(url)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		documentService.createDocument(document("changed-2"));
+
+		MvcResult result = mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk())
+				.andReturn();
+		assertThat(result.getResponse().getHeader(HttpHeaders.ETAG)).isNotEqualTo(etag);
+		assertThat(result.getResponse().getContentAsString()).contains("changed-2");
+	}
+
+	// Processing records an update, which would move the version while polling
+	private void awaitProcessed(Long id) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (documentService.getDocumentById(id).getProcessingStatus() == ProcessingStatus.PENDING
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(20);
+		}
+	}
+
+	private static Document document(String name) {
+		Document document = new Document();
+		document.setName(name + "-" + System.nanoTime());
+		document.setCategory("test");
+		document.setType("PDF");
+		document.setDate(LocalDate.of(2025, 1, 1));
+		document.setUserId(USER_ID);
+		return document;
+	}
+}
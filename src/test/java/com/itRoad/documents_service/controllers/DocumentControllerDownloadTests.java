@@ -0,0 +1,154 @@
+package com.itRoad.documents_service.controllers;
+
+import com.itRoad.documents_service.storage.StorageBackend;
+import com.itRoad.documents_service.storage.StoredBlob;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class DocumentControllerDownloadTests {
+
+	@Autowired
+	private MockMvc mockMvc;
+
+	@Autowired
+	private StorageBackend storageBackend;
+
+	@Test
+	void aFullGetStreamsTheContentWithItsHeaders() throws Exception {
+		byte[] content = randomContent(20_000);
+		StoredBlob blob = storageBackend.store(new ByteArrayInputStream(content), "PNG");
+
+		mockMvc.perform(get(url(blob, "scan.png")))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.ETAG, "\"" + blob.getChecksum() + "\""))
+				.andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+				.andExpect(header().string(HttpHeaders.CONTENT_TYPE, "image/png"))
+				.andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, startsWith("attachment;")))
+				.andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, containsString("filename*=UTF-8''scan.png")))
+				.andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+				.andExpect(header().stringValues(HttpHeaders.VARY, not(hasItem(HttpHeaders.ACCEPT_ENCODING))))
+				.andExpect(content().bytes(content));
+	}
+
+	@Test
+	void aRangeIsAnsweredWith206AndOnlyThoseBytes() throws Exception {
+		byte[] content = randomContent(20_000);
+		StoredBlob blob = storageBackend.store(new ByteArrayInputStream(content), "PNG");
+
+		mockMvc.perform(get(url(blob, "scan.png")).header(HttpHeaders.RANGE, "bytes=100-1099"))
+				.andExpect(status().isPartialContent())
+				.andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 100-1099/" + content.length))
+				.andExpect(content().bytes(Arrays.copyOfRange(content, 100, 1100)));
+
+		// Ranges of a compressed blob are taken from the decompressed content, even for gzip clients
+		byte[] csv = csvContent();
+		StoredBlob gzipped = storageBackend.store(new ByteArrayInputStream(csv), "CSV");
+		assertThat(gzipped.getEncoding()).isEqualTo("gzip");
+		mockMvc.perform(get(url(gzipped, "report.csv"))
+						.header(HttpHeaders.RANGE, "bytes=-500")
+						.header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+				.andExpect(status().isPartialContent())
+				.andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+				.andExpect(header().string(HttpHeaders.CONTENT_RANGE,
+						"bytes " + (csv.length - 500) + "-" + (csv.length - 1) + "/" + csv.length))
+				.andExpect(content().bytes(Arrays.copyOfRange(csv, csv.length - 500, csv.length)));
+	}
+
+	@Test
+	void aRepeatedETagIsAnsweredWith304() throws Exception {
+		StoredBlob blob = storageBackend.store(new ByteArrayInputStream(randomContent(5_000)), "PNG");
+		String etag = mockMvc.perform(get(url(blob, "scan.png")))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		mockMvc.perform(get(url(blob, "scan.png")).header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified())
+				.andExpect(header().string(HttpHeaders.ETAG, etag))
+				.andExpect(content().bytes(new byte[0]));
+	}
+
+	@Test
+	void gzipAndIdentityClientsGetTheirOwnRepresentationAndETag() throws Exception {
+		byte[] csv = csvContent();
+		StoredBlob blob = storageBackend.store(new ByteArrayInputStream(csv), "CSV");
+		assertThat(blob.getEncoding()).isEqualTo("gzip");
+		String url = url(blob, "report.csv");
+
+		MvcResult gzip = mockMvc.perform(get(url).header(HttpHeaders.ACCEPT_ENCODING, "br, gzip;q=0.8"))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+				.andExpect(header().stringValues(HttpHeaders.VARY, hasItem(HttpHeaders.ACCEPT_ENCODING)))
+				.andExpect(header().string(HttpHeaders.ETAG, "\"" + blob.getChecksum() + "-gzip\""))
+				.andReturn();
+		byte[] encoded = gzip.getResponse().getContentAsByteArray();
+		assertThat(encoded).hasSize((int) blob.getStoredSize());
+		assertThat(gunzip(encoded)).isEqualTo(csv);
+
+		for (String acceptEncoding : new String[] {null, "gzip;q=0", "br"}) {
+			mockMvc.perform(acceptEncoding == null ? get(url) : get(url).header(HttpHeaders.ACCEPT_ENCODING, acceptEncoding))
+					.andExpect(status().isOk())
+					.andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+					.andExpect(header().stringValues(HttpHeaders.VARY, hasItem(HttpHeaders.ACCEPT_ENCODING)))
+					.andExpect(header().string(HttpHeaders.ETAG, "\"" + blob.getChecksum() + "\""))
+					.andExpect(content().bytes(csv));
+		}
+
+		// Each representation only revalidates against its own ETag
+		String gzipETag = gzip.getResponse().getHeader(HttpHeaders.ETAG);
+		mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, gzipETag))
+				.andExpect(status().isOk())
+				.andExpect(content().bytes(csv));
+		mockMvc.perform(get(url).header(HttpHeaders.IF_NONE_MATCH, gzipETag).header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+				.andExpect(status().isNotModified());
+	}
+
+	private static String url(StoredBlob blob, String filename) {
+		return "/api/documents/download/" + blob.getKey() + "/" + filename;
+	}
+
+	// Unique per call, so every test stores a blob of its own
+	private static byte[] randomContent(int size) {
+		byte[] content = new byte[size];
+		new Random(System.nanoTime()).nextBytes(content);
+		return content;
+	}
+
+	private static byte[] csvContent() {
+		StringBuilder csv = new StringBuilder("id,name,amount," + System.nanoTime() + "\n");
+		for (int i = 0; i < 2000; i++) {
+			csv.append(i).append(",invoice-").append(i % 50).append(",").append(i * 7 % 1000).append('\n');
+		}
+		return csv.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] gunzip(byte[] encoded) throws IOException {
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(encoded))) {
+			return in.readAllBytes();
+		}
+	}
+}
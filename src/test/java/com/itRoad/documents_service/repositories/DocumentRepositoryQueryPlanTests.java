@@ -0,0 +1,151 @@
+package com.itRoad.documents_service.repositories;
+
+import com.itRoad.documents_service.dto.DocumentFacets;
+import com.itRoad.documents_service.dto.DocumentQuery;
+import com.itRoad.documents_service.models.Document;
+import com.itRoad.documents_service.models.ProcessingStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs every hot repository query, then EXPLAINs the SQL Hibernate generated for it and fails
+ * if the plan falls back to scanning: either a table scan, or an index used without a lookup
+ * on every column the query filters on by equality.
+ * The PostgreSQL-only full-text queries are covered by their GIN index and not checked here.
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+		+ "com.itRoad.documents_service.repositories.RecordingStatementInspector")
+class DocumentRepositoryQueryPlanTests {
+
+	private static final LocalDate DATE = LocalDate.of(2025, 1, 1);
+
+	// H2 prints the index used as "/* SCHEMA.INDEX: condition */", without a condition for a full scan
+	private static final Pattern INDEX_LOOKUP = Pattern.compile("/\\* [\\w.]+: (.*?)\\*/", Pattern.DOTALL);
+
+	// An equality predicate of the WHERE clause, e.g. "D1_0"."USER_ID" = ?1
+	private static final Pattern EQUALITY = Pattern.compile("\"\\w+\"\\.\"(\\w+)\" = \\?\\d+");
+
+	@Autowired
+	private DocumentRepository documentRepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	// Give the optimizer a realistic spread of values to choose indexes from.
+	// ANALYZE commits, so the rows outlive the test transaction and are inserted once.
+	@BeforeEach
+	void populateAndAnalyze() {
+		RecordingStatementInspector.drain();
+		if (jdbcTemplate.queryForObject("SELECT COUNT(*) FROM documents", Long.class) > 0) {
+			return;
+		}
+		List<Object[]> rows = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			rows.add(new Object[]{"doc-" + i, "T" + (i % 7), "C" + (i % 11),
+					Date.valueOf(DATE.minusDays(i % 365)), (long) (i % 50), String.format("%064d", i % 500)});
+		}
+		jdbcTemplate.batchUpdate("INSERT INTO documents (name, type, category, date, user_id, checksum) "
+				+ "VALUES (?, ?, ?, ?, ?, ?)", rows);
+		jdbcTemplate.execute("ANALYZE");
+	}
+
+	@Test
+	void paginatedFindersUseAnIndex() {
+		Limit limit = Limit.of(20);
+		documentRepository.findPage(DATE, 1L, limit);
+		documentRepository.findPageByUserId(1L, DATE, 1L, limit);
+		documentRepository.findPageByType("T1", DATE, 1L, limit);
+		documentRepository.findPageByCategory("C1", DATE, 1L, limit);
+		documentRepository.findPageByName("doc-1", DATE, 1L, limit);
+		documentRepository.findPageByDateBetween(DATE.minusDays(7), DATE, DATE, 1L, limit);
+		documentRepository.findPageByUserIdAndType(1L, "T1", DATE, 1L, limit);
+		documentRepository.findPageByUserIdAndCategory(1L, "C1", DATE, 1L, limit);
+		documentRepository.findPageByUserIdAndDateBetween(1L, DATE.minusDays(7), DATE, DATE, 1L, limit);
+
+		assertNoScans(9);
+	}
+
+	@Test
+	void lookupsAndCountsUseAnIndex() {
+		documentRepository.findPageByUserId(1L, DATE, 1L, Limit.of(10));
+		documentRepository.existsByNameAndUserId("doc-1", 1L);
+		documentRepository.findExistingNames(1L, List.of("doc-1", "doc-51"));
+		documentRepository.countDocumentsByUser(1L);
+		documentRepository.countDocumentsByType("T1");
+		documentRepository.countDocumentsByCategory("C1");
+		documentRepository.countByChecksum(String.format("%064d", 1));
+		documentRepository.findReferencedChecksums(List.of(String.format("%064d", 1), String.format("%064d", 2)));
+		documentRepository.findStorageRefsByUserId(1L);
+		documentRepository.countGroupsByUserId(1L);
+		documentRepository.findIdsByProcessingStatus(ProcessingStatus.FAILED, Limit.of(10));
+
+		assertNoScans(11);
+	}
+
+	@Test
+	void dynamicQueriesAndFacetsUseAnIndex() {
+		Limit limit = Limit.of(20);
+		List<DocumentQuery> queries = List.of(
+				new DocumentQuery(1L, "T1", null, null, null, null),
+				new DocumentQuery(1L, null, "C1", null, DATE.minusDays(30), DATE),
+				new DocumentQuery(1L, null, null, "doc-1", null, null),
+				new DocumentQuery(null, "T1", null, null, DATE.minusDays(7), null));
+		for (DocumentQuery query : queries) {
+			Specification<Document> matching = DocumentSpecifications.matching(query);
+			documentRepository.findSummaries(matching.and(DocumentSpecifications.afterCursor(DATE, 1L)), limit);
+			documentRepository.countFacets(matching);
+		}
+
+		assertNoScans(8);
+	}
+
+	@Test
+	void facetsCountEveryMatch() {
+		DocumentFacets facets = documentRepository.countFacets(
+				DocumentSpecifications.matching(new DocumentQuery(1L, null, null, null, null, null)));
+
+		assertThat(facets.getTotal()).isEqualTo(40);
+		assertThat(facets.getTypes().values().stream().mapToLong(Long::longValue).sum()).isEqualTo(40);
+		assertThat(facets.getCategories()).hasSize(11);
+		RecordingStatementInspector.drain();
+	}
+
+	private void assertNoScans(int expectedStatements) {
+		List<String> statements = RecordingStatementInspector.drain();
+		assertThat(statements).hasSize(expectedStatements);
+		for (String sql : statements) {
+			String plan = explain(sql);
+			assertThat(plan).as("Query plan of %s", sql).doesNotContainIgnoringCase(".tableScan");
+
+			Matcher lookup = INDEX_LOOKUP.matcher(plan);
+			assertThat(lookup.find()).as("Index lookup in plan %s", plan).isTrue();
+			String indexCondition = lookup.group(1);
+
+			String where = plan.substring(plan.indexOf("WHERE"));
+			Matcher equality = EQUALITY.matcher(where);
+			while (equality.find()) {
+				assertThat(indexCondition).as("Index condition of plan %s", plan)
+						.containsIgnoringCase(equality.group(1) + " = ?");
+			}
+		}
+	}
+
+	private String explain(String sql) {
+		return jdbcTemplate.query(connection -> connection.prepareStatement("EXPLAIN " + sql),
+				rs -> rs.next() ? rs.getString(1) : "");
+	}
+}
@@ -0,0 +1,34 @@
+package com.itRoad.documents_service.repositories;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Records every SQL statement Hibernate prepares so tests can inspect their query plans
+public class RecordingStatementInspector implements StatementInspector {
+
+	private static final List<Recorded> STATEMENTS = new CopyOnWriteArrayList<>();
+
+	@Override
+	public String inspect(String sql) {
+		STATEMENTS.add(new Recorded(Thread.currentThread(), sql));
+		return sql;
+	}
+
+	public static List<String> drain() {
+		List<String> statements = STATEMENTS.stream().map(Recorded::sql).toList();
+		STATEMENTS.clear();
+		return statements;
+	}
+
+	// Statements prepared by one thread only, leaving out those of background tasks
+	public static List<String> drain(Thread thread) {
+		List<String> statements = STATEMENTS.stream().filter(s -> s.thread() == thread).map(Recorded::sql).toList();
+		STATEMENTS.clear();
+		return statements;
+	}
+
+	private record Recorded(Thread thread, String sql) {
+	}
+}
@@ -0,0 +1,83 @@
+package com.itRoad.documents_service.services;
+
+import com.itRoad.documents_service.dto.DocumentSummary;
+import com.itRoad.documents_service.models.Document;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Two embedded databases stand in for the primary and its replica. Nothing replicates between
+// them, so which one answered a read shows in what it returns.
+@SpringBootTest(properties = {
+		"spring.datasource.url=" + DocumentServiceReplicaTests.PRIMARY_URL,
+		"documents.datasource.replica.url=" + DocumentServiceReplicaTests.REPLICA_URL,
+		"documents.datasource.replica.read-your-writes-window=1h"})
+class DocumentServiceReplicaTests {
+
+	static final String PRIMARY_URL = "jdbc:h2:mem:routing-primary;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+
+	static final String REPLICA_URL = "jdbc:h2:mem:routing-replica;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+
+	private static JdbcTemplate replica;
+
+	@Autowired
+	private DocumentService documentService;
+
+	@BeforeAll
+	static void createReplicaSchema() {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource(REPLICA_URL, "sa", "");
+		Flyway.configure()
+				.dataSource(dataSource)
+				.locations("classpath:db/migration/common", "classpath:db/migration/h2")
+				.load()
+				.migrate();
+		replica = new JdbcTemplate(dataSource);
+	}
+
+	@Test
+	void readOnlyQueriesAreAnsweredByTheReplica() {
+		replica.update("INSERT INTO documents (id, name, category, type, date, url, user_id, size, processing_status) "
+				+ "VALUES (900001, 'replicated.pdf', 'Invoices', 'PDF', DATE '2025-03-01', '/r', 8001, 10, 'DONE')");
+
+		assertThat(documentService.getDocumentsByUserId(8001L, null, null).getItems())
+				.extracting(DocumentSummary::getName).containsExactly("replicated.pdf");
+		assertThat(documentService.getDocumentsByUserAndType(8001L, "PDF", null, null).getItems()).hasSize(1);
+		// Lookups by ID are read-write and never see the replica
+		assertThat(documentService.existsById(900001L)).isFalse();
+	}
+
+	@Test
+	void theUserWhoJustWroteReadsFromThePrimary() {
+		Document created = documentService.createDocument(document("uploaded.pdf", 8002L));
+		assertThat(replica.queryForObject("SELECT COUNT(*) FROM documents WHERE user_id = 8002", Long.class)).isZero();
+
+		assertThat(documentService.getDocumentsByUserId(8002L, null, null).getItems())
+				.extracting(DocumentSummary::getId).containsExactly(created.getId());
+		assertThat(documentService.getDocumentsByUserAndCategory(8002L, "Invoices", null, null).getItems()).hasSize(1);
+		assertThat(documentService.getDocumentById(created.getId()).getName()).isEqualTo("uploaded.pdf");
+
+		// Other users' reads still go to the replica, which has not seen the upload
+		assertThat(documentService.getDocumentsByCategory("Invoices", null, null).getItems())
+				.extracting(DocumentSummary::getId).doesNotContain(created.getId());
+	}
+
+	private static Document document(String name, Long userId) {
+		Document document = new Document();
+		document.setName(name);
+		document.setCategory("Invoices");
+		document.setType("PDF");
+		document.setDate(LocalDate.of(2025, 3, 2));
+		document.setUserId(userId);
+		document.setUrl("/api/documents/download/" + name);
+		document.setSize(10L);
+		return document;
+	}
+}
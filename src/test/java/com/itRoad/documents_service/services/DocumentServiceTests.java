@@ -0,0 +1,516 @@
+package com.itRoad.documents_service.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itRoad.documents_service.config.ReadYourWrites;
+import com.itRoad.documents_service.dto.BatchUploadResult;
+import com.itRoad.documents_service.dto.ChangeFeedPage;
+import com.itRoad.documents_service.dto.CursorPage;
+import com.itRoad.documents_service.dto.DocumentChangeEvent;
+import com.itRoad.documents_service.dto.DocumentStatistics;
+import com.itRoad.documents_service.dto.DocumentSummary;
+import com.itRoad.documents_service.exceptions.DocumentNotFoundException;
+import com.itRoad.documents_service.dto.PurgeStatus;
+import com.itRoad.documents_service.models.ChangeType;
+import com.itRoad.documents_service.models.Document;
+import com.itRoad.documents_service.models.DocumentContent;
+import com.itRoad.documents_service.models.PendingReclaim;
+import com.itRoad.documents_service.models.ProcessingStatus;
+import com.itRoad.documents_service.repositories.DocumentChangeRepository;
+import com.itRoad.documents_service.repositories.DocumentContentRepository;
+import com.itRoad.documents_service.repositories.DocumentRepository;
+import com.itRoad.documents_service.repositories.PendingReclaimRepository;
+import com.itRoad.documents_service.storage.ContentAddressedStorageBackend;
+import com.itRoad.documents_service.storage.StorageBackend;
+import com.itRoad.documents_service.storage.StorageLocks;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@DataJpaTest
+@ImportAutoConfiguration(JacksonAutoConfiguration.class)
+@Import({DocumentService.class, ContentAddressedStorageBackend.class, StorageLocks.class, StorageReclaimer.class,
+		DocumentStatisticsService.class, DocumentMetadataCache.class,
+		DocumentProcessingPipeline.class, DocumentExportService.class, DocumentChangeFeed.class,
+		ReadYourWrites.class, DocumentServiceTests.Metrics.class})
+class DocumentServiceTests {
+
+	@Autowired
+	private DocumentService documentService;
+
+	@MockitoSpyBean
+	private DocumentRepository documentRepository;
+
+	@Autowired
+	private StorageReclaimer storageReclaimer;
+
+	@Autowired
+	private StorageBackend storageBackend;
+
+	@Autowired
+	private DocumentStatisticsService documentStatisticsService;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Autowired
+	private DocumentContentRepository documentContentRepository;
+
+	@Autowired
+	private DocumentExportService documentExportService;
+
+	@Autowired
+	private DocumentChangeFeed documentChangeFeed;
+
+	@Autowired
+	private DocumentChangeRepository documentChangeRepository;
+
+	@Autowired
+	private PendingReclaimRepository pendingReclaimRepository;
+
+	@TestConfiguration
+	static class Metrics {
+
+		@Bean
+		MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+	}
+
+	private Document document(String name, Long userId, LocalDate date) {
+		Document document = new Document();
+		document.setName(name);
+		document.setCategory("Invoices");
+		document.setType("PDF");
+		document.setUserId(userId);
+		document.setDate(date);
+		return documentRepository.save(document);
+	}
+
+	@Test
+	void keysetPagesWalkAUsersDocumentsNewestFirstWithoutGapsOrDuplicates() {
+		LocalDate today = LocalDate.of(2025, 6, 1);
+		for (int i = 0; i < 5; i++) {
+			// Two documents share each date so the id tie-breaker is exercised
+			document("doc-" + i, 1L, today.minusDays(i / 2));
+		}
+		document("other-user", 2L, today);
+
+		List<String> names = new ArrayList<>();
+		String cursor = null;
+		int pages = 0;
+		do {
+			CursorPage<DocumentSummary> page = documentService.getDocumentsByUserId(1L, cursor, 2);
+			page.getItems().forEach(summary -> names.add(summary.getName()));
+			cursor = page.getNextCursor();
+			pages++;
+		} while (cursor != null);
+
+		assertThat(pages).isEqualTo(3);
+		assertThat(names).containsExactly("doc-1", "doc-0", "doc-3", "doc-2", "doc-4");
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void bulkDeleteRemovesRowsAndReclaimsOnlyUnsharedFiles() throws Exception {
+		byte[] own = "only used by the purged user".getBytes(StandardCharsets.UTF_8);
+		byte[] shared = "also used by another user".getBytes(StandardCharsets.UTF_8);
+		Document first = documentService.createDocument(document("purge-1", 7L), "a.txt", new ByteArrayResource(own));
+		documentService.createDocument(document("purge-2", 7L), "b.txt", new ByteArrayResource(shared));
+		Document kept = documentService.createDocument(document("kept", 8L), "c.txt", new ByteArrayResource(shared));
+		try {
+			PurgeStatus purge = documentService.deleteDocumentsByUserId(7L);
+			assertThat(purge.getDocumentsDeleted()).isEqualTo(2);
+			assertThat(purge.getFilesTotal()).isEqualTo(2);
+
+			PurgeStatus done = awaitPurge(purge.getId());
+			assertThat(done.getState()).isEqualTo(PurgeStatus.State.COMPLETED);
+			assertThat(done.getFilesProcessed()).isEqualTo(2);
+			assertThat(done.getFilesReclaimed()).isEqualTo(1);
+			assertThat(pendingReclaimRepository.findByPurgeId(purge.getId())).isEmpty();
+
+			assertThat(documentRepository.countDocumentsByUser(7L)).isZero();
+			assertThat(storageBackend.stat(first.getChecksum())).isNull();
+			assertThat(storageBackend.stat(kept.getChecksum())).isNotNull();
+		} finally {
+			documentService.deleteDocumentsByUserId(8L);
+		}
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void queuedFilesOfAnInterruptedPurgeAreReclaimedOnResume() throws Exception {
+		String orphan = storageBackend.store(new ByteArrayInputStream(
+				"left behind by a purge cut short".getBytes(StandardCharsets.UTF_8)), "TXT").getKey();
+		Document kept = documentService.createDocument(document("still-referenced", 9L), "d.txt",
+				new ByteArrayResource("still in use".getBytes(StandardCharsets.UTF_8)));
+		try {
+			pendingReclaimRepository.saveAll(List.of(
+					new PendingReclaim("interrupted-purge", orphan, 7L, Instant.now()),
+					new PendingReclaim("interrupted-purge", kept.getChecksum(), 7L, Instant.now())));
+
+			storageReclaimer.resume();
+
+			PurgeStatus done = awaitPurge("interrupted-purge");
+			assertThat(done.getState()).isEqualTo(PurgeStatus.State.COMPLETED);
+			assertThat(done.getFilesProcessed()).isEqualTo(2);
+			assertThat(done.getFilesReclaimed()).isEqualTo(1);
+			assertThat(storageBackend.stat(orphan)).isNull();
+			assertThat(storageBackend.stat(kept.getChecksum())).isNotNull();
+			assertThat(pendingReclaimRepository.findPurgeIds()).isEmpty();
+		} finally {
+			documentService.deleteDocumentsByUserId(9L);
+		}
+	}
+
+	private PurgeStatus awaitPurge(String id) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (storageReclaimer.getStatus(id).getCompletedAt() == null && System.nanoTime() < deadline) {
+			Thread.sleep(20);
+		}
+		return storageReclaimer.getStatus(id);
+	}
+
+	private void awaitProcessed(Long id) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (documentRepository.findById(id).orElseThrow().getProcessingStatus() == ProcessingStatus.PENDING
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(20);
+		}
+	}
+
+	@Test
+	void countersFollowCreatesAndDeletesAndMatchTheDatabase() {
+		documentStatisticsService.reconcile();
+		long total = documentStatisticsService.getStatistics().getTotalDocuments();
+
+		Document first = documentService.createDocument(document("stats-1", 21L));
+		documentService.createDocument(document("stats-2", 21L));
+		Document other = document("stats-3", 22L);
+		other.setType("PDF");
+		documentService.createDocument(other);
+		documentService.deleteDocument(first.getId());
+
+		DocumentStatistics statistics = documentService.getStatistics();
+		assertThat(statistics.getTotalDocuments()).isEqualTo(total + 2);
+		assertThat(statistics.getDocumentsThisMonth()).isGreaterThanOrEqualTo(2);
+		assertThat(documentService.countDocumentsByUser(21L)).isEqualTo(1);
+		assertThat(documentService.countDocumentsByType("PDF")).isEqualTo(documentRepository.countDocumentsByType("PDF"));
+		assertThat(documentService.countDocumentsByCategory("Invoices"))
+				.isEqualTo(documentRepository.countDocumentsByCategory("Invoices"));
+
+		documentService.deleteDocumentsByUserId(21L);
+		assertThat(documentService.countDocumentsByUser(21L)).isZero();
+
+		// Rebuilding from the database changes nothing
+		DocumentStatistics maintained = documentService.getStatistics();
+		documentStatisticsService.reconcile();
+		assertThat(documentService.getStatistics()).isEqualTo(maintained);
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void aCreateRecordedWhileTheCountersAreRebuiltIsKept() {
+		documentStatisticsService.reconcile();
+		// The document is created after the rebuild's query read the table, before the counters are swapped
+		doAnswer(invocation -> {
+			Object groups = mockingDetails(documentRepository).getMockCreationSettings().getDefaultAnswer().answer(invocation);
+			CompletableFuture.runAsync(() -> documentService.createDocument(document("raced-rebuild", 23L))).join();
+			return groups;
+		}).when(documentRepository).countGroups();
+
+		documentStatisticsService.reconcile();
+
+		assertThat(documentService.countDocumentsByUser(23L)).isEqualTo(1);
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void aCreateCountedByTheRebuildButRecordedDuringItIsNotCountedTwice() throws Exception {
+		Document created = documentService.createDocument(document("counted-rebuild", 24L));
+		awaitProcessed(created.getId());
+		long seq = documentChangeRepository.findLastSeq(24L);
+		// The query sees the committed document, and its record arrives only while the counters are rebuilt
+		doAnswer(invocation -> {
+			Object groups = mockingDetails(documentRepository).getMockCreationSettings().getDefaultAnswer().answer(invocation);
+			documentStatisticsService.recordCreated(created, seq);
+			return groups;
+		}).when(documentRepository).countGroups();
+
+		documentStatisticsService.reconcile();
+
+		assertThat(documentService.countDocumentsByUser(24L)).isEqualTo(1);
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void cachedReadsAreDroppedWhenTheUsersDocumentsChange() throws Exception {
+		Document created = documentService.createDocument(document("cached-1", 31L));
+		// Processing records an update, which would move the version between reads
+		awaitProcessed(created.getId());
+
+		assertThat(documentService.getDocumentById(created.getId())).isSameAs(documentService.getDocumentById(created.getId()));
+		assertThat(cacheHits("documents.by-id")).isEqualTo(1);
+		// The hit was validated against the version in memory, not the database
+		verify(documentRepository, times(1)).findVersionedById(created.getId());
+
+		assertThat(documentService.getDocumentsByUserId(31L, null, 10).getItems()).hasSize(1);
+		documentService.getDocumentsByUserId(31L, null, 10);
+		assertThat(cacheHits("documents.user-pages")).isEqualTo(1);
+
+		awaitProcessed(documentService.createDocument(document("cached-2", 31L)).getId());
+		assertThat(documentService.getDocumentsByUserId(31L, null, 10).getItems()).hasSize(2);
+
+		documentService.deleteDocument(created.getId());
+		assertThatThrownBy(() -> documentService.getDocumentById(created.getId()))
+				.isInstanceOf(DocumentNotFoundException.class);
+		List<DocumentSummary> remaining = documentService.getDocumentsByUserId(31L, null, 10).getItems();
+		assertThat(remaining).hasSize(1);
+
+		// A purge drops the user's cached documents without knowing their IDs
+		Long remainingId = remaining.get(0).getId();
+		documentService.getDocumentById(remainingId);
+		documentService.deleteDocumentsByUserId(31L);
+		assertThatThrownBy(() -> documentService.getDocumentById(remainingId))
+				.isInstanceOf(DocumentNotFoundException.class);
+		assertThat(documentService.getDocumentsByUserId(31L, null, 10).getItems()).isEmpty();
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void uploadedPdfsAreSniffedExtractedAndThumbnailedInTheBackground() throws Exception {
+		ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+		try (PDDocument generated = new PDDocument()) {
+			PDPage page = new PDPage();
+			generated.addPage(page);
+			try (PDPageContentStream content = new PDPageContentStream(generated, page)) {
+				content.beginText();
+				content.setFont(new PDType1Font(Standard14Fonts.FontName.HELVETICA), 12);
+				content.newLineAtOffset(72, 720);
+				content.showText("Quarterly invoice");
+				content.endText();
+			}
+			generated.save(pdf);
+		}
+
+		// The extension lies; the type comes from the content
+		Document created = documentService.createDocument(document("processed", 41L), "scan.bin",
+				new ByteArrayResource(pdf.toByteArray()));
+		try {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+			Document processed = documentRepository.findById(created.getId()).orElseThrow();
+			while (processed.getProcessingStatus() == ProcessingStatus.PENDING && System.nanoTime() < deadline) {
+				Thread.sleep(50);
+				processed = documentRepository.findById(created.getId()).orElseThrow();
+			}
+
+			assertThat(processed.getProcessingStatus()).isEqualTo(ProcessingStatus.DONE);
+			assertThat(processed.getMimeType()).isEqualTo("application/pdf");
+			DocumentContent content = documentContentRepository.findById(created.getId()).orElseThrow();
+			assertThat(content.getText()).contains("Quarterly invoice");
+			assertThat(ImageIO.read(new ByteArrayInputStream(documentService.getThumbnail(created.getId()))).getHeight())
+					.isEqualTo(256);
+		} finally {
+			documentService.deleteDocumentsByUserId(41L);
+		}
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void exportStreamsAZipOfTheFilteredFilesWithAManifest() throws Exception {
+		byte[] notes = "meeting notes ".repeat(500).getBytes(StandardCharsets.UTF_8);
+		byte[] scan = new byte[4096];
+		new Random(3).nextBytes(scan);
+		Document text = documentService.createDocument(document("notes", 51L), "notes.txt", new ByteArrayResource(notes));
+		Document image = document("scan", 51L);
+		image.setType("PNG");
+		image.setCategory("Scans");
+		image = documentService.createDocument(image, "scan.png", new ByteArrayResource(scan));
+		try {
+			Map<String, byte[]> all = unzip(new DocumentExportService.Filter(null, null, null, null));
+			assertThat(all).containsOnlyKeys("files/" + text.getId() + "-notes.txt", "files/" + image.getId() + "-scan.png",
+					"manifest.json");
+			assertThat(all.get("files/" + text.getId() + "-notes.txt")).isEqualTo(notes);
+			assertThat(all.get("files/" + image.getId() + "-scan.png")).isEqualTo(scan);
+			assertThat(new String(all.get("manifest.json"), StandardCharsets.UTF_8)).contains("\"documentCount\" : 2");
+			JsonNode manifest = new ObjectMapper().readTree(all.get("manifest.json"));
+			assertThat(manifest.get("userId").asLong()).isEqualTo(51L);
+			assertThat(manifest.get("documents")).extracting(entry -> entry.get("name").asText(), entry -> entry.get("path").asText())
+					.containsExactlyInAnyOrder(tuple("notes", "files/" + text.getId() + "-notes.txt"),
+							tuple("scan", "files/" + image.getId() + "-scan.png"));
+
+			Map<String, byte[]> scans = unzip(new DocumentExportService.Filter(null, "Scans", null, null));
+			assertThat(scans).containsOnlyKeys("files/" + image.getId() + "-scan.png", "manifest.json");
+		} finally {
+			documentService.deleteDocumentsByUserId(51L);
+		}
+	}
+
+	private Map<String, byte[]> unzip(DocumentExportService.Filter filter) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		documentExportService.export(51L, filter, out);
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+				entries.put(entry.getName(), zip.readAllBytes());
+			}
+		}
+		return entries;
+	}
+
+	private double cacheHits(String cache) {
+		return meterRegistry.get("cache.gets").tag("cache", cache).tag("result", "hit").functionCounter().count();
+	}
+
+	private static Document document(String name, Long userId) {
+		Document document = new Document();
+		document.setName(name);
+		document.setCategory("Invoices");
+		document.setType("TXT");
+		document.setUserId(userId);
+		return document;
+	}
+
+	@Test
+	void batchUploadReportsEachFileAndRejectsTakenOrRepeatedNames() throws Exception {
+		documentService.createDocument(document("taken", 51L), "taken.txt",
+				new ByteArrayResource("already stored".getBytes(StandardCharsets.UTF_8)));
+
+		List<BatchUploadResult> results = documentService.createDocuments(51L, List.of(
+				upload("first", "first.txt", "first content"),
+				upload("taken", "again.txt", "never stored"),
+				upload("second", "second.txt", "second content"),
+				upload("first", "repeat.txt", "repeated name")));
+
+		assertThat(results).extracting(BatchUploadResult::getFileName, BatchUploadResult::isSuccess).containsExactly(
+				tuple("first.txt", true), tuple("again.txt", false), tuple("second.txt", true), tuple("repeat.txt", false));
+		assertThat(results.get(1).getMessage()).contains("'taken' already exists");
+		assertThat(results.get(3).getMessage()).contains("'first' already exists");
+		assertThat(results.get(0).getDocument().getId()).isNotNull();
+		assertThat(results.get(0).getDocument().getUserId()).isEqualTo(51L);
+		assertThat(documentRepository.countDocumentsByUser(51L)).isEqualTo(3);
+
+		// Rejected files are never stored
+		assertThat(storageBackend.stat(checksumOf("never stored"))).isNull();
+		assertThat(storageBackend.stat(checksumOf("repeated name"))).isNull();
+		assertThat(storageBackend.stat(results.get(2).getDocument().getChecksum())).isNotNull();
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void batchUploadFallsBackToSingleInsertsWhenANameIsTakenConcurrently() throws Exception {
+		Document raced = documentService.createDocument(document("raced", 52L), "raced.txt",
+				new ByteArrayResource("inserted by another request".getBytes(StandardCharsets.UTF_8)));
+		try {
+			// Stubbing the spy while the pipeline calls it could stub the pipeline's call instead
+			awaitProcessed(raced.getId());
+			// The name check misses the row, as if it had been inserted right after the check
+			doReturn(List.of()).when(documentRepository).findExistingNames(anyLong(), any());
+
+			List<BatchUploadResult> results = documentService.createDocuments(52L, List.of(
+					upload("fresh", "fresh.txt", "fresh content"),
+					upload("raced", "raced-again.txt", "losing content")));
+
+			assertThat(results).extracting(BatchUploadResult::getFileName, BatchUploadResult::isSuccess)
+					.containsExactly(tuple("fresh.txt", true), tuple("raced-again.txt", false));
+			assertThat(results.get(1).getMessage()).contains("'raced' already exists");
+			assertThat(documentRepository.countDocumentsByUser(52L)).isEqualTo(2);
+
+			// The blob of the file that lost the race is reclaimed, the created one is kept
+			assertThat(storageBackend.stat(checksumOf("losing content"))).isNull();
+			assertThat(storageBackend.stat(results.get(0).getDocument().getChecksum())).isNotNull();
+		} finally {
+			documentService.deleteDocumentsByUserId(52L);
+		}
+	}
+
+	private static DocumentUpload upload(String name, String fileName, String content) {
+		return new DocumentUpload(document(name, null), fileName,
+				new ByteArrayResource(content.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static String checksumOf(String content) throws Exception {
+		return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	void changeFeedReturnsTheChangesAfterACursorInOrder() {
+		String start = documentChangeFeed.getChanges(41L, null, null).getCursor();
+		Document first = documentService.createDocument(document("feed-1", 41L));
+		documentService.createDocument(document("feed-2", 41L));
+		documentService.createDocument(document("other-user", 42L));
+		documentService.deleteDocument(first.getId());
+
+		ChangeFeedPage page = documentChangeFeed.getChanges(41L, start, 2);
+		assertThat(page.getChanges()).extracting(DocumentChangeEvent::getType)
+				.containsExactly(ChangeType.CREATED, ChangeType.CREATED);
+		assertThat(page.getChanges().get(0).getDocument()).isNull();
+		assertThat(page.getChanges().get(1).getDocument().getName()).isEqualTo("feed-2");
+		assertThat(page.isHasMore()).isTrue();
+
+		ChangeFeedPage rest = documentChangeFeed.getChanges(41L, page.getCursor(), 2);
+		assertThat(rest.getChanges()).extracting(DocumentChangeEvent::getType, DocumentChangeEvent::getDocumentId)
+				.containsExactly(tuple(ChangeType.DELETED, first.getId()));
+		assertThat(rest.isHasMore()).isFalse();
+		assertThat(documentChangeFeed.getChanges(41L, rest.getCursor(), 2).getChanges()).isEmpty();
+
+		// Once the changes after a cursor are pruned, its client has to list again
+		documentChangeRepository.deleteChangedBefore(Instant.now().plusSeconds(1));
+		ChangeFeedPage pruned = documentChangeFeed.getChanges(41L, start, 2);
+		assertThat(pruned.isResync()).isTrue();
+		assertThat(pruned.getCursor()).isEqualTo(rest.getCursor());
+	}
+
+	@Test
+	void searchTermsBecomePrefixQueriesWithoutTsquerySyntax() {
+		assertThat(DocumentService.toPrefixQuery("Facture  2024")).isEqualTo("facture:* & 2024:*");
+		assertThat(DocumentService.toPrefixQuery("a|b & !c:*")).isEqualTo("a:* & b:* & c:*");
+		assertThat(DocumentService.toPrefixQuery(" -- ")).isEmpty();
+	}
+}
@@ -0,0 +1,119 @@
+package com.itRoad.documents_service.services;
+
+import com.itRoad.documents_service.dto.UploadSession;
+import com.itRoad.documents_service.models.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ResumableUploadServiceTests {
+
+	private static final int CHUNK_SIZE = 1024;
+
+	@TempDir
+	private Path directory;
+
+	private DocumentService documentService;
+
+	private ResumableUploadService uploads;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		documentService = mock(DocumentService.class);
+		uploads = new ResumableUploadService(documentService, directory.toString(), DataSize.ofBytes(CHUNK_SIZE),
+				DataSize.ofMegabytes(1), Duration.ofHours(1), 10);
+		uploads.init();
+	}
+
+	@Test
+	void chunksSentInParallelAndOutOfOrderAreAssembledIntoTheDocument() throws Exception {
+		byte[] content = new byte[10 * CHUNK_SIZE + 123];
+		new Random(42).nextBytes(content);
+		AtomicReference<byte[]> stored = new AtomicReference<>();
+		when(documentService.createDocument(any(Document.class), eq("scan.pdf"), any(InputStreamSource.class)))
+				.thenAnswer(invocation -> {
+					try (InputStream in = invocation.getArgument(2, InputStreamSource.class).getInputStream()) {
+						stored.set(in.readAllBytes());
+					}
+					return invocation.getArgument(0);
+				});
+
+		UploadSession session = uploads.createSession(document(), "scan.pdf", content.length);
+		assertThat(session.getChunkCount()).isEqualTo(11);
+
+		// The first attempt at chunk 3 is cut off and leaves it missing
+		assertThatThrownBy(() -> uploads.writeChunk(session.getId(), 3 * CHUNK_SIZE, CHUNK_SIZE,
+				new ByteArrayInputStream(content, 3 * CHUNK_SIZE, 100))).isInstanceOf(IOException.class);
+
+		List<Future<UploadSession>> writes = new ArrayList<>();
+		try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+			for (int chunk = 10; chunk >= 0; chunk--) {
+				if (chunk == 3) {
+					continue;
+				}
+				int offset = chunk * CHUNK_SIZE;
+				int length = Math.min(CHUNK_SIZE, content.length - offset);
+				writes.add(executor.submit(() -> uploads.writeChunk(session.getId(), offset, length,
+						new ByteArrayInputStream(content, offset, length))));
+			}
+			for (Future<UploadSession> write : writes) {
+				write.get();
+			}
+		}
+
+		UploadSession resumed = uploads.getStatus(session.getId());
+		assertThat(resumed.getMissingChunks()).containsExactly(3);
+		assertThat(resumed.getReceivedBytes()).isEqualTo(content.length - CHUNK_SIZE);
+		assertThatThrownBy(() -> uploads.complete(session.getId())).isInstanceOf(IllegalStateException.class);
+
+		uploads.writeChunk(session.getId(), 3 * CHUNK_SIZE, CHUNK_SIZE, new ByteArrayInputStream(content, 3 * CHUNK_SIZE, CHUNK_SIZE));
+		uploads.complete(session.getId());
+
+		assertThat(stored.get()).isEqualTo(content);
+		try (var files = Files.list(directory)) {
+			assertThat(files).isEmpty();
+		}
+	}
+
+	@Test
+	void misalignedChunksAreRejected() throws IOException {
+		UploadSession session = uploads.createSession(document(), "scan.pdf", 3 * CHUNK_SIZE);
+
+		assertThatThrownBy(() -> uploads.writeChunk(session.getId(), 10, CHUNK_SIZE, InputStream.nullInputStream()))
+				.isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> uploads.writeChunk(session.getId(), CHUNK_SIZE, CHUNK_SIZE - 1, InputStream.nullInputStream()))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	private static Document document() {
+		Document document = new Document();
+		document.setName("Scanned archive");
+		document.setType("PDF");
+		document.setCategory("archive");
+		document.setUserId(1L);
+		return document;
+	}
+}
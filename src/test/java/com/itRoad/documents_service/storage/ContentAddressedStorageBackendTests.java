@@ -0,0 +1,214 @@
+package com.itRoad.documents_service.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.Resource;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContentAddressedStorageBackendTests {
+
+	@TempDir
+	private Path root;
+
+	private ContentAddressedStorageBackend backend;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		backend = new ContentAddressedStorageBackend(root.toString(), true, Set.of("csv", "PDF"), 6, 0.1, 4, 64,
+						DataSize.ofKilobytes(64), DataSize.ofKilobytes(16), 0.5);
+		backend.init();
+	}
+
+	@Test
+	void compressibleContentIsStoredGzippedAndReadBackDecompressed() throws IOException {
+		StringBuilder csv = new StringBuilder("id,name,amount\n");
+		for (int i = 0; i < 2000; i++) {
+			csv.append(i).append(",invoice-").append(i % 50).append(",").append(i * 3 % 1000).append('\n');
+		}
+		byte[] content = csv.toString().getBytes(StandardCharsets.UTF_8);
+
+		StoredBlob blob = backend.store(new ByteArrayInputStream(content), "CSV");
+
+		assertThat(blob.getEncoding()).isEqualTo("gzip");
+		assertThat(blob.getSize()).isEqualTo(content.length);
+		assertThat(blob.getStoredSize()).isLessThan(content.length / 3);
+		assertThat(backend.stat(blob.getKey())).isEqualTo(blob);
+		assertThat(read(backend.load(blob.getKey()).getInputStream())).isEqualTo(content);
+		assertThat(backend.loadStored(blob.getKey()).contentLength()).isEqualTo(blob.getStoredSize());
+
+		// Same content under a type that is not compressed is deduplicated against the gzip blob
+		assertThat(backend.store(new ByteArrayInputStream(content), "PNG").getKey()).isEqualTo(blob.getKey());
+
+		backend.delete(blob.getKey());
+		assertThat(backend.stat(blob.getKey())).isNull();
+	}
+
+	@Test
+	void contentThatDoesNotShrinkIsKeptRaw() throws IOException {
+		byte[] content = new byte[100_000];
+		new Random(42).nextBytes(content);
+
+		StoredBlob blob = backend.store(new ByteArrayInputStream(content), "PDF");
+
+		assertThat(blob.getEncoding()).isNull();
+		assertThat(blob.getStoredSize()).isEqualTo(content.length);
+		assertThat(backend.load(blob.getKey()).isFile()).isTrue();
+		assertThat(read(backend.load(blob.getKey()).getInputStream())).isEqualTo(content);
+	}
+
+	@Test
+	void compressionIsDecidedOnTheFirstBytesAndSkippedForContentTooLargeForGzip() throws IOException {
+		// Incompressible at the start, like a PDF of deflated streams, however well the rest would shrink
+		byte[] content = new byte[1024 * 1024];
+		new Random(7).nextBytes(content);
+		Arrays.fill(content, 256 * 1024, content.length, (byte) 'a');
+		StoredBlob sampled = backend.store(new ByteArrayInputStream(content), "PDF");
+		assertThat(sampled.getEncoding()).isNull();
+		assertThat(read(backend.load(sampled.getKey()).getInputStream())).isEqualTo(content);
+
+		byte[] csv = "id,name\n1,invoice\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+		assertThat(backend.store(new ByteArrayInputStream(csv), "CSV", 5L << 30).getEncoding()).isNull();
+		assertThat(backend.store(new ByteArrayInputStream(("x" + new String(csv, StandardCharsets.UTF_8))
+				.getBytes(StandardCharsets.UTF_8)), "CSV", csv.length + 1).getEncoding()).isEqualTo("gzip");
+	}
+
+	@Test
+	void indexIsKeptAcrossCleanRestartsAndRebuiltFromDiskAfterACrash() throws IOException {
+		// Far more blobs than the initial capacity, so stripes grow and deletions shift probe runs
+		List<StoredBlob> kept = new ArrayList<>();
+		List<StoredBlob> deleted = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			String type = i % 10 == 0 ? "CSV" : "BIN";
+			StoredBlob blob = backend.store(new ByteArrayInputStream(("blob " + i + ",").repeat(i % 10 == 0 ? 200 : 1)
+					.getBytes(StandardCharsets.UTF_8)), type);
+			if (i % 3 == 0) {
+				backend.delete(blob.getKey());
+				deleted.add(blob);
+			} else {
+				kept.add(blob);
+			}
+		}
+		assertThat(kept).anyMatch(blob -> "gzip".equals(blob.getEncoding()));
+		assertIndexed(backend, kept, deleted);
+
+		backend.close();
+		ContentAddressedStorageBackend restarted = reopen();
+		assertIndexed(restarted, kept, deleted);
+
+		// Not closed - the next start finds the index dirty and rescans the blobs
+		ContentAddressedStorageBackend recovered = reopen();
+		assertIndexed(recovered, kept, deleted);
+		recovered.close();
+	}
+
+	@Test
+	void changingTheStripeCountRebuildsTheIndex() throws IOException {
+		List<StoredBlob> kept = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			kept.add(backend.store(new ByteArrayInputStream(("stripe " + i).getBytes(StandardCharsets.UTF_8)), "BIN"));
+		}
+		backend.close();
+
+		for (int stripes : new int[] {2, 8}) {
+			ContentAddressedStorageBackend reopened = new ContentAddressedStorageBackend(root.toString(), true,
+					Set.of("csv", "PDF"), 6, 0.1, stripes, 64, DataSize.ofKilobytes(64), DataSize.ofKilobytes(16), 0.5);
+			reopened.init();
+			assertIndexed(reopened, kept, List.of());
+			reopened.close();
+		}
+		try (Stream<Path> files = Files.list(root.resolve(".index"))) {
+			assertThat(files.filter(file -> file.toString().endsWith(".idx"))).hasSize(8);
+		}
+	}
+
+	@Test
+	void smallBlobsArePackedIntoSegmentsAndCompactedAfterDeletions() throws IOException {
+		List<StoredBlob> kept = new ArrayList<>();
+		List<StoredBlob> deleted = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			byte[] content = new byte[500 + i];
+			new Random(i).nextBytes(content);
+			StoredBlob blob = backend.store(new ByteArrayInputStream(content), "PNG");
+			if (i % 4 == 0) {
+				kept.add(blob);
+			} else {
+				deleted.add(blob);
+			}
+		}
+		for (StoredBlob blob : deleted) {
+			backend.delete(blob.getKey());
+		}
+		// Nothing but segments under the blob shards
+		try (Stream<Path> blobs = Files.walk(root.resolve("blobs"))) {
+			assertThat(blobs.filter(Files::isRegularFile)).isEmpty();
+		}
+		long before = segmentBytes();
+
+		backend.compactSegments();
+		backend.compactSegments();
+
+		assertThat(segmentBytes()).isLessThan(before / 2);
+		assertIndexed(backend, kept, deleted);
+		for (int i = 0; i < kept.size(); i++) {
+			Resource resource = backend.load(kept.get(i).getKey());
+			byte[] content = new byte[500 + i * 4];
+			new Random(i * 4).nextBytes(content);
+			assertThat(resource.isFile()).isFalse();
+			assertThat(resource.contentLength()).isEqualTo(content.length);
+			assertThat(read(resource.getInputStream())).isEqualTo(content);
+		}
+
+		// Not closed - the rebuilt index finds the packed blobs, and the tombstones keep the deleted ones out
+		ContentAddressedStorageBackend recovered = reopen();
+		assertIndexed(recovered, kept, deleted);
+		recovered.close();
+	}
+
+	private long segmentBytes() throws IOException {
+		try (Stream<Path> segments = Files.list(root.resolve("segments"))) {
+			return segments.mapToLong(segment -> segment.toFile().length()).sum();
+		}
+	}
+
+	private ContentAddressedStorageBackend reopen() throws IOException {
+		ContentAddressedStorageBackend reopened =
+				new ContentAddressedStorageBackend(root.toString(), true, Set.of("csv", "PDF"), 6, 0.1, 4, 64,
+						DataSize.ofKilobytes(64), DataSize.ofKilobytes(16), 0.5);
+		reopened.init();
+		return reopened;
+	}
+
+	private static void assertIndexed(ContentAddressedStorageBackend backend, List<StoredBlob> kept, List<StoredBlob> deleted)
+			throws IOException {
+		for (StoredBlob blob : kept) {
+			assertThat(backend.stat(blob.getKey())).isEqualTo(blob);
+		}
+		for (StoredBlob blob : deleted) {
+			assertThat(backend.stat(blob.getKey())).isNull();
+		}		// Usage totals follow the index through growth, deletions, restarts and rebuilds
+		assertThat(backend.blobCount()).isEqualTo(kept.size());
+		assertThat(backend.storedBytes()).isEqualTo(kept.stream().mapToLong(StoredBlob::getStoredSize).sum());
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		try (in) {
+			return in.readAllBytes();
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package com.itRoad.documents_service.utils;
+
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JwtUtilTests {
+
+	private static final String SECRET_KEY = "jwt.myVerySecureSecretKeyThatIsAtLeast32CharactersLongForHS256Algorithm";
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final JwtUtil jwtUtil = new JwtUtil(meterRegistry, 100, Duration.ofMinutes(15));
+
+	private static String token(String subject, long expiresInMillis) {
+		return Jwts.builder()
+				.subject(subject)
+				.expiration(new Date(System.currentTimeMillis() + expiresInMillis))
+				.signWith(Keys.hmacShaKeyFor(SECRET_KEY.getBytes(StandardCharsets.UTF_8)))
+				.compact();
+	}
+
+	@Test
+	void repeatedTokenIsVerifiedOnceAndThenServedFromCache() {
+		String token = token("alice", 60_000);
+
+		assertThat(jwtUtil.extractClaims(token).getSubject()).isEqualTo("alice");
+		assertThat(jwtUtil.extractClaims(token).getSubject()).isEqualTo("alice");
+
+		assertThat(meterRegistry.get("jwt.verification").timer().count()).isEqualTo(1);
+		assertThat(meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count()).isEqualTo(1);
+	}
+
+	@Test
+	void expiredTokenIsRejectedAndNotCached() {
+		String token = token("bob", -1_000);
+
+		assertThatThrownBy(() -> jwtUtil.extractClaims(token)).isInstanceOf(ExpiredJwtException.class);
+		assertThatThrownBy(() -> jwtUtil.extractClaims(token)).isInstanceOf(ExpiredJwtException.class);
+	}
+}
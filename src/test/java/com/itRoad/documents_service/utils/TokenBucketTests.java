@@ -0,0 +1,46 @@
+package com.itRoad.documents_service.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenBucketTests {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	void burstIsAdmittedThenRequestsArePacedToTheRate() {
+		long now = 0;
+		TokenBucket bucket = new TokenBucket(10, 20, now);
+
+		for (int i = 0; i < 20; i++) {
+			assertThat(bucket.tryAcquire(1, now)).isZero();
+		}
+		long wait = bucket.tryAcquire(1, now);
+		assertThat(wait).isEqualTo(SECOND / 10);
+
+		assertThat(bucket.tryAcquire(1, now + wait)).isZero();
+		assertThat(bucket.tryAcquire(1, now + wait)).isPositive();
+		// A full second refills ten tokens
+		assertThat(bucket.tryAcquire(10, now + wait + SECOND)).isZero();
+	}
+
+	@Test
+	void oversizedRequestIsAdmittedWhenFullAndLeavesTheBucketInDebt() {
+		long now = 0;
+		TokenBucket bucket = new TokenBucket(1000, 2000, now);
+
+		assertThat(bucket.tryAcquire(5000, now)).isZero();
+		// 5000 tokens taken from 2000: the 3000 owed take three seconds to repay before the bucket is usable
+		assertThat(bucket.tryAcquire(0, now)).isEqualTo(3 * SECOND);
+		assertThat(bucket.tryAcquire(0, now + 3 * SECOND)).isZero();
+
+		// Usage charged afterwards works the same way (the bucket is empty now, so all 4000 are owed) and can be given back
+		bucket.charge(4000, now + 3 * SECOND);
+		assertThat(bucket.tryAcquire(0, now + 3 * SECOND)).isEqualTo(4 * SECOND);
+		bucket.charge(-4000, now + 3 * SECOND);
+		assertThat(bucket.tryAcquire(0, now + 3 * SECOND)).isZero();
+	}
+}